@@ -0,0 +1,49 @@
+package nl.esciencecenter.computeservice.utils;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import nl.esciencecenter.computeservice.model.WorkflowBinding;
+
+/**
+ * Reads and writes a typical job order the way the stage-in does, once with a
+ * new ObjectMapper per call and once with the shared reader and writer.
+ *
+ * Run with ./gradlew jmh, the gc profiler reports the allocation per call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JacksonBenchmark {
+	private static final String JOB_ORDER = "{"
+			+ "\"file1\": {\"class\": \"File\", \"path\": \"input/ipsum.txt\"},"
+			+ "\"inp_dirs\": [{\"class\": \"Directory\", \"path\": \"input\"}, {\"class\": \"Directory\", \"path\": \"input3\"}],"
+			+ "\"newnames\": [\"output1\", \"output2\"],"
+			+ "\"threshold\": 0.25,"
+			+ "\"xenonflow_jobname\": \"benchmark\""
+			+ "}";
+
+	@Benchmark
+	public String newMapperPerCall() throws IOException {
+		ObjectMapper mapper = new ObjectMapper(new JsonFactory());
+		WorkflowBinding jobOrder = mapper.readValue(new StringReader(JOB_ORDER), WorkflowBinding.class);
+		return new ObjectMapper().writeValueAsString(jobOrder);
+	}
+
+	@Benchmark
+	public String sharedReaderAndWriter() throws IOException {
+		WorkflowBinding jobOrder = JacksonUtils.getWorkflowBindingReader("json").readValue(new StringReader(JOB_ORDER));
+		return JacksonUtils.getWorkflowBindingWriter().writeValueAsString(jobOrder);
+	}
+}
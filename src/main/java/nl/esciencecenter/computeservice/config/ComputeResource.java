@@ -31,6 +31,15 @@ public class ComputeResource {
 	@JsonProperty(value="maxTime", required=false)
 	private int maxTime;
 
+	@JsonProperty(value="connections", required=false)
+	private int connections = 1;
+
+	@JsonProperty(value="batchSize", required=false)
+	private int batchSize = 1;
+
+	@JsonProperty(value="batchWait", required=false)
+	private long batchWait = 10000;
+
 	public AdaptorConfig getSchedulerConfig() {
 		return schedulerConfig;
 	}
@@ -62,4 +71,28 @@ public class ComputeResource {
 	public void setMaxTime(int maxTime) {
 		this.maxTime = maxTime;
 	}
+
+	public int getConnections() {
+		return connections;
+	}
+
+	public void setConnections(int connections) {
+		this.connections = connections;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public long getBatchWait() {
+		return batchWait;
+	}
+
+	public void setBatchWait(long batchWait) {
+		this.batchWait = batchWait;
+	}
 }
@@ -0,0 +1,212 @@
+/**
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.computeservice.config;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Settings for copying files to and from the compute resources.
+ *
+ * The number of jobs that stage in at the same time is limited. Stage in
+ * copies from the sourceFileSystem to the filesystem of a compute resource,
+ * so every compute resource is its own source/remote filesystem pair with its
+ * own limit.
+ */
+@JsonIgnoreProperties(ignoreUnknown = false)
+public class StagingConfig {
+	@JsonProperty(value="maxConcurrentStageIn", required=false)
+	private int maxConcurrentStageIn = 4;
+
+	@JsonProperty(value="perComputeResource", required=false)
+	private Map<String, Integer> perComputeResource = new HashMap<String, Integer>();
+
+	@JsonProperty(value="copyPollInterval", required=false)
+	private long copyPollInterval = 250;
+
+	@JsonProperty(value="finishThreads", required=false)
+	private int finishThreads = 4;
+
+	@JsonProperty(value="resumableThreshold", required=false)
+	private long resumableThreshold = 256L * 1024 * 1024;
+
+	@JsonProperty(value="transferStreams", required=false)
+	private int transferStreams = 4;
+
+	@JsonProperty(value="directoryStreams", required=false)
+	private int directoryStreams = 8;
+
+	@JsonProperty(value="directoryThreads", required=false)
+	private int directoryThreads = 4;
+
+	@JsonProperty(value="cacheSize", required=false)
+	private long cacheSize = 0;
+
+	@JsonProperty(value="cacheDirectory", required=false)
+	private String cacheDirectory = ".xenonflow-cache";
+
+	@JsonProperty(value="cacheMinFileSize", required=false)
+	private long cacheMinFileSize = 1024L * 1024;
+
+	@JsonProperty(value="logOutputLimit", required=false)
+	private long logOutputLimit = 64L * 1024;
+
+	public int getMaxConcurrentStageIn() {
+		return maxConcurrentStageIn;
+	}
+
+	public void setMaxConcurrentStageIn(int maxConcurrentStageIn) {
+		this.maxConcurrentStageIn = maxConcurrentStageIn;
+	}
+
+	public Map<String, Integer> getPerComputeResource() {
+		return perComputeResource;
+	}
+
+	public void setPerComputeResource(Map<String, Integer> perComputeResource) {
+		this.perComputeResource = perComputeResource;
+	}
+
+	/**
+	 * How often (in ms) the copies of the jobs that are staging are checked.
+	 */
+	public long getCopyPollInterval() {
+		return copyPollInterval;
+	}
+
+	public void setCopyPollInterval(long copyPollInterval) {
+		this.copyPollInterval = copyPollInterval;
+	}
+
+	/**
+	 * The number of jobs whose staging is finished at the same time, once
+	 * their copies are done.
+	 */
+	public int getFinishThreads() {
+		return finishThreads;
+	}
+
+	public void setFinishThreads(int finishThreads) {
+		this.finishThreads = finishThreads;
+	}
+
+	/**
+	 * Files of at least this many bytes are copied so that an interrupted copy
+	 * can be resumed. 0 disables resumable copies.
+	 */
+	public long getResumableThreshold() {
+		return resumableThreshold;
+	}
+
+	public void setResumableThreshold(long resumableThreshold) {
+		this.resumableThreshold = resumableThreshold;
+	}
+
+	/**
+	 * The number of resumable copies that run at the same time.
+	 */
+	public int getTransferStreams() {
+		return transferStreams;
+	}
+
+	public void setTransferStreams(int transferStreams) {
+		this.transferStreams = transferStreams;
+	}
+
+	/**
+	 * The number of files of input and output directories that are copied at
+	 * the same time, over all directories.
+	 */
+	public int getDirectoryStreams() {
+		return directoryStreams;
+	}
+
+	public void setDirectoryStreams(int directoryStreams) {
+		this.directoryStreams = directoryStreams;
+	}
+
+	/**
+	 * The number of directories that are listed and copied at the same time,
+	 * the others wait for their turn.
+	 */
+	public int getDirectoryThreads() {
+		return directoryThreads;
+	}
+
+	public void setDirectoryThreads(int directoryThreads) {
+		this.directoryThreads = directoryThreads;
+	}
+
+	/**
+	 * The maximum number of bytes of input files kept in the cache on the
+	 * remote filesystem. 0 disables the cache.
+	 */
+	public long getCacheSize() {
+		return cacheSize;
+	}
+
+	public void setCacheSize(long cacheSize) {
+		this.cacheSize = cacheSize;
+	}
+
+	/**
+	 * The directory of the cache, relative to the working directory of the
+	 * remote filesystem.
+	 */
+	public String getCacheDirectory() {
+		return cacheDirectory;
+	}
+
+	public void setCacheDirectory(String cacheDirectory) {
+		this.cacheDirectory = cacheDirectory;
+	}
+
+	/**
+	 * Smaller input files are copied into the job directory, linking them is
+	 * not worth the bookkeeping.
+	 */
+	public long getCacheMinFileSize() {
+		return cacheMinFileSize;
+	}
+
+	public void setCacheMinFileSize(long cacheMinFileSize) {
+		this.cacheMinFileSize = cacheMinFileSize;
+	}
+
+	/**
+	 * The number of bytes at the start of the standard output and standard
+	 * error of a job that are copied into the job log.
+	 */
+	public long getLogOutputLimit() {
+		return logOutputLimit;
+	}
+
+	public void setLogOutputLimit(long logOutputLimit) {
+		this.logOutputLimit = logOutputLimit;
+	}
+
+	/**
+	 * The maximum number of jobs staging in to the given compute resource at
+	 * the same time.
+	 */
+	public int getMaxConcurrentStageIn(String computeResource) {
+		Integer limit = perComputeResource.get(computeResource);
+		return limit != null ? limit : maxConcurrentStageIn;
+	}
+}
@@ -31,14 +31,11 @@ import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ObjectReader;
 
 import nl.esciencecenter.computeservice.utils.JacksonUtils;
-import nl.esciencecenter.xenon.credentials.Credential;
 
 public class XenonflowConfig {
 	private static final Logger logger = LoggerFactory.getLogger(XenonflowConfig.class);
@@ -57,6 +54,9 @@ public class XenonflowConfig {
 	@JsonProperty(value="cwlFileSystem", required=true)
 	private AdaptorConfig cwlFileSystemConfig;
 	
+	@JsonProperty(value="staging", required=false)
+	private StagingConfig stagingConfig = new StagingConfig();
+	
 	
 	/**
 	 * Loads a XenonConfig from a yaml or json file. File type is deteremined by the file extension.
@@ -70,15 +70,10 @@ public class XenonflowConfig {
 	 */
 	public static XenonflowConfig loadFromFile(String configFile, String xenonflowHome, String xenonflowFiles) throws IOException {
 		String extension = FilenameUtils.getExtension(configFile);
-		ObjectMapper mapper;
 		XenonflowConfig config = null;
 
 		try {
-			mapper = JacksonUtils.getMapperForFileType(extension);
-			SimpleModule module = new SimpleModule();
-		
-			module.addDeserializer(Credential.class, new CredentialDeserializer());
-			mapper.registerModule(module);
+			ObjectReader reader = JacksonUtils.getConfigReader(extension);
 
 			Path xenonflowConfigPath = Paths.get(xenonflowHome, configFile);
 			logger.info("Loading xenon config from: " + xenonflowConfigPath.toString());
@@ -87,7 +82,7 @@ public class XenonflowConfig {
 			contents = contents.replaceAll("\\$\\{XENONFLOW_HOME\\}", xenonflowHome);
 			contents = contents.replaceAll("\\$XENONFLOW_FILES", xenonflowHome);
 			contents = contents.replaceAll("\\$XENONFLOW_HOME", xenonflowHome);
-			config = mapper.readValue(contents, XenonflowConfig.class);
+			config = reader.readValue(contents);
         
 			if (config.getDefaultComputeResourceName() == null) {
 				// use the first key as the default if it's not set in the file
@@ -118,13 +113,7 @@ public class XenonflowConfig {
 	 * @throws IOException When the file is not found
 	 */
 	public static XenonflowConfig loadFromString(String configstring, String type) throws JsonParseException, JsonMappingException, IOException {
-		ObjectMapper mapper = new ObjectMapper(new JsonFactory());
-		SimpleModule module = new SimpleModule();
-		
-		module.addDeserializer(Credential.class, new CredentialDeserializer());
-		mapper.registerModule(module);
-		
-		XenonflowConfig config = mapper.readValue(new StringReader(configstring), XenonflowConfig.class);
+		XenonflowConfig config = JacksonUtils.getConfigReader(type).readValue(new StringReader(configstring));
 		
 		if (config.getDefaultComputeResourceName() == null) {
 			// use the first key as the default if it's not set in the file
@@ -171,6 +160,18 @@ public class XenonflowConfig {
 		}
 	}
 	
+	/**
+	 * The name of the compute resource a job runs on. Jobs without one run on
+	 * the default compute resource.
+	 */
+	public String computeResourceName(String name) {
+		return name != null ? name : defaultComputeResourceName;
+	}
+	
+	public ComputeResource computeResource(String name) {
+		return this.get(computeResourceName(name));
+	}
+	
 	public AdaptorConfig getSourceFilesystemConfig() {
 		return sourceFileSystemConfig;
 	}
@@ -194,6 +195,14 @@ public class XenonflowConfig {
 	public void setCwlFilesystemConfig(AdaptorConfig cwlFileSystemConfig) {
 		this.cwlFileSystemConfig = cwlFileSystemConfig;
 	}
+	
+	public StagingConfig getStagingConfig() {
+		return stagingConfig;
+	}
+
+	public void setStagingConfig(StagingConfig stagingConfig) {
+		this.stagingConfig = stagingConfig;
+	}
 
 	/*
 	 * A bunch of delegate methods from Map
@@ -0,0 +1,13 @@
+package nl.esciencecenter.computeservice.model;
+
+import java.util.HashMap;
+
+import javax.persistence.Converter;
+
+@Converter
+public class AdditionalInfoConverter extends JsonColumnConverter<HashMap<String, Object>> {
+	@SuppressWarnings("unchecked")
+	public AdditionalInfoConverter() {
+		super((Class<HashMap<String, Object>>) (Class<?>) HashMap.class);
+	}
+}
@@ -0,0 +1,105 @@
+package nl.esciencecenter.computeservice.model;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * An input file that has been copied to the cache on the remote filesystem.
+ *
+ * The key is derived from the compute resource and the location, size and
+ * modification time of the source file, so a changed source file gets a new
+ * entry. Jobs link to the
+ * cached copy instead of copying the file into their sandbox.
+ */
+@Entity
+@Table(indexes = {
+	@Index(name = "cached_input_used_idx", columnList = "ready, lastUsed")
+})
+public class CachedInput {
+	@Id
+	@Column(name = "id", columnDefinition = "varchar(64)")
+	private String id;
+
+	@Column(name = "computeResource")
+	private String computeResource;
+
+	@Column(name = "path", columnDefinition = "varchar(2048)")
+	private String path;
+
+	@Column(name = "size")
+	private long size;
+
+	/**
+	 * False while the file is being copied into the cache.
+	 */
+	@Column(name = "ready")
+	private boolean ready = false;
+
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "lastUsed")
+	private Date lastUsed;
+
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	/**
+	 * The compute resource whose filesystem holds the cached copy, null for
+	 * the default one.
+	 */
+	public String getComputeResource() {
+		return computeResource;
+	}
+
+	public void setComputeResource(String computeResource) {
+		this.computeResource = computeResource;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public void setPath(String path) {
+		this.path = path;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public void setSize(long size) {
+		this.size = size;
+	}
+
+	public boolean isReady() {
+		return ready;
+	}
+
+	public void setReady(boolean ready) {
+		this.ready = ready;
+	}
+
+	public Date getLastUsed() {
+		return lastUsed;
+	}
+
+	public void setLastUsed(Date lastUsed) {
+		this.lastUsed = lastUsed;
+	}
+
+	@Override
+	public String toString() {
+		return "CachedInput [id=" + id + ", computeResource=" + computeResource + ", path=" + path + ", size=" + size + ", ready=" + ready + ", lastUsed=" + lastUsed + "]";
+	}
+}
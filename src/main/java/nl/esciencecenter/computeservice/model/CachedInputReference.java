@@ -0,0 +1,51 @@
+package nl.esciencecenter.computeservice.model;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+
+/**
+ * Marks a cached input as in use by a job. A cached input is only evicted
+ * when no job refers to it.
+ */
+@Entity
+@Table(uniqueConstraints = {
+	@UniqueConstraint(name = "cached_input_ref_uk", columnNames = {"cacheKey", "jobId"})
+}, indexes = {
+	@Index(name = "cached_input_ref_job_idx", columnList = "jobId")
+})
+public class CachedInputReference {
+	@Id
+	@GeneratedValue
+	private Long id;
+
+	@Column(name = "cacheKey", columnDefinition = "varchar(64)")
+	private String cacheKey;
+
+	@Column(name = "jobId")
+	private String jobId;
+
+	protected CachedInputReference() {
+	}
+
+	public CachedInputReference(String cacheKey, String jobId) {
+		this.cacheKey = cacheKey;
+		this.jobId = jobId;
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	public String getCacheKey() {
+		return cacheKey;
+	}
+
+	public String getJobId() {
+		return jobId;
+	}
+}
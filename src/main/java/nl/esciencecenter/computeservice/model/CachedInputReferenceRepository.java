@@ -0,0 +1,17 @@
+package nl.esciencecenter.computeservice.model;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface CachedInputReferenceRepository extends JpaRepository<CachedInputReference, Long> {
+	boolean existsByCacheKeyAndJobId(String cacheKey, String jobId);
+
+	boolean existsByCacheKey(String cacheKey);
+
+	@Modifying
+	@Query("delete from CachedInputReference r where r.jobId = ?1")
+	int deleteByJobId(String jobId);
+}
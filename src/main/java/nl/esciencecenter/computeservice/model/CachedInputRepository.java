@@ -0,0 +1,32 @@
+package nl.esciencecenter.computeservice.model;
+
+import java.util.List;
+
+import javax.persistence.LockModeType;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface CachedInputRepository extends JpaRepository<CachedInput, String> {
+	@Lock(LockModeType.PESSIMISTIC_WRITE)
+	@Query("select c from CachedInput c where c.id = ?1")
+	CachedInput findOneForUpdate(String id);
+
+	@Query("select coalesce(sum(c.size), 0) from CachedInput c")
+	long totalSize();
+
+	/**
+	 * Cached inputs that no job refers to, least recently used first.
+	 */
+	@Query("select c from CachedInput c where c.ready = true and not exists "
+			+ "(select r from CachedInputReference r where r.cacheKey = c.id) order by c.lastUsed")
+	List<CachedInput> findUnreferencedByLastUsed();
+
+	@Modifying
+	@Query("delete from CachedInput c where c.ready = false")
+	int deleteNotReady();
+}
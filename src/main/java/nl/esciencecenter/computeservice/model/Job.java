@@ -3,33 +3,60 @@ package nl.esciencecenter.computeservice.model;
 import java.io.Serializable;
 import java.text.Normalizer;
 import java.text.Normalizer.Form;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Objects;
 
 import javax.persistence.Column;
+import javax.persistence.Convert;
 import javax.persistence.Entity;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.PostLoad;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
 import javax.persistence.Transient;
+import javax.persistence.Version;
 import javax.validation.constraints.NotNull;
 
+import org.hibernate.annotations.DynamicUpdate;
+
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 import io.swagger.annotations.ApiModelProperty;
+import nl.esciencecenter.computeservice.utils.JacksonUtils;
 import nl.esciencecenter.xenon.filesystems.Path;
 
 /**
  * Job
+ * 
+ * The fields that change while a job runs are stored in their own columns, so
+ * updating them does not rewrite the input, output and additionalInfo JSON.
  */
 @Entity
+@DynamicUpdate
+@Table(indexes = {
+	@Index(name = "job_state_updated_idx", columnList = "internalState, updatedAt"),
+	@Index(name = "job_created_idx", columnList = "createdAt, id")
+})
 public class Job implements Serializable {
 	/**
 	 * 
 	 */
 	private static final long serialVersionUID = -651298299479062306L;
+	
+	/**
+	 * Jobs with an older (null) schema version may still have the columns below stored
+	 * in the additionalInfo map.
+	 */
+	public static final int SCHEMA_VERSION = 1;
 
 	
 	@Id
@@ -46,10 +73,11 @@ public class Job implements Serializable {
 
 	@JsonProperty("input")
 	@Column(name = "input", columnDefinition = "CLOB", nullable = true)
+	@Convert(converter = WorkflowBindingConverter.class)
 	private WorkflowBinding input = null;
 
-	@JsonProperty("additionalInfo")
 	@Column(name = "additionalInfo", columnDefinition = "CLOB", nullable = true)
+	@Convert(converter = AdditionalInfoConverter.class)
 	private HashMap<String, Object> additionalInfo = null;
 	
 	@JsonIgnore
@@ -58,6 +86,7 @@ public class Job implements Serializable {
 	
 	@JsonProperty("output")
 	@Column(name = "output", columnDefinition = "CLOB", nullable = true)
+	@Convert(converter = WorkflowBindingConverter.class)
 	private WorkflowBinding output = null;
 			
 	@JsonProperty("log")
@@ -74,6 +103,119 @@ public class Job implements Serializable {
 	@JsonIgnore
 	@Column(name = "xenonid", columnDefinition = "varchar(256)", nullable = true)
 	private String xenonId = null;
+	
+	@JsonIgnore
+	@Column(name = "xenonState", columnDefinition = "varchar(64)", nullable = true)
+	private String xenonState = null;
+	
+	@JsonIgnore
+	@Column(name = "xenonExitcode", nullable = true)
+	private Integer xenonExitcode = null;
+	
+	@JsonIgnore
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "createdAt", nullable = true)
+	private Date createdAt = null;
+	
+	@JsonIgnore
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "updatedAt", nullable = true)
+	private Date updatedAt = null;
+	
+	@JsonIgnore
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "startedAt", nullable = true)
+	private Date startedAt = null;
+	
+	@JsonIgnore
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "finalizedAt", nullable = true)
+	private Date finalizedAt = null;
+	
+	@JsonIgnore
+	@Column(name = "computeResource", columnDefinition = "varchar(256)", nullable = true)
+	private String computeResource = null;
+	
+	/**
+	 * Set for jobs that run together with other jobs in a single scheduler job.
+	 */
+	@JsonIgnore
+	@Column(name = "batchId", columnDefinition = "varchar(256)", nullable = true)
+	private String batchId = null;
+	
+	@JsonIgnore
+	@Column(name = "schemaVersion", nullable = true)
+	private Integer schemaVersion = SCHEMA_VERSION;
+	
+	/**
+	 * Incremented on every update. The default fills in existing rows when the column is added.
+	 */
+	@JsonIgnore
+	@Version
+	@Column(name = "version", columnDefinition = "bigint default 0")
+	private Long version = null;
+	
+	@PrePersist
+	protected void created() {
+		if (createdAt == null) {
+			createdAt = new Date();
+		}
+		updatedAt = new Date();
+	}
+	
+	@PreUpdate
+	protected void touch() {
+		updatedAt = new Date();
+	}
+	
+	/**
+	 * Move values that older versions kept in the additionalInfo map into
+	 * their own columns.
+	 */
+	@PostLoad
+	protected void migrateAdditionalInfo() {
+		if (additionalInfo == null) {
+			return;
+		}
+		additionalInfo.remove("internalState");
+		if (xenonState == null && additionalInfo.containsKey("xenon.state")) {
+			xenonState = (String) additionalInfo.remove("xenon.state");
+		}
+		if (xenonExitcode == null && additionalInfo.get("xenon.exitcode") instanceof Number) {
+			xenonExitcode = ((Number) additionalInfo.remove("xenon.exitcode")).intValue();
+		}
+		if (createdAt == null) {
+			createdAt = asDate(additionalInfo.remove("createdAt"));
+		}
+		if (startedAt == null) {
+			startedAt = asDate(additionalInfo.remove("startedAt"));
+		}
+		if (finalizedAt == null) {
+			finalizedAt = asDate(additionalInfo.remove("finalizedAt"));
+		}
+		if (additionalInfo.get("error") instanceof Throwable) {
+			additionalInfo.put("error", describeError((Throwable) additionalInfo.get("error")));
+		}
+	}
+	
+	private static Date asDate(Object value) {
+		if (value instanceof Date) {
+			return (Date) value;
+		} else if (value instanceof Number) {
+			return new Date(((Number) value).longValue());
+		}
+		return null;
+	}
+	
+	/**
+	 * The part of an exception we keep in the additionalInfo of a job.
+	 */
+	public static Map<String, Object> describeError(Throwable e) {
+		Map<String, Object> error = new LinkedHashMap<String, Object>();
+		error.put("message", e.getMessage());
+		error.put("type", e.getClass().getName());
+		return error;
+	}
 
 	public void changeState(JobState from, JobState to) throws StatePreconditionException {
 		if (this.internalState != from) {
@@ -98,15 +240,42 @@ public class Job implements Serializable {
 				&& Objects.equals(this.log, job.log) && Objects.equals(this.additionalInfo, job.additionalInfo);
 	}
 	
-	@ApiModelProperty(required = false, value = "")
-	@Transient
+	/**
+	 * The stored additional info of the job. Changes to this map are persisted,
+	 * use getAdditionalInfoView() to include the columns as well.
+	 */
+	@JsonIgnore
 	public HashMap<String, Object> getAdditionalInfo() {
 		if (additionalInfo == null) {
 			additionalInfo = new HashMap<String, Object>();
 		}
-		additionalInfo.put("internalState", internalState);
 		return additionalInfo;
 	}
+	
+	/**
+	 * The additional info as shown in the api, with the job state, xenon
+	 * state and timestamps merged in.
+	 */
+	@ApiModelProperty(required = false, value = "")
+	@JsonProperty("additionalInfo")
+	@Transient
+	public Map<String, Object> getAdditionalInfoView() {
+		Map<String, Object> view = new LinkedHashMap<String, Object>(getAdditionalInfo());
+		view.put("internalState", internalState);
+		putIfNotNull(view, "xenon.state", xenonState);
+		putIfNotNull(view, "xenon.exitcode", xenonExitcode);
+		putIfNotNull(view, "createdAt", createdAt);
+		putIfNotNull(view, "updatedAt", updatedAt);
+		putIfNotNull(view, "startedAt", startedAt);
+		putIfNotNull(view, "finalizedAt", finalizedAt);
+		return view;
+	}
+	
+	private static void putIfNotNull(Map<String, Object> map, String key, Object value) {
+		if (value != null) {
+			map.put(key, value);
+		}
+	}
 
 	/**
 	 * Get id
@@ -207,6 +376,46 @@ public class Job implements Serializable {
 		return xenonId;
 	}
 
+	public String getXenonState() {
+		return xenonState;
+	}
+
+	public Integer getXenonExitcode() {
+		return xenonExitcode;
+	}
+
+	public Date getCreatedAt() {
+		return createdAt;
+	}
+
+	public Date getUpdatedAt() {
+		return updatedAt;
+	}
+
+	public Date getStartedAt() {
+		return startedAt;
+	}
+
+	public Date getFinalizedAt() {
+		return finalizedAt;
+	}
+
+	public String getComputeResource() {
+		return computeResource;
+	}
+
+	public String getBatchId() {
+		return batchId;
+	}
+
+	public Integer getSchemaVersion() {
+		return schemaVersion;
+	}
+
+	public Long getVersion() {
+		return version;
+	}
+
 	@Override
 	public int hashCode() {
 		return Objects.hash(id, name, workflow, input, internalState, output, log);
@@ -220,6 +429,7 @@ public class Job implements Serializable {
 		return this.name != null && !this.name.isEmpty();
 	}
 	
+	@JsonIgnore
 	public void setAdditionalInfo(HashMap<String, Object> additionalInfo) {
 		this.additionalInfo = additionalInfo;
 	}
@@ -264,6 +474,38 @@ public class Job implements Serializable {
 		this.xenonId = xenonId;
 	}
 
+	public void setXenonState(String xenonState) {
+		this.xenonState = xenonState;
+	}
+
+	public void setBatchId(String batchId) {
+		this.batchId = batchId;
+	}
+
+	public void setXenonExitcode(Integer xenonExitcode) {
+		this.xenonExitcode = xenonExitcode;
+	}
+
+	public void setCreatedAt(Date createdAt) {
+		this.createdAt = createdAt;
+	}
+
+	public void setStartedAt(Date startedAt) {
+		this.startedAt = startedAt;
+	}
+
+	public void setFinalizedAt(Date finalizedAt) {
+		this.finalizedAt = finalizedAt;
+	}
+
+	public void setComputeResource(String computeResource) {
+		this.computeResource = computeResource;
+	}
+
+	public void setSchemaVersion(Integer schemaVersion) {
+		this.schemaVersion = schemaVersion;
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
@@ -276,7 +518,7 @@ public class Job implements Serializable {
 		sb.append("    state: ").append(toIndentedString(internalState)).append("\n");
 		sb.append("    output: ").append(toIndentedString(output)).append("\n");
 		sb.append("    log: ").append(toIndentedString(log)).append("\n");
-		sb.append("    additionalInfo:").append(toIndentedString(additionalInfo)).append("\n");
+		sb.append("    additionalInfo:").append(toIndentedString(getAdditionalInfoView())).append("\n");
 		sb.append("}");
 		return sb.toString();
 	}
@@ -293,7 +535,7 @@ public class Job implements Serializable {
 		map.put("state", internalState);
 		map.put("output", output);
 		map.put("log", log);
-		map.put("additionalInfo", additionalInfo);
+		map.put("additionalInfo", getAdditionalInfoView());
 		
 		sb.append(getAsFormattedJsonString(map));
 
@@ -302,10 +544,9 @@ public class Job implements Serializable {
 	
 	public String getAsFormattedJsonString(Object object)
 	{
-	    ObjectMapper mapper = new ObjectMapper();
 	    try
 	    {
-	        return mapper.writerWithDefaultPrettyPrinter().writeValueAsString(object);
+	        return JacksonUtils.getPrettyWriter().writeValueAsString(object);
 	    }
 	    catch (JsonProcessingException e)
 	    {
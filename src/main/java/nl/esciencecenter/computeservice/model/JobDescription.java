@@ -27,6 +27,9 @@ public class JobDescription implements Serializable {
 	@JsonProperty("input")
 	private WorkflowBinding input = null;
 
+	@JsonProperty("computeResource")
+	private String computeResource = null;
+
 	public JobDescription name(String name) {
 		this.name = name;
 		return this;
@@ -93,6 +96,29 @@ public class JobDescription implements Serializable {
 		return input != null;
 	}
 
+	public JobDescription computeResource(String computeResource) {
+		this.computeResource = computeResource;
+		return this;
+	}
+
+	/**
+	 * name of the compute resource to run the job on
+	 * 
+	 * @return computeResource
+	 **/
+	@ApiModelProperty(example = "das5", value = "name of the compute resource to run the job on, if not set xenonflow picks one")
+	public String getComputeResource() {
+		return computeResource;
+	}
+
+	public void setComputeResource(String computeResource) {
+		this.computeResource = computeResource;
+	}
+
+	public boolean hasComputeResource() {
+		return computeResource != null && !computeResource.isEmpty();
+	}
+
 	@Override
 	public boolean equals(java.lang.Object o) {
 		if (this == o) {
@@ -103,12 +129,13 @@ public class JobDescription implements Serializable {
 		}
 		JobDescription jobDescription = (JobDescription) o;
 		return Objects.equals(this.name, jobDescription.name) && Objects.equals(this.workflow, jobDescription.workflow)
-				&& Objects.equals(this.input, jobDescription.input);
+				&& Objects.equals(this.input, jobDescription.input)
+				&& Objects.equals(this.computeResource, jobDescription.computeResource);
 	}
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(name, workflow, input);
+		return Objects.hash(name, workflow, input, computeResource);
 	}
 
 	@Override
@@ -119,6 +146,7 @@ public class JobDescription implements Serializable {
 		sb.append("    name: ").append(toIndentedString(name)).append("\n");
 		sb.append("    workflow: ").append(toIndentedString(workflow)).append("\n");
 		sb.append("    input: ").append(toIndentedString(input)).append("\n");
+		sb.append("    computeResource: ").append(toIndentedString(computeResource)).append("\n");
 		sb.append("}");
 		return sb.toString();
 	}
@@ -0,0 +1,44 @@
+package nl.esciencecenter.computeservice.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import io.swagger.annotations.ApiModelProperty;
+
+/**
+ * The outcome for one job of a bulk submit, cancel or delete.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class JobOperationResult {
+	@JsonProperty("id")
+	private String id;
+
+	@JsonProperty("status")
+	private int status;
+
+	@JsonProperty("error")
+	private String error;
+
+	public JobOperationResult(String id, int status, String error) {
+		this.id = id;
+		this.status = status;
+		this.error = error;
+	}
+
+	@ApiModelProperty(value = "id of the job, not set for a job that could not be submitted")
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * The http status the single job request would have returned.
+	 */
+	@ApiModelProperty(example = "201", value = "http status the single job request would have returned")
+	public int getStatus() {
+		return status;
+	}
+
+	public String getError() {
+		return error;
+	}
+}
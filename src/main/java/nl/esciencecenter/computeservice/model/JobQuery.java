@@ -0,0 +1,117 @@
+package nl.esciencecenter.computeservice.model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Set;
+
+/**
+ * Filters and keyset position for listing jobs.
+ * 
+ * Jobs are listed in order of creation. The cursor of a page is the creation
+ * time and id of its last job, the next page starts right after it.
+ */
+public class JobQuery {
+	private Set<JobState> states = null;
+	private String name = null;
+	private Date createdAfter = null;
+	private Date createdBefore = null;
+	private Date afterCreatedAt = null;
+	private String afterId = null;
+	private Integer limit = null;
+
+	public Set<JobState> getStates() {
+		return states;
+	}
+
+	/**
+	 * Only list jobs in one of the given states. A state can be given as a
+	 * cwl state (e.g. Running), as an internal state (e.g. RUNNING_CR) or as
+	 * "final" for all final states.
+	 */
+	public JobQuery states(Collection<String> stateNames) {
+		if (stateNames == null || stateNames.isEmpty()) {
+			return this;
+		}
+		states = JobState.fromNames(stateNames);
+		return this;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public JobQuery name(String name) {
+		this.name = name;
+		return this;
+	}
+
+	public Date getCreatedAfter() {
+		return createdAfter;
+	}
+
+	public JobQuery createdAfter(Date createdAfter) {
+		this.createdAfter = createdAfter;
+		return this;
+	}
+
+	public Date getCreatedBefore() {
+		return createdBefore;
+	}
+
+	public JobQuery createdBefore(Date createdBefore) {
+		this.createdBefore = createdBefore;
+		return this;
+	}
+
+	public Date getAfterCreatedAt() {
+		return afterCreatedAt;
+	}
+
+	public String getAfterId() {
+		return afterId;
+	}
+
+	public boolean hasCursor() {
+		return afterId != null;
+	}
+
+	/**
+	 * Start listing after the job the cursor points to.
+	 */
+	public JobQuery after(String cursor) {
+		if (cursor == null || cursor.isEmpty()) {
+			return this;
+		}
+		try {
+			String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+			int separator = decoded.indexOf(':');
+			afterCreatedAt = new Date(Long.parseLong(decoded.substring(0, separator)));
+			afterId = decoded.substring(separator + 1);
+		} catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+		}
+		return this;
+	}
+
+	public Integer getLimit() {
+		return limit;
+	}
+
+	public JobQuery limit(Integer limit) {
+		if (limit != null && limit < 1) {
+			throw new IllegalArgumentException("The limit should be at least 1");
+		}
+		this.limit = limit;
+		return this;
+	}
+
+	/**
+	 * The cursor pointing at the given job, to be used with after().
+	 */
+	public static String cursorFor(Job job) {
+		String cursor = job.getCreatedAt().getTime() + ":" + job.getId();
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+	}
+}
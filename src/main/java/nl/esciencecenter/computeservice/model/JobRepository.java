@@ -21,11 +21,12 @@ import javax.persistence.LockModeType;
 
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 @Repository
-public interface JobRepository extends JpaRepository<Job, String> {
+public interface JobRepository extends JpaRepository<Job, String>, JobRepositoryCustom {
 	List<Job> findAll();
 	
 	@Lock(LockModeType.PESSIMISTIC_WRITE)
@@ -33,4 +34,27 @@ public interface JobRepository extends JpaRepository<Job, String> {
 	Job findOneForUpdate(String id);
 	
 	List<Job> findAllByInternalState(JobState internalState);
+	
+	List<JobSummary> findSummariesByInternalState(JobState internalState);
+	
+	List<Job> findAllByInternalStateAndComputeResource(JobState internalState, String computeResource);
+	
+	List<Job> findAllByInternalStateAndComputeResourceIsNull(JobState internalState);
+	
+	List<JobSummary> findSummariesByInternalStateAndComputeResource(JobState internalState, String computeResource);
+	
+	List<JobSummary> findSummariesByInternalStateAndComputeResourceIsNull(JobState internalState);
+	
+	List<JobSummary> findSummariesByBatchId(String batchId);
+	
+	@Query("select j.internalState as internalState, j.computeResource as computeResource, count(j) as count "
+			+ "from Job j group by j.internalState, j.computeResource")
+	List<JobStateCount> countByInternalStateAndComputeResource();
+	
+	@Query("select j.id from Job j where j.schemaVersion is null or j.schemaVersion < ?1")
+	List<String> findIdsBySchemaVersionBefore(Integer schemaVersion);
+	
+	@Modifying
+	@Query("update Job j set j.input = ?2, j.output = ?3 where j.id = ?1")
+	int rewriteBindings(String id, WorkflowBinding input, WorkflowBinding output);
 }
@@ -0,0 +1,17 @@
+package nl.esciencecenter.computeservice.model;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+public interface JobRepositoryCustom {
+	/**
+	 * The jobs matching the query, in order of creation.
+	 */
+	List<Job> findJobs(JobQuery query);
+
+	/**
+	 * Hand the jobs matching the query to the consumer one by one, reading
+	 * them from a database cursor instead of loading them all at once.
+	 */
+	void forEachJob(JobQuery query, Consumer<Job> consumer);
+}
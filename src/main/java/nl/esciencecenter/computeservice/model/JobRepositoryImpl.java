@@ -0,0 +1,87 @@
+package nl.esciencecenter.computeservice.model;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+
+import org.hibernate.jpa.QueryHints;
+import org.springframework.transaction.annotation.Transactional;
+
+public class JobRepositoryImpl implements JobRepositoryCustom {
+	private static final int FETCH_SIZE = 100;
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	@Override
+	@Transactional(readOnly = true)
+	public List<Job> findJobs(JobQuery query) {
+		return createQuery(query).getResultList();
+	}
+
+	@Override
+	@Transactional(readOnly = true)
+	public void forEachJob(JobQuery query, Consumer<Job> consumer) {
+		TypedQuery<Job> typedQuery = createQuery(query);
+		typedQuery.setHint(QueryHints.HINT_FETCH_SIZE, FETCH_SIZE);
+		try (Stream<Job> jobs = typedQuery.getResultStream()) {
+			jobs.forEach(job -> {
+				consumer.accept(job);
+				// Keep the persistence context from growing with every job
+				entityManager.detach(job);
+			});
+		}
+	}
+
+	private TypedQuery<Job> createQuery(JobQuery query) {
+		CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+		CriteriaQuery<Job> cq = cb.createQuery(Job.class);
+		Root<Job> job = cq.from(Job.class);
+
+		Expression<Date> createdAt = job.get("createdAt");
+		Expression<String> id = job.get("id");
+
+		List<Predicate> predicates = new ArrayList<Predicate>();
+		// Deleted as far as the user is concerned, the files are still being removed
+		predicates.add(cb.notEqual(job.get("internalState"), JobState.DELETING));
+		if (query.getStates() != null) {
+			predicates.add(job.get("internalState").in(query.getStates()));
+		}
+		if (query.getName() != null) {
+			predicates.add(cb.equal(job.get("name"), query.getName()));
+		}
+		if (query.getCreatedAfter() != null) {
+			predicates.add(cb.greaterThanOrEqualTo(createdAt, query.getCreatedAfter()));
+		}
+		if (query.getCreatedBefore() != null) {
+			predicates.add(cb.lessThan(createdAt, query.getCreatedBefore()));
+		}
+		if (query.hasCursor()) {
+			predicates.add(cb.or(
+				cb.greaterThan(createdAt, query.getAfterCreatedAt()),
+				cb.and(cb.equal(createdAt, query.getAfterCreatedAt()), cb.greaterThan(id, query.getAfterId()))
+			));
+		}
+
+		cq.select(job)
+		  .where(predicates.toArray(new Predicate[predicates.size()]))
+		  .orderBy(cb.asc(createdAt), cb.asc(id));
+
+		TypedQuery<Job> typedQuery = entityManager.createQuery(cq);
+		if (query.getLimit() != null) {
+			typedQuery.setMaxResults(query.getLimit());
+		}
+		return typedQuery;
+	}
+}
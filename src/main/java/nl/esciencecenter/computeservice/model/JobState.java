@@ -1,5 +1,7 @@
 package nl.esciencecenter.computeservice.model;
 
+import java.util.Collection;
+import java.util.EnumSet;
 import java.util.HashMap;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
@@ -47,6 +49,9 @@ public enum JobState {
 
 	STAGING_OUT_DELR("Staging_Out_Delr"),
 
+	// Nothing runs anymore, only the files and the job itself are left to delete
+	DELETING("Deleting"),
+
 	// Errors
 
 	SYSTEM_ERROR("System_Error"),
@@ -73,7 +78,7 @@ public enum JobState {
 				JobState.STAGING_OUT_CR);
 		
 		deletionStates = ImmutableList.of(JobState.STAGING_IN_DELR, JobState.WAITING_DELR, JobState.RUNNING_DELR,
-				JobState.STAGING_OUT_DELR);
+				JobState.STAGING_OUT_DELR, JobState.DELETING);
 
 		remoteStates = ImmutableList.of(JobState.WAITING, JobState.WAITING_CR, JobState.RUNNING, JobState.RUNNING_CR);
 		
@@ -125,6 +130,32 @@ public enum JobState {
 		return null;
 	}
 
+	/**
+	 * Parse a list of state names. A name can be a cwl state (e.g. Running), an
+	 * internal state (e.g. RUNNING_CR) or "final" for all final states.
+	 *
+	 * @param names
+	 * @return The set of states matching any of the names.
+	 * @throws IllegalArgumentException if a name does not match any state.
+	 */
+	public static EnumSet<JobState> fromNames(Collection<String> names) {
+		EnumSet<JobState> states = EnumSet.noneOf(JobState.class);
+		for (String name : names) {
+			boolean found = false;
+			for (JobState state : JobState.values()) {
+				if (state.name().equalsIgnoreCase(name) || name.equalsIgnoreCase(state.toCwlStateString())
+						|| ("final".equalsIgnoreCase(name) && state.isFinal())) {
+					states.add(state);
+					found = true;
+				}
+			}
+			if (!found) {
+				throw new IllegalArgumentException("Unknown job state: " + name);
+			}
+		}
+		return states;
+	}
+
 	/**
 	 * Return whether the JobState is a final state.
 	 *
@@ -148,7 +179,7 @@ public enum JobState {
 	
 	/**
 	 * Return whether the JobState indicates that the job has been marked for
-	 * deletion, but is not deleted yet. These are the _DELR states.
+	 * deletion, but is not deleted yet. These are the _DELR states and DELETING.
 	 * 
 	 * @return bool: True if a job in this state has been marked for
 	 *         deletion.
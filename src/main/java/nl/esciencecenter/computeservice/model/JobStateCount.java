@@ -0,0 +1,12 @@
+package nl.esciencecenter.computeservice.model;
+
+/**
+ * The number of jobs in a state on a compute resource.
+ */
+public interface JobStateCount {
+	JobState getInternalState();
+
+	String getComputeResource();
+
+	Long getCount();
+}
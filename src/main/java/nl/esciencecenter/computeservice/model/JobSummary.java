@@ -0,0 +1,27 @@
+package nl.esciencecenter.computeservice.model;
+
+import java.util.Date;
+
+/**
+ * The columns of a job needed to poll its status, without the input, output
+ * and additionalInfo.
+ */
+public interface JobSummary {
+	String getId();
+
+	String getName();
+
+	String getXenonId();
+
+	JobState getInternalState();
+
+	String getXenonState();
+
+	String getComputeResource();
+
+	String getBatchId();
+
+	Date getStartedAt();
+
+	Long getVersion();
+}
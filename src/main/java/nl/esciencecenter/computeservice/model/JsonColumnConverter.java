@@ -0,0 +1,75 @@
+package nl.esciencecenter.computeservice.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
+import javax.persistence.AttributeConverter;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import nl.esciencecenter.computeservice.utils.JacksonUtils;
+
+/**
+ * Stores a map valued column as JSON text.
+ * 
+ * Older databases contain these columns as Java-serialized objects, which H2
+ * hands back as a hex string. Those values are still read, and are written as
+ * JSON the next time the job is stored.
+ */
+public abstract class JsonColumnConverter<T> implements AttributeConverter<T, String> {
+	private static final String JAVA_SERIALIZATION_MAGIC = "aced0005";
+	
+	private final Class<T> type;
+	private final ObjectReader reader;
+	private final ObjectWriter writer;
+	
+	protected JsonColumnConverter(Class<T> type) {
+		this.type = type;
+		this.reader = JacksonUtils.getMapper().readerFor(type);
+		this.writer = JacksonUtils.getMapper().writerFor(type);
+	}
+
+	@Override
+	public String convertToDatabaseColumn(T attribute) {
+		if (attribute == null) {
+			return null;
+		}
+		try {
+			return writer.writeValueAsString(attribute);
+		} catch (JsonProcessingException e) {
+			throw new IllegalArgumentException("Could not convert " + type.getSimpleName() + " to json", e);
+		}
+	}
+
+	@Override
+	public T convertToEntityAttribute(String dbData) {
+		if (dbData == null || dbData.isEmpty()) {
+			return null;
+		}
+		try {
+			if (isLegacyValue(dbData)) {
+				return type.cast(readSerializedObject(dbData));
+			}
+			return reader.readValue(dbData);
+		} catch (IOException | ClassNotFoundException | ClassCastException e) {
+			throw new IllegalArgumentException("Could not read " + type.getSimpleName() + " from database", e);
+		}
+	}
+	
+	public static boolean isLegacyValue(String dbData) {
+		return dbData.regionMatches(true, 0, JAVA_SERIALIZATION_MAGIC, 0, JAVA_SERIALIZATION_MAGIC.length());
+	}
+	
+	private static Object readSerializedObject(String hex) throws IOException, ClassNotFoundException {
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+		}
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+			return in.readObject();
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package nl.esciencecenter.computeservice.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * What polling the schedulers for job states costs, and how long it takes
+ * for a state change to be noticed.
+ */
+public class PollStatistics {
+	@JsonProperty("polls")
+	private long polls;
+
+	@JsonProperty("pollTime")
+	private long pollTime;
+
+	@JsonProperty("jobsPolled")
+	private long jobsPolled;
+
+	@JsonProperty("jobsSkipped")
+	private long jobsSkipped;
+
+	@JsonProperty("changes")
+	private long changes;
+
+	@JsonProperty("averageDetectionLatency")
+	private long averageDetectionLatency;
+
+	@JsonProperty("maxDetectionLatency")
+	private long maxDetectionLatency;
+
+	public PollStatistics(long polls, long pollTime, long jobsPolled, long jobsSkipped, long changes, long averageDetectionLatency,
+			long maxDetectionLatency) {
+		this.polls = polls;
+		this.pollTime = pollTime;
+		this.jobsPolled = jobsPolled;
+		this.jobsSkipped = jobsSkipped;
+		this.changes = changes;
+		this.averageDetectionLatency = averageDetectionLatency;
+		this.maxDetectionLatency = maxDetectionLatency;
+	}
+
+	/**
+	 * The number of times the schedulers were asked for job states.
+	 */
+	public long getPolls() {
+		return polls;
+	}
+
+	/**
+	 * The total time in ms spent waiting for the schedulers.
+	 */
+	public long getPollTime() {
+		return pollTime;
+	}
+
+	public long getJobsPolled() {
+		return jobsPolled;
+	}
+
+	/**
+	 * The number of times a job was left out of a poll because it was not due.
+	 */
+	public long getJobsSkipped() {
+		return jobsSkipped;
+	}
+
+	public long getChanges() {
+		return changes;
+	}
+
+	/**
+	 * A change is noticed at most this many ms after it happened, on average.
+	 */
+	public long getAverageDetectionLatency() {
+		return averageDetectionLatency;
+	}
+
+	public long getMaxDetectionLatency() {
+		return maxDetectionLatency;
+	}
+}
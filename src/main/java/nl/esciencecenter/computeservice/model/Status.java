@@ -1,5 +1,10 @@
 package nl.esciencecenter.computeservice.model;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 public class Status {
@@ -14,6 +19,18 @@ public class Status {
 	
 	@JsonProperty("errored")
 	private int errored;
+	
+	@JsonProperty("states")
+	@JsonInclude(Include.NON_NULL)
+	private Map<String, Long> states = null;
+	
+	@JsonProperty("computeResources")
+	@JsonInclude(Include.NON_NULL)
+	private Map<String, Status> computeResources = null;
+	
+	@JsonProperty("polling")
+	@JsonInclude(Include.NON_NULL)
+	private PollStatistics polling = null;
 
 	public Status(int waiting, int running, int successful, int errored) {
 		this.waiting = waiting;
@@ -21,6 +38,37 @@ public class Status {
 		this.successful = successful;
 		this.errored = errored;
 	}
+	
+	/**
+	 * Summarize the number of jobs per internal state.
+	 */
+	public static Status fromStateCounts(Map<JobState, Long> counts) {
+		int errored = 0;
+		int running = 0;
+		int successful = 0;
+		int waiting = 0;
+		Map<String, Long> states = new LinkedHashMap<String, Long>();
+		for (Map.Entry<JobState, Long> count : counts.entrySet()) {
+			JobState i = count.getKey();
+			int n = count.getValue().intValue();
+			if (i.isErrorState()) {
+				errored += n;
+			} else if (i.isRunning()) {
+				running += n;
+			} else if (i.isSuccess()) {
+				successful += n;
+			} else if (i.isWaiting()) {
+				waiting += n;
+			}
+			if (n != 0) {
+				states.put(i.name(), count.getValue());
+			}
+		}
+		
+		Status status = new Status(waiting, running, successful, errored);
+		status.setStates(states);
+		return status;
+	}
 
 	public int getWaiting() {
 		return waiting;
@@ -53,4 +101,28 @@ public class Status {
 	public void setErrored(int errored) {
 		this.errored = errored;
 	}
+
+	public Map<String, Long> getStates() {
+		return states;
+	}
+
+	public void setStates(Map<String, Long> states) {
+		this.states = states;
+	}
+
+	public Map<String, Status> getComputeResources() {
+		return computeResources;
+	}
+
+	public void setComputeResources(Map<String, Status> computeResources) {
+		this.computeResources = computeResources;
+	}
+
+	public PollStatistics getPolling() {
+		return polling;
+	}
+
+	public void setPolling(PollStatistics polling) {
+		this.polling = polling;
+	}
 }
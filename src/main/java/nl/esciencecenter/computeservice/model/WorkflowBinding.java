@@ -3,8 +3,11 @@ package nl.esciencecenter.computeservice.model;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Objects;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.io.FilenameUtils;
 import org.slf4j.Logger;
@@ -12,7 +15,6 @@ import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 import nl.esciencecenter.computeservice.utils.JacksonUtils;
 
@@ -34,19 +36,19 @@ public class WorkflowBinding extends HashMap<String, Object> implements Serializ
 		if (o == null || getClass() != o.getClass()) {
 			return false;
 		}
-		return true;
+		// Compare the contents, this is what decides whether the binding is written to the database
+		return super.equals(o);
 	}
 
 	@Override
 	public int hashCode() {
-		return Objects.hash();
+		return super.hashCode();
 	}
 
 	@Override
 	public String toString() {
-		ObjectMapper mapper = new ObjectMapper();
 		try {
-			return mapper.writeValueAsString(this);
+			return JacksonUtils.getWorkflowBindingWriter().writeValueAsString(this);
 		} catch (JsonProcessingException e) {
 			logger.error("Error mapping WorkflowBinding to json: ", e);
 		}
@@ -58,21 +60,49 @@ public class WorkflowBinding extends HashMap<String, Object> implements Serializ
 	 * (except the first line).
 	 */
 	public String toIndentedString() {
-		ObjectMapper mapper = new ObjectMapper();
 		try {
-			return mapper.writerWithDefaultPrettyPrinter().writeValueAsString(this);
+			return JacksonUtils.getPrettyWriter().writeValueAsString(this);
 		} catch (JsonProcessingException e) {
 			logger.error("Error mapping WorkflowBinding to json: ", e);
 		}
 		return super.toString();
 	}
 	
+	/**
+	 * A copy of the binding that shares nothing but the immutable values
+	 * (strings, numbers and booleans) with the original.
+	 */
+	public WorkflowBinding deepCopy() {
+		WorkflowBinding copy = new WorkflowBinding();
+		for (Map.Entry<String, Object> entry : entrySet()) {
+			copy.put(entry.getKey(), copyValue(entry.getValue()));
+		}
+		return copy;
+	}
+
+	private static Object copyValue(Object value) {
+		if (value instanceof Map) {
+			Map<?, ?> map = (Map<?, ?>) value;
+			Map<Object, Object> copy = new LinkedHashMap<Object, Object>(map.size() * 4 / 3 + 1);
+			for (Map.Entry<?, ?> entry : map.entrySet()) {
+				copy.put(entry.getKey(), copyValue(entry.getValue()));
+			}
+			return copy;
+		} else if (value instanceof List) {
+			List<?> list = (List<?>) value;
+			List<Object> copy = new ArrayList<Object>(list.size());
+			for (Object item : list) {
+				copy.add(copyValue(item));
+			}
+			return copy;
+		}
+		return value;
+	}
+
 	public static WorkflowBinding fromFile(File file) throws JsonMappingException, IOException {
 		String extension = FilenameUtils.getExtension(file.getName());
 		
-		ObjectMapper mapper = JacksonUtils.getMapperForFileType(extension);
-		
-		WorkflowBinding wb = mapper.readValue(file, WorkflowBinding.class);
+		WorkflowBinding wb = JacksonUtils.getWorkflowBindingReader(extension).readValue(file);
 		
 		return wb;
 	}
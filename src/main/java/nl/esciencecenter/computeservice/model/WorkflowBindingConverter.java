@@ -0,0 +1,10 @@
+package nl.esciencecenter.computeservice.model;
+
+import javax.persistence.Converter;
+
+@Converter
+public class WorkflowBindingConverter extends JsonColumnConverter<WorkflowBinding> {
+	public WorkflowBindingConverter() {
+		super(WorkflowBinding.class);
+	}
+}
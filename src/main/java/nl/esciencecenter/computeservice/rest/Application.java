@@ -43,6 +43,7 @@ import nl.esciencecenter.computeservice.config.TargetAdaptorConfig;
 import nl.esciencecenter.computeservice.model.JobRepository;
 import nl.esciencecenter.computeservice.service.JobService;
 import nl.esciencecenter.computeservice.service.XenonService;
+import nl.esciencecenter.computeservice.service.staging.RemoteInputCache;
 import nl.esciencecenter.computeservice.service.staging.RemoteToTargetStager;
 import nl.esciencecenter.computeservice.service.staging.SourceToRemoteStager;
 import nl.esciencecenter.computeservice.service.staging.XenonStager;
@@ -112,6 +113,7 @@ public class Application extends WebSecurityConfigurerAdapter implements WebMvcC
             	.antMatchers(HttpMethod.HEAD,"/jobs").permitAll() //allow CORS option calls
             	.antMatchers(HttpMethod.OPTIONS,"/jobs/**").permitAll()//allow CORS option calls
             	.antMatchers(HttpMethod.HEAD,"/jobs/**").permitAll() //allow CORS option calls
+            	.antMatchers(HttpMethod.OPTIONS,"/jobs:*").permitAll()//allow CORS option calls
             	.antMatchers(HttpMethod.OPTIONS,"/files/**").permitAll()//allow CORS option calls
             	.antMatchers(HttpMethod.HEAD,"/files/**").permitAll() //allow CORS option calls
             	.antMatchers(HttpMethod.OPTIONS,"/output/**").permitAll()//allow CORS option calls
@@ -122,6 +124,7 @@ public class Application extends WebSecurityConfigurerAdapter implements WebMvcC
             	.antMatchers(HttpMethod.HEAD,"/workflows/**").permitAll() //allow CORS option calls
             	.antMatchers("/jobs").authenticated()
             	.antMatchers("/jobs/**").authenticated()
+            	.antMatchers("/jobs:*").authenticated()
             	.antMatchers("/files").authenticated()
             	.antMatchers("/files/**").authenticated()
             	.antMatchers("/output").authenticated()
@@ -157,8 +160,10 @@ public class Application extends WebSecurityConfigurerAdapter implements WebMvcC
     }
 	
 	@Bean
-	public static XenonStager sourceToRemoteStager(XenonService xenonService, JobRepository repository, JobService jobService) throws XenonException {
-		return new SourceToRemoteStager(jobService, repository, xenonService);
+	public static XenonStager sourceToRemoteStager(XenonService xenonService, JobRepository repository, JobService jobService, RemoteInputCache inputCache) throws XenonException {
+		XenonStager stager = new SourceToRemoteStager(jobService, repository, xenonService);
+		stager.setInputCache(inputCache);
+		return stager;
 	}
 	
 	@Bean
@@ -189,14 +194,7 @@ public class Application extends WebSecurityConfigurerAdapter implements WebMvcC
 	
 	@Override
 	public void addResourceHandlers(ResourceHandlerRegistry registry) {
-		TargetAdaptorConfig targetConfig = targetFileSystemConfig(); 
-		if (targetConfig.isHosted() && targetConfig.getAdaptor().equals("file")) {
-			String resourceLocation = "/output/**";
-			logger.info("Adding resource location handler for: " + resourceLocation);
-			registry.addResourceHandler(resourceLocation)
-					.addResourceLocations("file:" + targetConfig.getLocation());
-		}
-		
+		// Hosted output is served by the OutputApiController
 		registry.addResourceHandler("/swagger/**")
 				.addResourceLocations("classpath:/META-INF/resources/");
 
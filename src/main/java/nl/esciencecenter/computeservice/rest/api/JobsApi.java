@@ -1,14 +1,22 @@
 package nl.esciencecenter.computeservice.rest.api;
 
+import java.util.Date;
 import java.util.List;
 
 import javax.servlet.http.HttpServletRequest;
 
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.format.annotation.DateTimeFormat.ISO;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
@@ -17,6 +25,7 @@ import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
 import nl.esciencecenter.computeservice.model.Job;
 import nl.esciencecenter.computeservice.model.JobDescription;
+import nl.esciencecenter.computeservice.model.JobOperationResult;
 
 @Api(value = "jobs")
 public interface JobsApi {
@@ -43,18 +52,70 @@ public interface JobsApi {
 	ResponseEntity<Job> getJobById(
 			@ApiParam(value = "Job ID", required = true) @PathVariable("jobId") String jobId);
 
-	@ApiOperation(value = "Log of a job", notes = "", response = String.class, tags = {})
+	@ApiOperation(value = "Wait for a job", notes = "Wait until the job reaches one of the given states, or until the timeout passes. "
+			+ "Returns the job as it is at that moment.", response = Job.class, tags = {})
+	@ApiResponses(value = { @ApiResponse(code = 200, message = "Status of job", response = Job.class),
+			@ApiResponse(code = 400, message = "Unknown state", response = Job.class),
+			@ApiResponse(code = 404, message = "Job not found or deleted while waiting", response = Job.class) })
+	@RequestMapping(value = "/jobs/{jobId}", params = { "waitFor" }, produces = { "application/json" }, method = RequestMethod.GET)
+	DeferredResult<ResponseEntity<Job>> waitForJob(
+			@ApiParam(value = "Job ID", required = true) @PathVariable("jobId") String jobId,
+			@ApiParam(value = "States to wait for, as cwl or internal state or final", required = true) @RequestParam(value = "waitFor") List<String> waitFor,
+			@ApiParam(value = "Maximum number of seconds to wait") @RequestParam(value = "timeout", required = false, defaultValue = "30") Long timeout);
+
+	@ApiOperation(value = "Stream of job state changes", notes = "Server sent events, one for every state change of any job.", tags = {})
+	@ApiResponses(value = { @ApiResponse(code = 200, message = "Event stream") })
+	@RequestMapping(value = "/jobs/events", produces = { "text/event-stream" }, method = RequestMethod.GET)
+	SseEmitter getJobEvents(HttpServletRequest request);
+
+	@ApiOperation(value = "Log of a job", notes = "The whole log, the part from offset on, or the byte range asked for with a Range header.", response = String.class, tags = {})
 	@ApiResponses(value = { @ApiResponse(code = 200, message = "Job log", response = String.class),
+			@ApiResponse(code = 206, message = "Requested range of the job log", response = String.class),
 			@ApiResponse(code = 302, message = "Job log redirect", response = String.class),
 			@ApiResponse(code = 404, message = "Job not found", response = String.class) })
 	@RequestMapping(value = "/jobs/{jobId}/log", produces = { "text/plain" }, method = RequestMethod.GET)
 	ResponseEntity<Object> getJobLogById(
-			@ApiParam(value = "Job ID", required = true) @PathVariable("jobId") String jobId);
+			@ApiParam(value = "Job ID", required = true) @PathVariable("jobId") String jobId,
+			@ApiParam(value = "Only return the log from this byte on") @RequestParam(value = "offset", required = false) Long offset);
+
+	@ApiOperation(value = "Follow the log of a job", notes = "Server sent events, one named log for every part of the log that is written, "
+			+ "starting at offset or at the id of the last event received. The id of an event is the offset of the next part. "
+			+ "The stream ends when the job is done.", tags = {})
+	@ApiResponses(value = { @ApiResponse(code = 200, message = "Log stream"),
+			@ApiResponse(code = 404, message = "Job not found") })
+	@RequestMapping(value = "/jobs/{jobId}/log", params = { "follow=true" }, produces = { "text/event-stream" }, method = RequestMethod.GET)
+	ResponseEntity<SseEmitter> followJobLog(
+			@ApiParam(value = "Job ID", required = true) @PathVariable("jobId") String jobId,
+			@ApiParam(value = "Start following from this byte on") @RequestParam(value = "offset", required = false) Long offset,
+			@RequestHeader(value = "Last-Event-ID", required = false) String lastEventId);
 
-	@ApiOperation(value = "list of jobs", notes = "get a list of all jobs, running, cancelled, or otherwise.", response = Job.class, responseContainer = "List", tags = {})
-	@ApiResponses(value = { @ApiResponse(code = 200, message = "list of jobs", response = Job.class) })
+	@ApiOperation(value = "list of jobs", notes = "get a list of all jobs, running, cancelled, or otherwise. "
+			+ "Jobs are listed in order of creation, when a limit is given the Link header points to the next page.", response = Job.class, responseContainer = "List", tags = {})
+	@ApiResponses(value = { @ApiResponse(code = 200, message = "list of jobs", response = Job.class),
+			@ApiResponse(code = 400, message = "Invalid filter or cursor", response = Void.class) })
 	@RequestMapping(value = "/jobs", produces = { "application/json" }, method = RequestMethod.GET)
-	ResponseEntity<List<Job>> getJobs(HttpServletRequest request); // {
+	ResponseEntity<List<?>> getJobs(HttpServletRequest request,
+			@ApiParam(value = "Maximum number of jobs to return") @RequestParam(value = "limit", required = false) Integer limit,
+			@ApiParam(value = "Cursor of the previous page") @RequestParam(value = "after", required = false) String after,
+			@ApiParam(value = "Only list jobs in these states") @RequestParam(value = "state", required = false) List<String> state,
+			@ApiParam(value = "Only list jobs with this name") @RequestParam(value = "name", required = false) String name,
+			@ApiParam(value = "Only list jobs created at or after this time") @RequestParam(value = "createdAfter", required = false) @DateTimeFormat(iso = ISO.DATE_TIME) Date createdAfter,
+			@ApiParam(value = "Only list jobs created before this time") @RequestParam(value = "createdBefore", required = false) @DateTimeFormat(iso = ISO.DATE_TIME) Date createdBefore,
+			@ApiParam(value = "Only include these fields of each job") @RequestParam(value = "fields", required = false) List<String> fields);
+
+	@ApiOperation(value = "stream of jobs", notes = "get all jobs as newline delimited json, written while they are read from the database. "
+			+ "Takes the same filters as the list of jobs.", response = Job.class, responseContainer = "List", tags = {})
+	@ApiResponses(value = { @ApiResponse(code = 200, message = "stream of jobs", response = Job.class),
+			@ApiResponse(code = 400, message = "Invalid filter or cursor", response = Void.class) })
+	@RequestMapping(value = "/jobs", params = { "format=ndjson" }, produces = { "application/x-ndjson" }, method = RequestMethod.GET)
+	ResponseEntity<StreamingResponseBody> streamJobs(HttpServletRequest request,
+			@ApiParam(value = "Maximum number of jobs to return") @RequestParam(value = "limit", required = false) Integer limit,
+			@ApiParam(value = "Cursor of the previous page") @RequestParam(value = "after", required = false) String after,
+			@ApiParam(value = "Only list jobs in these states") @RequestParam(value = "state", required = false) List<String> state,
+			@ApiParam(value = "Only list jobs with this name") @RequestParam(value = "name", required = false) String name,
+			@ApiParam(value = "Only list jobs created at or after this time") @RequestParam(value = "createdAfter", required = false) @DateTimeFormat(iso = ISO.DATE_TIME) Date createdAfter,
+			@ApiParam(value = "Only list jobs created before this time") @RequestParam(value = "createdBefore", required = false) @DateTimeFormat(iso = ISO.DATE_TIME) Date createdBefore,
+			@ApiParam(value = "Only include these fields of each job") @RequestParam(value = "fields", required = false) List<String> fields);
 
 
 	@ApiOperation(value = "submit a new job", notes = "Submit a new job from a workflow definition.", response = Job.class, tags = {})
@@ -64,4 +125,30 @@ public interface JobsApi {
 	ResponseEntity<Job> postJob(
 			@ApiParam(value = "Input binding for workflow.", required = true) @RequestBody JobDescription body); // {
 
+	@ApiOperation(value = "submit many jobs", notes = "Submit a list of jobs in one go. Every distinct workflow is checked once "
+			+ "and all jobs are stored in one transaction. The result lists, in order, the id of each job and the status "
+			+ "its own POST /jobs would have returned.", response = JobOperationResult.class, responseContainer = "List", tags = {})
+	@ApiResponses(value = { @ApiResponse(code = 200, message = "Result per job", response = JobOperationResult.class),
+			@ApiResponse(code = 400, message = "Too many jobs", response = Void.class) })
+	@RequestMapping(value = "/jobs:batch", produces = { "application/json" }, consumes = {
+			"application/json" }, method = RequestMethod.POST)
+	ResponseEntity<List<JobOperationResult>> postJobs(
+			@ApiParam(value = "Input bindings for the workflows.", required = true) @RequestBody List<JobDescription> body);
+
+	@ApiOperation(value = "Cancel many jobs", notes = "", response = JobOperationResult.class, responseContainer = "List", tags = {})
+	@ApiResponses(value = { @ApiResponse(code = 200, message = "Result per job", response = JobOperationResult.class),
+			@ApiResponse(code = 400, message = "Too many jobs", response = Void.class) })
+	@RequestMapping(value = "/jobs:cancel", produces = { "application/json" }, consumes = {
+			"application/json" }, method = RequestMethod.POST)
+	ResponseEntity<List<JobOperationResult>> cancelJobs(
+			@ApiParam(value = "Job IDs", required = true) @RequestBody List<String> jobIds);
+
+	@ApiOperation(value = "Delete many jobs", notes = "", response = JobOperationResult.class, responseContainer = "List", tags = {})
+	@ApiResponses(value = { @ApiResponse(code = 200, message = "Result per job", response = JobOperationResult.class),
+			@ApiResponse(code = 400, message = "Too many jobs", response = Void.class) })
+	@RequestMapping(value = "/jobs:delete", produces = { "application/json" }, consumes = {
+			"application/json" }, method = RequestMethod.POST)
+	ResponseEntity<List<JobOperationResult>> deleteJobs(
+			@ApiParam(value = "Job IDs", required = true) @RequestBody List<String> jobIds);
+
 }
@@ -1,12 +1,17 @@
 package nl.esciencecenter.computeservice.rest.api;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -14,27 +19,41 @@ import org.commonwl.cwl.utils.CWLUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.InputStreamResource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.support.ResourceRegion;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
 import io.swagger.annotations.ApiParam;
 import nl.esciencecenter.computeservice.model.Job;
 import nl.esciencecenter.computeservice.model.JobDescription;
+import nl.esciencecenter.computeservice.model.JobOperationResult;
+import nl.esciencecenter.computeservice.model.JobQuery;
 import nl.esciencecenter.computeservice.model.JobRepository;
 import nl.esciencecenter.computeservice.model.JobState;
 import nl.esciencecenter.computeservice.model.StatePreconditionException;
+import nl.esciencecenter.computeservice.service.JobLogs;
+import nl.esciencecenter.computeservice.service.JobPlacement;
 import nl.esciencecenter.computeservice.service.JobService;
+import nl.esciencecenter.computeservice.service.JobStateWatcher;
 import nl.esciencecenter.computeservice.service.XenonService;
-import nl.esciencecenter.computeservice.service.tasks.DeleteJobTask;
 import nl.esciencecenter.computeservice.utils.InetUtils;
-import nl.esciencecenter.computeservice.utils.LoggingUtils;
 import nl.esciencecenter.xenon.XenonException;
 import nl.esciencecenter.xenon.filesystems.Path;
 
@@ -43,6 +62,7 @@ import nl.esciencecenter.xenon.filesystems.Path;
 public class JobsApiController implements JobsApi {
 	private static final Logger logger = LoggerFactory.getLogger(JobsApiController.class);
 	private static final Logger requestLogger = LoggerFactory.getLogger("requests");
+	private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
 
 	@Autowired
 	private XenonService xenonService;
@@ -54,7 +74,19 @@ public class JobsApiController implements JobsApi {
 	private JobService jobService;
 
 	@Autowired
-	private DeleteJobTask deleteJobTask;
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private JobStateWatcher jobStateWatcher;
+
+	@Autowired
+	private JobLogs jobLogs;
+
+	@Value("${xenonflow.http.bulk.max-size:10000}")
+	private int maxBulkSize;
+
+	@Autowired
+	private JobPlacement jobPlacement;
 
 	@Override
 	public ResponseEntity<Job> cancelJobById(@ApiParam(value = "Job ID",required=true ) @PathVariable("jobId") String jobId) {
@@ -105,7 +137,7 @@ public class JobsApiController implements JobsApi {
 	@Override
 	public ResponseEntity<Job> getJobById(@ApiParam(value = "Job ID",required=true ) @PathVariable("jobId") String jobId) {
 		requestLogger.info("GET request received for job: " + jobId);
-		Optional<Job> job = repository.findById(jobId);
+		Optional<Job> job = findVisibleJob(jobId);
 		if (job.isPresent()) {
 			return new ResponseEntity<Job>(job.get(), HttpStatus.OK);
 		} else {
@@ -114,31 +146,156 @@ public class JobsApiController implements JobsApi {
 	}
 
 	@Override
-	public ResponseEntity<Object> getJobLogById(@ApiParam(value = "Job ID",required=true ) @PathVariable("jobId") String jobId) {
+	public DeferredResult<ResponseEntity<Job>> waitForJob(String jobId, List<String> waitFor, Long timeout) {
+		requestLogger.info("WAIT request received for job: " + jobId + " states: " + waitFor);
+		Set<JobState> states;
+		try {
+			states = JobState.fromNames(waitFor);
+		} catch (IllegalArgumentException e) {
+			logger.debug("Invalid wait request: " + e.getMessage());
+			DeferredResult<ResponseEntity<Job>> result = new DeferredResult<ResponseEntity<Job>>();
+			result.setResult(new ResponseEntity<Job>(HttpStatus.BAD_REQUEST));
+			return result;
+		}
+		// Saturates instead of overflowing for huge timeouts, the watcher caps it
+		return jobStateWatcher.waitFor(jobId, states, TimeUnit.SECONDS.toMillis(Math.max(timeout, 1)));
+	}
+
+	@Override
+	public SseEmitter getJobEvents(HttpServletRequest request) {
+		requestLogger.info("EVENTS request received from: " + InetUtils.getClientIpAddr(request));
+		return jobStateWatcher.events();
+	}
+
+	@Override
+	public ResponseEntity<Object> getJobLogById(@ApiParam(value = "Job ID",required=true ) @PathVariable("jobId") String jobId, Long offset) {
 		requestLogger.info("JOBLOG request received for job: " + jobId);
 
+		if (!findVisibleJob(jobId).isPresent()) {
+			// The log of a deleted job can be left behind until it is cleaned up
+			return new ResponseEntity<Object>(HttpStatus.NOT_FOUND);
+		}
+
 		logger.debug("JobId: "+jobId);
 		String logFileName = xenonService.getJobLogName("jobs."+jobId);
 		logger.debug("Loading log file from: " + logFileName);
+		jobLogs.flush(jobId);
 
 		File logFile = new File(logFileName);
-		InputStreamResource inputStreamResource;
-		try {
-			HttpHeaders headers = new HttpHeaders();
-			headers.setContentLength(logFile.length());
-			inputStreamResource = new InputStreamResource(new FileInputStream(logFile));
-			return new ResponseEntity<Object>(inputStreamResource, headers, HttpStatus.OK);
-		} catch (FileNotFoundException e) {
+		if (!logFile.isFile()) {
 			return new ResponseEntity<Object>(HttpStatus.NOT_FOUND);
-		} catch (Exception e) {
-			return new ResponseEntity<Object>(e, HttpStatus.INTERNAL_SERVER_ERROR);
 		}
+		// A Range header is handled by spring for a resource
+		FileSystemResource resource = new FileSystemResource(logFile);
+		if (offset == null || offset <= 0) {
+			return new ResponseEntity<Object>(resource, HttpStatus.OK);
+		}
+
+		long length = logFile.length();
+		if (offset >= length) {
+			// Nothing new since the last time
+			HttpHeaders headers = new HttpHeaders();
+			headers.setContentLength(0);
+			return new ResponseEntity<Object>(headers, HttpStatus.OK);
+		}
+		return new ResponseEntity<Object>(new ResourceRegion(resource, offset, length - offset), HttpStatus.OK);
+	}
+
+	@Override
+	public ResponseEntity<SseEmitter> followJobLog(String jobId, Long offset, String lastEventId) {
+		requestLogger.info("JOBLOG follow request received for job: " + jobId);
+
+		Optional<Job> job = findVisibleJob(jobId);
+		if (!job.isPresent()) {
+			return new ResponseEntity<SseEmitter>(HttpStatus.NOT_FOUND);
+		}
+
+		long start = offset != null ? offset : 0;
+		if (lastEventId != null) {
+			// A client that reconnects continues where it was
+			try {
+				start = Long.parseLong(lastEventId);
+			} catch (NumberFormatException e) {
+				logger.debug("Ignoring Last-Event-ID " + lastEventId);
+			}
+		}
+		boolean finished = job.get().getInternalState().isFinal();
+		return new ResponseEntity<SseEmitter>(jobLogs.follow(jobId, Math.max(start, 0), finished), HttpStatus.OK);
 	}
 
 	@Override
-	public ResponseEntity<List<Job>> getJobs(HttpServletRequest request) {
+	public ResponseEntity<List<?>> getJobs(HttpServletRequest request, Integer limit, String after, List<String> state,
+			String name, Date createdAfter, Date createdBefore, List<String> fields) {
 		requestLogger.info("GET all jobs request received from: " + InetUtils.getClientIpAddr(request));
-		return new ResponseEntity<List<Job>>(repository.findAll(), HttpStatus.OK);
+		JobQuery query;
+		try {
+			query = createJobQuery(limit, after, state, name, createdAfter, createdBefore);
+		} catch (IllegalArgumentException e) {
+			logger.debug("Invalid jobs request: " + e.getMessage());
+			return new ResponseEntity<List<?>>(HttpStatus.BAD_REQUEST);
+		}
+
+		List<Job> jobs = repository.findJobs(query);
+
+		HttpHeaders headers = new HttpHeaders();
+		if (limit != null && jobs.size() == limit) {
+			ServletUriComponentsBuilder builder = ServletUriComponentsBuilder.fromCurrentRequest();
+			builder.replaceQueryParam("after", JobQuery.cursorFor(jobs.get(jobs.size() - 1)));
+			headers.add(HttpHeaders.LINK, "<" + builder.build().toUriString() + ">; rel=\"next\"");
+		}
+
+		if (fields == null || fields.isEmpty()) {
+			return new ResponseEntity<List<?>>(jobs, headers, HttpStatus.OK);
+		}
+		List<JsonNode> projected = new ArrayList<JsonNode>(jobs.size());
+		for (Job job : jobs) {
+			projected.add(project(job, fields));
+		}
+		return new ResponseEntity<List<?>>(projected, headers, HttpStatus.OK);
+	}
+
+	@Override
+	public ResponseEntity<StreamingResponseBody> streamJobs(HttpServletRequest request, Integer limit, String after,
+			List<String> state, String name, Date createdAfter, Date createdBefore, List<String> fields) {
+		requestLogger.info("STREAM all jobs request received from: " + InetUtils.getClientIpAddr(request));
+		JobQuery query;
+		try {
+			query = createJobQuery(limit, after, state, name, createdAfter, createdBefore);
+		} catch (IllegalArgumentException e) {
+			logger.debug("Invalid jobs request: " + e.getMessage());
+			return new ResponseEntity<StreamingResponseBody>(HttpStatus.BAD_REQUEST);
+		}
+
+		StreamingResponseBody body = outputStream -> {
+			ObjectWriter writer = objectMapper.writer();
+			repository.forEachJob(query, job -> {
+				try {
+					Object value = fields == null || fields.isEmpty() ? job : project(job, fields);
+					outputStream.write(writer.writeValueAsBytes(value));
+					outputStream.write('\n');
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+			outputStream.flush();
+		};
+		return ResponseEntity.ok().contentType(NDJSON).body(body);
+	}
+
+	private JobQuery createJobQuery(Integer limit, String after, List<String> state, String name, Date createdAfter,
+			Date createdBefore) {
+		return new JobQuery()
+				.limit(limit)
+				.after(after)
+				.states(state)
+				.name(name)
+				.createdAfter(createdAfter)
+				.createdBefore(createdBefore);
+	}
+
+	private JsonNode project(Job job, List<String> fields) {
+		ObjectNode node = objectMapper.valueToTree(job);
+		return node.retain(fields);
 	}
 
 	@Override
@@ -168,13 +325,26 @@ public class JobsApiController implements JobsApi {
 				job.setId(uuid);
 				job.setName(body.getName());
 				job.setWorkflow(body.getWorkflow());
+				job.setComputeResource(xenonService.getConfig().getDefaultComputeResourceName());
 				job.setInternalState(JobState.PERMANENT_FAILURE);
 
 				job.getAdditionalInfo().put("error", "supplied workflow is not an exisiting workflow");
 				return new ResponseEntity<Job>(job, HttpStatus.BAD_REQUEST);
 			}
 
-			Job job = submitJob(body, uuid);
+			String computeResource = jobPlacement.place(body);
+			if (computeResource == null) {
+				Job job = new Job();
+				job.setId(uuid);
+				job.setName(body.getName());
+				job.setWorkflow(body.getWorkflow());
+				job.setInternalState(JobState.PERMANENT_FAILURE);
+
+				job.getAdditionalInfo().put("error", "supplied compute resource " + body.getComputeResource() + " does not exist");
+				return new ResponseEntity<Job>(job, HttpStatus.BAD_REQUEST);
+			}
+
+			Job job = submitJob(body, uuid, computeResource);
 
 			HttpHeaders headers = new HttpHeaders();
 			ServletUriComponentsBuilder builder = ServletUriComponentsBuilder.fromCurrentRequestUri();
@@ -192,19 +362,27 @@ public class JobsApiController implements JobsApi {
 		}
 	}
 
-	public Job submitJob(JobDescription body, String uuid) throws StatePreconditionException {
+	public Job submitJob(JobDescription body, String uuid, String computeResource) throws StatePreconditionException {
 		Logger jobLogger = LoggerFactory.getLogger("jobs." + uuid);
-		LoggingUtils.addFileAppenderToLogger("jobs." + uuid, xenonService.getJobLogName("jobs." + uuid));
 
+		Job job = jobService.createJob(newJob(body, uuid, computeResource));
+
+		jobLogger.info("Submitted Job: " + job);
+
+		return job;
+	}
+
+	private Job newJob(JobDescription body, String uuid, String computeResource) {
 		Job job = new Job();
 		job.setId(uuid);
 		job.setInput(body.getInput());
 		job.setName(body.getName());
 		job.setInternalState(JobState.SUBMITTED);
 		job.setWorkflow(body.getWorkflow());
+		job.setComputeResource(computeResource);
 
-		ServletUriComponentsBuilder builder = ServletUriComponentsBuilder.fromCurrentRequest();
-		builder.pathSegment(job.getId());
+		ServletUriComponentsBuilder builder = ServletUriComponentsBuilder.fromCurrentContextPath();
+		builder.path("/jobs").pathSegment(job.getId());
 		job.setURI(builder.build().toString());
 
 		builder.pathSegment("log");
@@ -213,13 +391,101 @@ public class JobsApiController implements JobsApi {
 		ServletUriComponentsBuilder b = ServletUriComponentsBuilder.fromCurrentRequest();
 		String baseurl = b.path("/..").build().normalize().toString();
 		job.getAdditionalInfo().put("baseurl", baseurl);
-		job.getAdditionalInfo().put("createdAt", new Date());
+		job.setCreatedAt(new Date());
+		return job;
+	}
 
-		job = repository.saveAndFlush(job);
+	@Override
+	public ResponseEntity<List<JobOperationResult>> postJobs(@RequestBody List<JobDescription> body) {
+		requestLogger.info("POST batch request received with " + body.size() + " jobs");
+		if (body.size() > maxBulkSize) {
+			return new ResponseEntity<List<JobOperationResult>>(HttpStatus.BAD_REQUEST);
+		}
 
-		jobLogger.info("Submitted Job: " + job);
+		List<JobOperationResult> results = new ArrayList<JobOperationResult>();
+		List<Job> jobs = new ArrayList<Job>();
+		Map<String, Boolean> workflows = new HashMap<String, Boolean>();
+		try {
+			for (JobDescription description : body) {
+				if (description == null || description.getName() == null || description.getWorkflow() == null) {
+					results.add(new JobOperationResult(null, HttpStatus.BAD_REQUEST.value(), "Name and Workflow cannot be null"));
+					continue;
+				}
 
-		return job;
+				// Every workflow is looked up only once
+				String workflow = description.getWorkflow().split("#")[0];
+				Boolean exists = workflows.get(workflow);
+				if (exists == null) {
+					exists = CWLUtils.isLocalWorkflow(new Path(workflow), xenonService.getCwlFileSystem());
+					workflows.put(workflow, exists);
+				}
+				if (!exists) {
+					results.add(new JobOperationResult(null, HttpStatus.BAD_REQUEST.value(), "supplied workflow is not an exisiting workflow"));
+					continue;
+				}
+
+				String computeResource = jobPlacement.place(description);
+				if (computeResource == null) {
+					results.add(new JobOperationResult(null, HttpStatus.BAD_REQUEST.value(),
+							"supplied compute resource " + description.getComputeResource() + " does not exist"));
+					continue;
+				}
+
+				Job job = newJob(description, UUID.randomUUID().toString(), computeResource);
+				jobs.add(job);
+				results.add(new JobOperationResult(job.getId(), HttpStatus.CREATED.value(), null));
+			}
+
+			jobService.createJobs(jobs);
+		} catch (XenonException | RuntimeException e) {
+			logger.error("Error while posting " + body.size() + " jobs", e);
+			return new ResponseEntity<List<JobOperationResult>>(HttpStatus.INTERNAL_SERVER_ERROR);
+		}
+
+		for (Job job : jobs) {
+			LoggerFactory.getLogger("jobs." + job.getId()).info("Submitted Job: " + job);
+		}
+		return new ResponseEntity<List<JobOperationResult>>(results, HttpStatus.OK);
+	}
+
+	@Override
+	public ResponseEntity<List<JobOperationResult>> cancelJobs(@RequestBody List<String> jobIds) {
+		requestLogger.info("CANCEL batch request received for " + jobIds.size() + " jobs");
+		if (jobIds.size() > maxBulkSize) {
+			return new ResponseEntity<List<JobOperationResult>>(HttpStatus.BAD_REQUEST);
+		}
+
+		List<JobOperationResult> results = new ArrayList<JobOperationResult>();
+		for (String jobId : jobIds) {
+			try {
+				Optional<Job> job = cancelJob(jobId);
+				results.add(new JobOperationResult(jobId, job.isPresent() ? HttpStatus.OK.value() : HttpStatus.NOT_FOUND.value(), null));
+			} catch (StatePreconditionException e) {
+				logger.error("Error during job cancellation request:", e);
+				results.add(new JobOperationResult(jobId, HttpStatus.INTERNAL_SERVER_ERROR.value(), e.getMessage()));
+			}
+		}
+		return new ResponseEntity<List<JobOperationResult>>(results, HttpStatus.OK);
+	}
+
+	@Override
+	public ResponseEntity<List<JobOperationResult>> deleteJobs(@RequestBody List<String> jobIds) {
+		requestLogger.info("DELETE batch request received for " + jobIds.size() + " jobs");
+		if (jobIds.size() > maxBulkSize) {
+			return new ResponseEntity<List<JobOperationResult>>(HttpStatus.BAD_REQUEST);
+		}
+
+		List<JobOperationResult> results = new ArrayList<JobOperationResult>();
+		for (String jobId : jobIds) {
+			try {
+				Optional<Job> job = deleteJob(jobId);
+				results.add(new JobOperationResult(jobId, job.isPresent() ? HttpStatus.OK.value() : HttpStatus.NOT_FOUND.value(), null));
+			} catch (StatePreconditionException e) {
+				logger.error("Error job deletion request: ", e);
+				results.add(new JobOperationResult(jobId, HttpStatus.INTERNAL_SERVER_ERROR.value(), e.getMessage()));
+			}
+		}
+		return new ResponseEntity<List<JobOperationResult>>(results, HttpStatus.OK);
 	}
 
 	public Optional<Job> cancelJob(String jobId) throws StatePreconditionException {
@@ -227,7 +493,7 @@ public class JobsApiController implements JobsApi {
 
 		jobLogger.info("Trying to cancel job " + jobId);
 
-		Optional<Job> j = repository.findById(jobId);
+		Optional<Job> j = findVisibleJob(jobId);
 		if (j.isPresent()) {
 			Job job = j.get();
 			if(!job.getInternalState().isFinal()) {
@@ -277,12 +543,29 @@ public class JobsApiController implements JobsApi {
 				case STAGING_OUT:
 					job = jobService.setJobState(jobId, JobState.STAGING_OUT, JobState.STAGING_OUT_DELR);
 					break;
+				case WAITING_CR:
+					job = jobService.setJobState(jobId, JobState.WAITING_CR, JobState.WAITING_DELR);
+					break;
+				case RUNNING_CR:
+					job = jobService.setJobState(jobId, JobState.RUNNING_CR, JobState.RUNNING_DELR);
+					break;
+				case DELETING:
+					// Already deleted as far as the user is concerned
+					return Optional.empty();
 				default:
-					deleteJobTask.deleteJob(jobId);
+					// Nothing is running, the DeleteJobTask removes the files and the job later on
+					job = jobService.setJobState(jobId, job.getInternalState(), JobState.DELETING);
 					break;
 			}
 			return Optional.ofNullable(job);
 		}
 		return j;
 	}
+
+	/**
+	 * Find a job, unless it is waiting to be removed by the DeleteJobTask.
+	 */
+	private Optional<Job> findVisibleJob(String jobId) {
+		return repository.findById(jobId).filter(job -> job.getInternalState() != JobState.DELETING);
+	}
 }
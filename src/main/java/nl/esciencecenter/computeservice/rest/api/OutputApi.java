@@ -0,0 +1,29 @@
+package nl.esciencecenter.computeservice.rest.api;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ApiResponses;
+
+@Api(value = "output")
+public interface OutputApi {
+
+	@ApiOperation(value = "Download an output file", notes = "Serves the outputs of jobs when the target filesystem is hosted. "
+			+ "Supports a single byte range, and conditional requests with the ETag and Last-Modified of the file.", tags = {})
+	@ApiResponses(value = { @ApiResponse(code = 200, message = "The file"),
+			@ApiResponse(code = 206, message = "The requested range of the file"),
+			@ApiResponse(code = 304, message = "The file did not change"),
+			@ApiResponse(code = 404, message = "File not found"),
+			@ApiResponse(code = 416, message = "The range is not in the file") })
+	@RequestMapping(value = "/output/**", method = { RequestMethod.GET, RequestMethod.HEAD })
+	void getOutput(HttpServletRequest request, HttpServletResponse response) throws IOException;
+
+}
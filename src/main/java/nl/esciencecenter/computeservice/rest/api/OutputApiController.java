@@ -0,0 +1,227 @@
+package nl.esciencecenter.computeservice.rest.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Controller;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.HandlerMapping;
+
+import nl.esciencecenter.computeservice.config.TargetAdaptorConfig;
+import nl.esciencecenter.computeservice.service.XenonService;
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.NoSuchPathException;
+import nl.esciencecenter.xenon.filesystems.Path;
+import nl.esciencecenter.xenon.filesystems.PathAttributes;
+
+/**
+ * Serves the files on a hosted target filesystem under /output.
+ *
+ * Files on a file target are sent straight from the file, with sendfile when
+ * the connector supports it and FileChannel.transferTo otherwise. Files on
+ * other targets are streamed from the target filesystem as they are read. In
+ * both cases a client can ask for a single byte range, so an interrupted
+ * download can be resumed.
+ */
+@CrossOrigin
+@Controller
+public class OutputApiController implements OutputApi {
+	private static final Logger logger = LoggerFactory.getLogger(OutputApiController.class);
+	private static final Logger requestLogger = LoggerFactory.getLogger("requests");
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+
+	@Autowired
+	private XenonService xenonService;
+
+	private final AntPathMatcher pathMatcher = new AntPathMatcher();
+
+	/**
+	 * Writes length bytes of a file, starting at start, to the response.
+	 */
+	private interface Content {
+		void write(long start, long length) throws IOException, XenonException;
+	}
+
+	@Override
+	public void getOutput(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		TargetAdaptorConfig target = xenonService.getConfig().getTargetFilesystemConfig();
+		String path = outputPath(request);
+		if (!target.isHosted() || path == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		requestLogger.info("OUTPUT request received for: " + path);
+
+		try {
+			if (target.getAdaptor().equals("file")) {
+				serveFile(request, response, Paths.get(target.getLocation()).resolve(path));
+			} else {
+				serveFromTarget(request, response, path);
+			}
+		} catch (NoSuchFileException | NoSuchPathException e) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+		} catch (XenonException e) {
+			logger.error("Error while serving output " + path, e);
+			if (!response.isCommitted()) {
+				response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			}
+		}
+	}
+
+	private void serveFile(HttpServletRequest request, HttpServletResponse response, java.nio.file.Path file) throws IOException, XenonException {
+		if (!Files.isRegularFile(file)) {
+			throw new NoSuchFileException(file.toString());
+		}
+		long size = Files.size(file);
+		long lastModified = Files.getLastModifiedTime(file).toMillis();
+
+		serve(request, response, file.getFileName().toString(), size, lastModified, (start, length) -> {
+			if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+				// Tomcat sends the file itself once this request is done
+				request.setAttribute("org.apache.tomcat.sendfile.filename", file.toAbsolutePath().toString());
+				request.setAttribute("org.apache.tomcat.sendfile.start", Long.valueOf(start));
+				request.setAttribute("org.apache.tomcat.sendfile.end", Long.valueOf(start + length));
+				return;
+			}
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+				long position = start;
+				long end = start + length;
+				while (position < end) {
+					long transferred = channel.transferTo(position, end - position, out);
+					if (transferred <= 0) {
+						break;
+					}
+					position += transferred;
+				}
+			}
+		});
+	}
+
+	private void serveFromTarget(HttpServletRequest request, HttpServletResponse response, String path) throws IOException, XenonException {
+		FileSystem fileSystem = xenonService.getTargetFileSystem();
+		Path file = fileSystem.getWorkingDirectory().resolve(path);
+		PathAttributes attributes = fileSystem.getAttributes(file);
+		if (!attributes.isRegular()) {
+			throw new NoSuchPathException("xenonflow", "Not a file: " + file);
+		}
+
+		serve(request, response, file.getFileNameAsString(), attributes.getSize(), attributes.getLastModifiedTime(), (start, length) -> {
+			try (InputStream in = fileSystem.readFromFile(file)) {
+				IOUtils.skipFully(in, start);
+				IOUtils.copyLarge(in, response.getOutputStream(), 0, length, new byte[BUFFER_SIZE]);
+			}
+		});
+	}
+
+	private void serve(HttpServletRequest request, HttpServletResponse response, String name, long size, long lastModified,
+			Content content) throws IOException, XenonException {
+		String etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified) + "\"";
+		if (new ServletWebRequest(request, response).checkNotModified(etag, lastModified)) {
+			return;
+		}
+
+		response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+		response.setContentType(MediaTypeFactory.getMediaType(name).orElse(MediaType.APPLICATION_OCTET_STREAM).toString());
+
+		long start = 0;
+		long length = size;
+		String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+		if (rangeHeader != null && matchesIfRange(request, etag, lastModified)) {
+			List<HttpRange> ranges;
+			try {
+				ranges = HttpRange.parseRanges(rangeHeader);
+			} catch (IllegalArgumentException e) {
+				logger.debug("Invalid range " + rangeHeader + ": " + e.getMessage());
+				notSatisfiable(response, size);
+				return;
+			}
+			// More than one range is served as the whole file
+			if (ranges.size() == 1) {
+				HttpRange range = ranges.get(0);
+				start = range.getRangeStart(size);
+				if (start >= size) {
+					notSatisfiable(response, size);
+					return;
+				}
+				long end = range.getRangeEnd(size);
+				length = end - start + 1;
+				response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+				response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+			}
+		}
+
+		response.setContentLengthLong(length);
+		if ("HEAD".equals(request.getMethod()) || length == 0) {
+			return;
+		}
+		content.write(start, length);
+	}
+
+	private void notSatisfiable(HttpServletResponse response, long size) {
+		response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+		response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+	}
+
+	/**
+	 * A range is only served when the If-Range header, if any, still matches
+	 * the file. Otherwise the client gets the whole new file.
+	 */
+	private boolean matchesIfRange(HttpServletRequest request, String etag, long lastModified) {
+		String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+		if (ifRange == null) {
+			return true;
+		}
+		if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+			return ifRange.equals(etag);
+		}
+		try {
+			return request.getDateHeader(HttpHeaders.IF_RANGE) / 1000 == lastModified / 1000;
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return the path below /output, or null if it is not a path inside the
+	 *         target directory.
+	 */
+	private String outputPath(HttpServletRequest request) {
+		String path = (String) request.getAttribute(HandlerMapping.PATH_WITHIN_HANDLER_MAPPING_ATTRIBUTE);
+		String pattern = (String) request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+		String relative = pathMatcher.extractPathWithinPattern(pattern, path);
+		if (relative.isEmpty() || relative.contains("\\") || relative.indexOf('\0') >= 0) {
+			return null;
+		}
+		for (String segment : relative.split("/")) {
+			if (segment.equals("..") || segment.equals(".")) {
+				return null;
+			}
+		}
+		return relative;
+	}
+}
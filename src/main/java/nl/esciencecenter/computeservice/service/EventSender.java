@@ -0,0 +1,247 @@
+package nl.esciencecenter.computeservice.service;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Sends server sent events to clients from a small pool of threads.
+ *
+ * Every client has its own queue and its events are sent one at a time, so a
+ * slow client only holds up its own events. A client that has more than
+ * xenonflow.events.queue-size events waiting, or that takes longer than
+ * xenonflow.events.send-timeout to accept one, is dropped. Dropping a client
+ * that is stuck in a send interrupts the sending thread and ends its stream
+ * with an error, which frees the thread for the other clients.
+ */
+@Component
+public class EventSender {
+	private static final Logger logger = LoggerFactory.getLogger(EventSender.class);
+
+	@Value("${xenonflow.events.threads:4}")
+	private int threads;
+
+	@Value("${xenonflow.events.queue-size:1000}")
+	private int queueSize;
+
+	@Value("${xenonflow.events.send-timeout:10000}")
+	private long sendTimeout;
+
+	private ExecutorService pool;
+	// Ends the streams of dropped clients, the emitter may be held by a stuck send for a while
+	private ExecutorService closer;
+	private final Set<Client> clients = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Something to send to a client, it may send any number of events.
+	 */
+	public interface Send {
+		void to(SseEmitter emitter) throws IOException;
+	}
+
+	@PostConstruct
+	public void initialize() {
+		pool = Executors.newFixedThreadPool(threads, new CustomizableThreadFactory("xenonflow-events-"));
+		closer = Executors.newCachedThreadPool(new CustomizableThreadFactory("xenonflow-events-close-"));
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		pool.shutdownNow();
+		closer.shutdownNow();
+		for (Client client : clients) {
+			if (client.close()) {
+				client.emitter.complete();
+			}
+		}
+	}
+
+	/**
+	 * Start sending to an emitter.
+	 *
+	 * @param onClose called once when the client goes away, is dropped or is
+	 *        completed.
+	 */
+	public Client open(SseEmitter emitter, Consumer<Client> onClose) {
+		Client client = new Client(emitter, onClose);
+		clients.add(client);
+		emitter.onCompletion(client::close);
+		emitter.onTimeout(client::close);
+		emitter.onError(e -> client.close());
+		return client;
+	}
+
+	@Scheduled(fixedRateString = "${xenonflow.events.send-timeout:10000}")
+	public void dropStuckClients() {
+		long now = System.currentTimeMillis();
+		for (Client client : clients) {
+			long since = client.sendingSince;
+			if (since > 0 && now - since > sendTimeout) {
+				client.fail(new IOException("Sending took longer than " + sendTimeout + " ms"));
+				client.abort();
+			}
+		}
+	}
+
+	public class Client {
+		private final SseEmitter emitter;
+		private final Consumer<Client> onClose;
+		private final Queue<Send> queue = new ConcurrentLinkedQueue<Send>();
+		private final AtomicInteger queued = new AtomicInteger();
+		private final AtomicBoolean running = new AtomicBoolean();
+		private final AtomicBoolean closed = new AtomicBoolean();
+		private final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		private volatile long sendingSince = 0;
+		private Thread sending = null;
+
+		private Client(SseEmitter emitter, Consumer<Client> onClose) {
+			this.emitter = emitter;
+			this.onClose = onClose;
+		}
+
+		/**
+		 * Queue a send for this client.
+		 *
+		 * @return false if the client is gone.
+		 */
+		public boolean submit(Send send) {
+			if (closed.get()) {
+				return false;
+			}
+			if (queued.incrementAndGet() > queueSize) {
+				fail(new IOException("More than " + queueSize + " events waiting"));
+				return false;
+			}
+			queue.add(send);
+			schedule();
+			return true;
+		}
+
+		/**
+		 * End the stream after what is queued has been sent.
+		 */
+		public void complete() {
+			submit(emitter -> {
+				if (close()) {
+					emitter.complete();
+				}
+			});
+		}
+
+		public boolean isClosed() {
+			return closed.get();
+		}
+
+		private void schedule() {
+			if (!running.compareAndSet(false, true)) {
+				return;
+			}
+			try {
+				pool.execute(this::drain);
+			} catch (RejectedExecutionException e) {
+				running.set(false);
+				logger.debug("Not sending events, shutting down");
+			}
+		}
+
+		private void drain() {
+			Send send;
+			while (!closed.get() && (send = queue.poll()) != null) {
+				queued.decrementAndGet();
+				synchronized (this) {
+					sending = Thread.currentThread();
+				}
+				sendingSince = System.currentTimeMillis();
+				try {
+					send.to(emitter);
+				} catch (IOException | IllegalStateException e) {
+					fail(e);
+				} finally {
+					sendingSince = 0;
+					synchronized (this) {
+						sending = null;
+						// An abort that came too late must not hit the next client
+						Thread.interrupted();
+					}
+				}
+			}
+			running.set(false);
+			if (closed.get()) {
+				finishIfIdle();
+			} else if (!queue.isEmpty()) {
+				schedule();
+			}
+		}
+
+		private boolean close() {
+			if (!closed.compareAndSet(false, true)) {
+				return false;
+			}
+			clients.remove(this);
+			queue.clear();
+			onClose.accept(this);
+			return true;
+		}
+
+		private void fail(Throwable e) {
+			if (close()) {
+				logger.debug("Dropping event stream: " + e.getMessage());
+				error.set(e);
+				finishIfIdle();
+			}
+		}
+
+		/**
+		 * Unblock a send in progress of a failed client: interrupt it and end
+		 * the stream with the error, which closes the response it is writing to.
+		 */
+		private void abort() {
+			synchronized (this) {
+				if (sending != null) {
+					sending.interrupt();
+				}
+			}
+			try {
+				closer.execute(() -> {
+					Throwable e = error.getAndSet(null);
+					if (e != null) {
+						emitter.completeWithError(e);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				logger.debug("Not ending event stream, shutting down");
+			}
+		}
+
+		private void finishIfIdle() {
+			// A send in progress holds the emitter, the sending thread ends the stream when it is done
+			if (running.compareAndSet(false, true)) {
+				Throwable e = error.getAndSet(null);
+				if (e != null) {
+					emitter.completeWithError(e);
+				}
+				running.set(false);
+			}
+		}
+	}
+}
@@ -0,0 +1,199 @@
+package nl.esciencecenter.computeservice.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.esciencecenter.computeservice.model.Job;
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.Path;
+import nl.esciencecenter.xenon.filesystems.PathAttributes;
+
+/**
+ * A batch of jobs that runs as a single scheduler job.
+ *
+ * The batch has a directory on the compute resource with a script that runs
+ * the cwlcommand of each job in its own sandbox directory, one job after the
+ * other. The script leaves a marker in the batch directory when it starts a
+ * job and a file with the exit code when the job is done, so the progress of
+ * every job can be read with a single listing of the directory. A job is
+ * skipped when it was cancelled before it started, and killed when it was
+ * cancelled while it runs.
+ */
+public class JobBatch {
+	private static final Logger logger = LoggerFactory.getLogger(JobBatch.class);
+
+	public static final String DIRECTORY = ".xenonflow-batches";
+	public static final String SCRIPT = "batch.sh";
+
+	private static final String STARTED = ".started";
+	private static final String EXITCODE = ".exitcode";
+	private static final String CANCEL = ".cancel";
+	private static final String PID = ".pid";
+
+	// Seconds between checks for a skip of a running job
+	private static final int CANCEL_CHECK_INTERVAL = 2;
+
+	private final FileSystem fileSystem;
+	private final String batchId;
+	private final Path directory;
+
+	public JobBatch(FileSystem fileSystem, String batchId) throws XenonException {
+		this.fileSystem = fileSystem;
+		this.batchId = batchId;
+		this.directory = fileSystem.getWorkingDirectory().resolve(DIRECTORY).resolve(batchId).toAbsolutePath();
+	}
+
+	/**
+	 * The progress of the jobs in a batch, as far as the script got.
+	 */
+	public static class Progress {
+		private final Set<String> started = new HashSet<String>();
+		private final Map<String, Integer> exitcodes = new HashMap<String, Integer>();
+
+		public boolean hasStarted(String jobId) {
+			return started.contains(jobId) || exitcodes.containsKey(jobId);
+		}
+
+		/**
+		 * @return the exit code, or null if the job is not done yet.
+		 */
+		public Integer getExitcode(String jobId) {
+			return exitcodes.get(jobId);
+		}
+	}
+
+	public String getBatchId() {
+		return batchId;
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Write the script that runs the jobs, they have to be staged in already.
+	 */
+	public void writeScript(List<Job> jobs) throws XenonException {
+		if (!fileSystem.exists(directory)) {
+			fileSystem.createDirectories(directory);
+		}
+
+		Path remoteDirectory = fileSystem.getWorkingDirectory();
+		try (PrintWriter out = new PrintWriter(fileSystem.writeToFile(directory.resolve(SCRIPT)))) {
+			out.print("#!/usr/bin/env bash\n");
+			out.print("\n");
+			out.print("BATCH=\"$(pwd)\"\n");
+			out.print("SETSID=\"$(command -v setsid)\"\n");
+			out.print("run() {\n");
+			out.print("\tlocal id=\"$1\" dir=\"$2\"\n");
+			out.print("\tshift 2\n");
+			// Marked as started before the check, so a job is either seen as started or never runs
+			out.print("\ttouch \"$BATCH/$id" + STARTED + "\"\n");
+			out.print("\tif [ -e \"$BATCH/$id" + CANCEL + "\" ]; then\n");
+			out.print("\t\trm -f \"$BATCH/$id" + STARTED + "\"\n");
+			out.print("\t\treturn\n");
+			out.print("\tfi\n");
+			// In its own process group, so a skip also stops what cwlcommand started
+			out.print("\t(cd \"$dir\" && exec $SETSID ./cwlcommand \"$@\" > stdout.txt 2> stderr.txt) &\n");
+			out.print("\tlocal pid=$!\n");
+			out.print("\techo $pid > \"$BATCH/$id" + PID + "\"\n");
+			out.print("\t(\n");
+			out.print("\t\twhile kill -0 $pid 2> /dev/null; do\n");
+			out.print("\t\t\tif [ -e \"$BATCH/$id" + CANCEL + "\" ]; then\n");
+			out.print("\t\t\t\tkill -TERM -- -$pid 2> /dev/null || kill -TERM $pid\n");
+			out.print("\t\t\t\tbreak\n");
+			out.print("\t\t\tfi\n");
+			out.print("\t\t\tsleep " + CANCEL_CHECK_INTERVAL + "\n");
+			out.print("\t\tdone\n");
+			out.print("\t) &\n");
+			out.print("\tlocal watcher=$!\n");
+			out.print("\twait $pid\n");
+			out.print("\tlocal code=$?\n");
+			out.print("\tkill $watcher 2> /dev/null\n");
+			out.print("\techo $code > \"$BATCH/$id" + EXITCODE + ".tmp\" && mv \"$BATCH/$id" + EXITCODE + ".tmp\" \"$BATCH/$id" + EXITCODE + "\"\n");
+			out.print("}\n");
+			out.print("\n");
+			for (Job job : jobs) {
+				StringBuilder line = new StringBuilder("run");
+				line.append(' ').append(quote(job.getId()));
+				line.append(' ').append(quote(remoteDirectory.resolve(job.getSandboxDirectory()).toAbsolutePath().toString()));
+				line.append(' ').append(quote(new Path(job.getWorkflow()).getFileNameAsString()));
+				if (job.hasInput()) {
+					line.append(' ').append(quote("job-order.json"));
+				}
+				out.print(line.toString() + "\n");
+			}
+		}
+	}
+
+	/**
+	 * Make the script skip a job. A job that has not started yet is not
+	 * started, a job that is already running is killed.
+	 */
+	public void skip(String jobId) throws XenonException {
+		if (!fileSystem.exists(directory)) {
+			return;
+		}
+		try (OutputStream out = fileSystem.writeToFile(directory.resolve(jobId + CANCEL))) {
+			// An empty marker
+		} catch (IOException e) {
+			throw new XenonException(fileSystem.getAdaptorName(), "Could not skip " + jobId + " in batch " + batchId, e);
+		}
+	}
+
+	/**
+	 * Read how far the script got, the exit codes are only read for the
+	 * given jobs.
+	 */
+	public Progress readProgress(Collection<String> jobIds) throws XenonException {
+		Progress progress = new Progress();
+		if (!fileSystem.exists(directory)) {
+			return progress;
+		}
+		for (PathAttributes entry : fileSystem.list(directory, false)) {
+			String name = entry.getPath().getFileNameAsString();
+			if (name.endsWith(STARTED)) {
+				progress.started.add(name.substring(0, name.length() - STARTED.length()));
+			} else if (name.endsWith(EXITCODE)) {
+				String jobId = name.substring(0, name.length() - EXITCODE.length());
+				if (!jobIds.contains(jobId)) {
+					continue;
+				}
+				try (InputStream in = fileSystem.readFromFile(entry.getPath())) {
+					progress.exitcodes.put(jobId, Integer.parseInt(IOUtils.toString(in, StandardCharsets.UTF_8).trim()));
+				} catch (IOException | NumberFormatException e) {
+					logger.warn("Could not read the exit code of " + jobId + " in batch " + batchId, e);
+				}
+			}
+		}
+		return progress;
+	}
+
+	public void delete() {
+		try {
+			if (fileSystem.exists(directory)) {
+				fileSystem.delete(directory, true);
+			}
+		} catch (XenonException e) {
+			logger.warn("Could not remove the directory of batch " + batchId, e);
+		}
+	}
+
+	private static String quote(String value) {
+		return "'" + value.replace("'", "'\\''") + "'";
+	}
+}
@@ -0,0 +1,258 @@
+package nl.esciencecenter.computeservice.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import nl.esciencecenter.computeservice.utils.JobLogAppender;
+import nl.esciencecenter.computeservice.utils.LoggingUtils;
+
+/**
+ * Owns the appender that writes the jobs.<id> loggers to the log files of
+ * the jobs, see JobLogAppender.
+ *
+ * Jobs that were submitted before a restart log to their file again as soon
+ * as they log anything. The log file of a job is closed when the job is done,
+ * what is logged about it after that goes to the application log.
+ *
+ * Clients can follow the log of a job. Every complete line written to the log
+ * is sent to them as a server sent event, with the offset of the next byte in
+ * the file as its id. The stream ends shortly after the job reaches a final
+ * state. The events go out through the EventSender, so a slow client only
+ * holds up its own stream.
+ */
+@Component
+public class JobLogs {
+	private static final Logger logger = LoggerFactory.getLogger(JobLogs.class);
+	private static final int CHUNK_SIZE = 64 * 1024;
+	private static final long FLUSH_TIMEOUT = 5000;
+
+	@Autowired
+	private EventSender eventSender;
+
+	@Value("${xenonflow.log.basepath}")
+	private String basePath;
+
+	@Value("${xenonflow.log.max-open:256}")
+	private int maxOpen;
+
+	@Value("${xenonflow.log.queue-size:8192}")
+	private int queueSize;
+
+	@Value("${xenonflow.log.follow.timeout:3600000}")
+	private long followTimeout;
+
+	private JobLogAppender appender;
+
+	private final ConcurrentMap<String, Set<Follower>> followers = new ConcurrentHashMap<String, Set<Follower>>();
+	// Only ends streams, the events themselves are sent by the EventSender
+	private final ScheduledExecutorService finisher = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "xenonflow-log-follow"));
+
+	private static class Follower {
+		private final AtomicBoolean pending = new AtomicBoolean();
+		private EventSender.Client client;
+		private volatile long offset;
+
+		Follower(long offset) {
+			this.offset = offset;
+		}
+	}
+
+	@PostConstruct
+	public void initialize() {
+		appender = LoggingUtils.addJobLogAppender(basePath, maxOpen, queueSize);
+		appender.setWriteListener(name -> onWrite(jobId(name)));
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		finisher.shutdownNow();
+		for (Set<Follower> forJob : followers.values()) {
+			for (Follower follower : forJob) {
+				follower.client.complete();
+			}
+		}
+		LoggingUtils.removeJobLogAppender();
+	}
+
+	/**
+	 * Write out what was logged for a job, before reading its log file.
+	 */
+	public void flush(String jobId) {
+		try {
+			if (!appender.flush(loggerName(jobId), FLUSH_TIMEOUT)) {
+				logger.warn("The log of " + jobId + " was not written within " + FLUSH_TIMEOUT + " ms");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Scheduled(fixedRateString = "${xenonflow.log.flush.rate:1000}")
+	public void flushAll() {
+		appender.flushAll();
+	}
+
+	/**
+	 * Follow the log of a job from the given offset.
+	 *
+	 * @param finished true if the job is already done, the stream ends after
+	 *        sending what is in the log.
+	 */
+	public SseEmitter follow(String jobId, long offset, boolean finished) {
+		SseEmitter emitter = new SseEmitter(followTimeout);
+		Follower follower = new Follower(offset);
+		follower.client = eventSender.open(emitter, client -> removeFollower(jobId, follower));
+
+		followers.compute(jobId, (id, forJob) -> {
+			if (forJob == null) {
+				forJob = ConcurrentHashMap.newKeySet();
+			}
+			forJob.add(follower);
+			return forJob;
+		});
+		appender.follow(loggerName(jobId));
+
+		// Send what is in the log already
+		flush(jobId);
+		schedule(jobId, follower);
+		if (finished) {
+			finish(jobId, 0);
+		}
+		return emitter;
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onJobStateChanged(JobStateChangedEvent event) {
+		if (event.isDeletion() || event.getTo().isFinal()) {
+			// After the last lines about the job that are still on their way to the log
+			appender.finishLater(loggerName(event.getJobId()));
+			finish(event.getJobId(), 0);
+		}
+	}
+
+	private void onWrite(String jobId) {
+		Set<Follower> forJob = followers.get(jobId);
+		if (forJob == null) {
+			return;
+		}
+		for (Follower follower : forJob) {
+			schedule(jobId, follower);
+		}
+	}
+
+	private void schedule(String jobId, Follower follower) {
+		// At most one read per follower is waiting at any time
+		if (!follower.pending.compareAndSet(false, true)) {
+			return;
+		}
+		if (!follower.client.submit(emitter -> send(jobId, follower, emitter))) {
+			removeFollower(jobId, follower);
+		}
+	}
+
+	private void finish(String jobId, long delay) {
+		if (!followers.containsKey(jobId)) {
+			return;
+		}
+		try {
+			finisher.schedule(() -> {
+				Set<Follower> forJob = followers.get(jobId);
+				if (forJob == null) {
+					return;
+				}
+				flush(jobId);
+				for (Follower follower : forJob) {
+					follower.client.submit(emitter -> send(jobId, follower, emitter));
+					follower.client.complete();
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			logger.debug("Not finishing the log of " + jobId + ", shutting down");
+		}
+	}
+
+	/**
+	 * Send the complete lines after the offset of a follower.
+	 */
+	private void send(String jobId, Follower follower, SseEmitter emitter) throws IOException {
+		follower.pending.set(false);
+		try (FileChannel channel = FileChannel.open(appender.getFile(loggerName(jobId)).toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			while (follower.offset < size) {
+				ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(CHUNK_SIZE, size - follower.offset));
+				int read;
+				do {
+					read = channel.read(buffer, follower.offset + buffer.position());
+				} while (read > 0 && buffer.hasRemaining());
+				int end = buffer.position();
+				while (end > 0 && buffer.get(end - 1) != '\n') {
+					end--;
+				}
+				if (end == 0) {
+					if (buffer.hasRemaining()) {
+						// The rest of the line is not written yet
+						return;
+					}
+					// A line longer than a chunk is sent in parts
+					end = buffer.position();
+				}
+
+				String text = new String(buffer.array(), 0, end, StandardCharsets.UTF_8);
+				if (text.endsWith("\n")) {
+					text = text.substring(0, text.length() - 1);
+				}
+				SseEmitter.SseEventBuilder event = SseEmitter.event().name("log").id(Long.toString(follower.offset + end));
+				for (String line : text.split("\n", -1)) {
+					event.data(line);
+				}
+				emitter.send(event);
+				follower.offset += end;
+			}
+		} catch (NoSuchFileException e) {
+			// Nothing was logged for the job yet
+		}
+	}
+
+	private void removeFollower(String jobId, Follower follower) {
+		followers.computeIfPresent(jobId, (id, forJob) -> {
+			forJob.remove(follower);
+			if (forJob.isEmpty()) {
+				appender.unfollow(loggerName(jobId));
+				return null;
+			}
+			return forJob;
+		});
+	}
+
+	private static String loggerName(String jobId) {
+		return "jobs." + jobId;
+	}
+
+	private static String jobId(String loggerName) {
+		return loggerName.substring("jobs.".length());
+	}
+}
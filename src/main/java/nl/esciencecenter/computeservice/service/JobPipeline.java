@@ -0,0 +1,370 @@
+package nl.esciencecenter.computeservice.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.google.common.collect.ImmutableList;
+
+import nl.esciencecenter.computeservice.config.ComputeResource;
+import nl.esciencecenter.computeservice.model.Job;
+import nl.esciencecenter.computeservice.model.JobRepository;
+import nl.esciencecenter.computeservice.model.JobState;
+import nl.esciencecenter.computeservice.model.StatePreconditionException;
+import nl.esciencecenter.computeservice.service.staging.XenonStager;
+import nl.esciencecenter.computeservice.service.tasks.CancelJobTask;
+import nl.esciencecenter.computeservice.service.tasks.CwlBatchTask;
+import nl.esciencecenter.computeservice.service.tasks.CwlStageInTask;
+import nl.esciencecenter.computeservice.service.tasks.CwlStageOutTask;
+import nl.esciencecenter.computeservice.service.tasks.CwlWorkflowTask;
+import nl.esciencecenter.computeservice.service.tasks.DeleteJobTask;
+import nl.esciencecenter.xenon.XenonException;
+
+/**
+ * Moves jobs through the different phases of their life cycle.
+ *
+ * Every phase has its own bounded executor, so a slow stage-in does not hold up
+ * submission or status polling of other jobs. Jobs are posted to a phase as soon
+ * as the JobService reports the state transition that makes them eligible for it.
+ * The XenonMonitor periodically re-posts jobs to catch anything that could not be
+ * queued because a phase was at capacity.
+ */
+@Component
+public class JobPipeline {
+	private static final Logger logger = LoggerFactory.getLogger(JobPipeline.class);
+
+	public enum Phase {
+		STAGE_IN("stage-in", 4),
+		SUBMIT("submit", 2),
+		POLL("poll", 1),
+		CANCEL("cancel", 2),
+		STAGE_OUT("stage-out", 4),
+		DELETE("delete", 2);
+
+		private final String name;
+		private final int defaultThreads;
+
+		Phase(String name, int defaultThreads) {
+			this.name = name;
+			this.defaultThreads = defaultThreads;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getDefaultThreads() {
+			return defaultThreads;
+		}
+	}
+
+	/**
+	 * The states in which a job is waiting to be picked up by one of the phases.
+	 */
+	public static final ImmutableList<JobState> queuedStates = ImmutableList.of(JobState.SUBMITTED,
+			JobState.STAGING_READY, JobState.FINISHED, JobState.WAITING_CR, JobState.RUNNING_CR,
+			JobState.STAGING_IN_DELR, JobState.WAITING_DELR, JobState.RUNNING_DELR, JobState.STAGING_OUT_DELR,
+			JobState.DELETING);
+
+	@Autowired
+	private Environment environment;
+
+	@Autowired
+	private XenonService xenonService;
+
+	@Autowired
+	private JobService jobService;
+
+	@Autowired
+	private JobRepository repository;
+
+	@Autowired
+	private XenonStager sourceToRemoteStager;
+
+	@Autowired
+	private XenonStager remoteToTargetStager;
+
+	@Autowired
+	private CancelJobTask cancelJobTask;
+
+	@Autowired
+	private DeleteJobTask deleteJobTask;
+
+	@Autowired
+	private StageInLimiter stageInLimiter;
+
+	@Value("${xenonflow.pipeline.queue-capacity:1000}")
+	private int queueCapacity;
+
+	private final Map<Phase, ThreadPoolTaskExecutor> executors = new EnumMap<Phase, ThreadPoolTaskExecutor>(Phase.class);
+	private final Map<Phase, Set<String>> inFlight = new EnumMap<Phase, Set<String>>(Phase.class);
+
+	@PostConstruct
+	public void initialize() {
+		for (Phase phase : Phase.values()) {
+			int threads = environment.getProperty("xenonflow.pipeline." + phase.getName() + ".threads", Integer.class,
+					phase.getDefaultThreads());
+			if (phase == Phase.POLL) {
+				// Compute resources are polled in parallel
+				threads = Math.max(threads, xenonService.getConfig().size());
+			}
+
+			ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+			executor.setThreadNamePrefix("xenonflow-" + phase.getName() + "-");
+			executor.setCorePoolSize(threads);
+			executor.setMaxPoolSize(threads);
+			executor.setQueueCapacity(queueCapacity);
+			executor.initialize();
+
+			executors.put(phase, executor);
+			inFlight.put(phase, ConcurrentHashMap.newKeySet());
+			logger.info("Started " + phase.getName() + " phase with " + threads + " threads");
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		for (ThreadPoolTaskExecutor executor : executors.values()) {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Runs a task in the given phase, unless a task with the same key is already
+	 * queued or running in that phase.
+	 *
+	 * @param phase
+	 * @param key
+	 * @param task
+	 * @return true if the task was queued, false if it was a duplicate or the phase is at capacity.
+	 */
+	public boolean submit(Phase phase, String key, Runnable task) {
+		Set<String> keys = inFlight.get(phase);
+		if (!keys.add(key)) {
+			return false;
+		}
+
+		try {
+			executors.get(phase).execute(() -> {
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					logger.error("Error during " + phase.getName() + " of " + key, e);
+				} finally {
+					keys.remove(key);
+				}
+			});
+			return true;
+		} catch (TaskRejectedException e) {
+			keys.remove(key);
+			logger.debug("The " + phase.getName() + " queue is full, " + key + " will be retried on the next update");
+			return false;
+		}
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onJobStateChanged(JobStateChangedEvent event) {
+		if (event.isDeletion()) {
+			return;
+		}
+		enqueue(event.getJobId(), event.getComputeResource(), event.getTo());
+	}
+
+	/**
+	 * Posts a job to the phase that handles jobs in the given state.
+	 *
+	 * @param jobId
+	 * @param computeResource
+	 * @param state
+	 * @return true if the job was queued.
+	 */
+	public boolean enqueue(String jobId, String computeResource, JobState state) {
+		switch (state) {
+			case SUBMITTED:
+				return submit(Phase.STAGE_IN, jobId, () -> startStageIn(jobId, computeResource));
+			case STAGING_READY:
+				String name = xenonService.getConfig().computeResourceName(computeResource);
+				ComputeResource resource = xenonService.getConfig().get(name);
+				if (resource != null && resource.getBatchSize() > 1) {
+					// One task per compute resource collects the ready jobs into batches
+					return submit(Phase.SUBMIT, "batch-" + name, () -> startBatches(name));
+				}
+				return submit(Phase.SUBMIT, jobId, () -> startJob(jobId));
+			case FINISHED:
+				return submit(Phase.STAGE_OUT, jobId, () -> startStageOut(jobId));
+			case WAITING_CR:
+			case RUNNING_CR:
+				return submit(Phase.CANCEL, jobId, () -> cancelJobTask.cancelJob(jobId));
+			case STAGING_IN_DELR:
+			case WAITING_DELR:
+			case RUNNING_DELR:
+			case STAGING_OUT_DELR:
+				return submit(Phase.DELETE, jobId, () -> deleteJobTask.deleteJob(jobId));
+			case DELETING:
+				// One task per compute resource removes the deleted jobs in batches
+				String resourceName = xenonService.getConfig().computeResourceName(computeResource);
+				return submit(Phase.DELETE, "delete-" + resourceName, () -> deleteJobTask.deleteJobs(resourceName));
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Restart the stage in of a job that was staging in when xenonflow was stopped.
+	 */
+	public boolean resumeStageIn(String jobId, String computeResource) {
+		return submit(Phase.STAGE_IN, jobId, () -> {
+			stageInLimiter.acquire(jobId, computeResource);
+			runStageIn(jobId);
+		});
+	}
+
+	/**
+	 * Restart the stage out of a job that was staging out when xenonflow was stopped.
+	 */
+	public boolean resumeStageOut(String jobId, Integer exitcode) {
+		return submit(Phase.STAGE_OUT, jobId, () -> runStageOut(jobId, exitcode));
+	}
+
+	/**
+	 * Try to stage back whatever output a lost or failed job left behind.
+	 */
+	public boolean recoverOutput(String jobId) {
+		return submit(Phase.STAGE_OUT, jobId, () -> runStageOut(jobId, null));
+	}
+
+	private void startStageIn(String jobId, String computeResource) {
+		if (!stageInLimiter.tryAcquire(jobId, computeResource)) {
+			// The job stays submitted until a permit is available
+			return;
+		}
+		try {
+			jobService.setJobState(jobId, JobState.SUBMITTED, JobState.STAGING_IN);
+		} catch (StatePreconditionException e) {
+			// Someone else already picked up this job
+			logger.debug("Not staging in " + jobId + ": " + e.getMessage());
+			stageInLimiter.release(jobId);
+			return;
+		}
+		runStageIn(jobId);
+	}
+
+	private void runStageIn(String jobId) {
+		Logger jobLogger = LoggerFactory.getLogger("jobs." + jobId);
+		try {
+			CwlStageInTask stageIn = new CwlStageInTask(jobId, sourceToRemoteStager, xenonService);
+			stageIn.run();
+		} catch (XenonException e) {
+			jobLogger.error("Error during stage in of " + jobId, e);
+			logger.error("Error during stage in of " + jobId, e);
+			stageInLimiter.release(jobId);
+		} catch (RuntimeException e) {
+			// The job must not stay in STAGING_IN holding its permit
+			stageInLimiter.release(jobId);
+			jobService.setErrorAndState(jobId, e, JobState.STAGING_IN, JobState.SYSTEM_ERROR);
+		}
+	}
+
+	private void startJob(String jobId) {
+		Logger jobLogger = LoggerFactory.getLogger("jobs." + jobId);
+		try {
+			jobService.setJobState(jobId, JobState.STAGING_READY, JobState.XENON_SUBMIT);
+		} catch (StatePreconditionException e) {
+			logger.debug("Not submitting " + jobId + ": " + e.getMessage());
+			return;
+		}
+
+		jobLogger.info("Starting new job runner for job: " + jobId);
+		try {
+			CwlWorkflowTask submit = new CwlWorkflowTask(jobId, xenonService);
+			submit.run();
+		} catch (XenonException e) {
+			jobLogger.error("Error during submission of " + jobId, e);
+			logger.error("Error during submission of " + jobId, e);
+		}
+	}
+
+	/**
+	 * Submit the jobs that are ready to run on a compute resource in batches
+	 * of jobs that run the same workflow. A batch that is not full is held
+	 * back until its oldest job has waited for batchWait milliseconds.
+	 */
+	private void startBatches(String computeResource) {
+		ComputeResource resource = xenonService.getConfig().computeResource(computeResource);
+		List<Job> ready = new ArrayList<Job>(repository.findAllByInternalStateAndComputeResource(JobState.STAGING_READY, computeResource));
+		if (computeResource.equals(xenonService.getConfig().getDefaultComputeResourceName())) {
+			ready.addAll(repository.findAllByInternalStateAndComputeResourceIsNull(JobState.STAGING_READY));
+		}
+		ready.sort(Comparator.comparing(Job::getUpdatedAt, Comparator.nullsFirst(Comparator.naturalOrder())));
+
+		Map<String, List<Job>> byWorkflow = new LinkedHashMap<String, List<Job>>();
+		for (Job job : ready) {
+			byWorkflow.computeIfAbsent(job.getWorkflow(), w -> new ArrayList<Job>()).add(job);
+		}
+
+		long now = System.currentTimeMillis();
+		for (List<Job> jobs : byWorkflow.values()) {
+			for (int start = 0; start < jobs.size(); start += resource.getBatchSize()) {
+				List<Job> batch = jobs.subList(start, Math.min(jobs.size(), start + resource.getBatchSize()));
+				Date oldest = batch.get(0).getUpdatedAt();
+				if (batch.size() < resource.getBatchSize() && oldest != null && now - oldest.getTime() < resource.getBatchWait()) {
+					// Picked up again on a later update
+					continue;
+				}
+				submitBatch(computeResource, batch);
+			}
+		}
+	}
+
+	private void submitBatch(String computeResource, List<Job> batch) {
+		List<JobUpdate> updates = new ArrayList<JobUpdate>();
+		for (Job job : batch) {
+			updates.add(jobService.update(job.getId()).transition(JobState.STAGING_READY, JobState.XENON_SUBMIT));
+		}
+		List<Job> jobs = jobService.apply(updates);
+		if (!jobs.isEmpty()) {
+			new CwlBatchTask(computeResource, jobs, xenonService).run();
+		}
+	}
+
+	private void startStageOut(String jobId) {
+		Job job;
+		try {
+			job = jobService.setJobState(jobId, JobState.FINISHED, JobState.STAGING_OUT);
+		} catch (StatePreconditionException e) {
+			logger.debug("Not staging out " + jobId + ": " + e.getMessage());
+			return;
+		}
+		runStageOut(jobId, job.getXenonExitcode());
+	}
+
+	private void runStageOut(String jobId, Integer exitcode) {
+		Logger jobLogger = LoggerFactory.getLogger("jobs." + jobId);
+		try {
+			CwlStageOutTask stageOut = new CwlStageOutTask(jobId, exitcode, remoteToTargetStager, xenonService);
+			stageOut.run();
+		} catch (XenonException e) {
+			jobLogger.error("Error during stage out of " + jobId, e);
+			logger.error("Error during stage out of " + jobId, e);
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package nl.esciencecenter.computeservice.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import nl.esciencecenter.computeservice.model.JobDescription;
+
+/**
+ * Picks the compute resource a new job runs on.
+ *
+ * A job that names a compute resource in its description runs there. Other
+ * jobs are placed according to xenonflow.placement:
+ * - default: on the default compute resource
+ * - round-robin: on each compute resource in turn
+ * - least-queued: on the compute resource with the fewest unfinished jobs
+ */
+@Component
+public class JobPlacement {
+	public enum Policy {
+		DEFAULT,
+		ROUND_ROBIN,
+		LEAST_QUEUED;
+
+		public static Policy fromString(String policy) {
+			return Policy.valueOf(policy.trim().replace('-', '_').toUpperCase());
+		}
+	}
+
+	@Autowired
+	private XenonService xenonService;
+
+	@Autowired
+	private JobStateCounters counters;
+
+	@Value("${xenonflow.placement:default}")
+	private String policy;
+
+	private final AtomicInteger next = new AtomicInteger();
+
+	/**
+	 * @return the name of the compute resource, or null if the description
+	 *         names a compute resource that does not exist.
+	 */
+	public String place(JobDescription description) {
+		if (description.hasComputeResource()) {
+			return xenonService.getConfig().containsKey(description.getComputeResource()) ? description.getComputeResource() : null;
+		}
+
+		List<String> resources = new ArrayList<String>(xenonService.getConfig().keySet());
+		switch (Policy.fromString(policy)) {
+			case ROUND_ROBIN:
+				return resources.get(Math.floorMod(next.getAndIncrement(), resources.size()));
+			case LEAST_QUEUED:
+				String least = xenonService.getConfig().getDefaultComputeResourceName();
+				long leastCount = counters.getActiveCount(least);
+				for (String resource : resources) {
+					long count = counters.getActiveCount(resource);
+					if (count < leastCount) {
+						least = resource;
+						leastCount = count;
+					}
+				}
+				return least;
+			case DEFAULT:
+			default:
+				return xenonService.getConfig().getDefaultComputeResourceName();
+		}
+	}
+}
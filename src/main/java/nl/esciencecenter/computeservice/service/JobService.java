@@ -1,12 +1,19 @@
 package nl.esciencecenter.computeservice.service;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+
+import javax.annotation.PostConstruct;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import nl.esciencecenter.computeservice.model.Job;
 import nl.esciencecenter.computeservice.model.JobRepository;
@@ -22,6 +29,121 @@ public class JobService {
 	@Autowired
 	private JobRepository repository;
 	
+	@Autowired
+	private ApplicationEventPublisher eventPublisher;
+	
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+	
+	private TransactionTemplate transactionTemplate;
+	
+	@PostConstruct
+	public void initialize() {
+		transactionTemplate = new TransactionTemplate(transactionManager);
+	}
+	
+	/**
+	 * Start a new set of changes to a job, call apply() on the result to
+	 * store them.
+	 */
+	public JobUpdate update(String jobId) {
+		return new JobUpdate(this, jobId);
+	}
+	
+	/**
+	 * Apply all changes in the update under a single lock with a single flush.
+	 */
+	public Job apply(JobUpdate update) throws StatePreconditionException {
+		// The precondition failure is handed out of the callback instead of thrown
+		// so an enclosing transaction is not marked as rollback-only.
+		StatePreconditionException[] failure = new StatePreconditionException[1];
+		Job job = transactionTemplate.execute(status -> {
+			try {
+				return applyLocked(update);
+			} catch (StatePreconditionException e) {
+				failure[0] = e;
+				return null;
+			}
+		});
+		if (failure[0] != null) {
+			throw failure[0];
+		}
+		return job;
+	}
+	
+	/**
+	 * Apply the updates for many jobs in one transaction. An update whose state
+	 * transition is no longer valid is skipped, the others are still applied.
+	 * 
+	 * @return the jobs that were updated
+	 */
+	public List<Job> apply(List<JobUpdate> updates) {
+		if (updates.isEmpty()) {
+			return new ArrayList<Job>();
+		}
+		return transactionTemplate.execute(status -> {
+			List<Job> jobs = new ArrayList<Job>();
+			for (JobUpdate update : updates) {
+				try {
+					jobs.add(applyLocked(update));
+				} catch (StatePreconditionException e) {
+					// Another thread got to the job first, e.g. it was cancelled while it was polled
+					logger.debug("Not updating " + update.getJobId() + ": " + e.getMessage());
+				}
+			}
+			repository.flush();
+			return jobs;
+		});
+	}
+	
+	private Job applyLocked(JobUpdate update) throws StatePreconditionException {
+		String jobId = update.getJobId();
+		Logger jobLogger = LoggerFactory.getLogger("jobs."+jobId);
+		
+		Job job = repository.findOneForUpdate(jobId);
+		if (job == null) {
+			// The job was deleted after the update was created
+			throw new StatePreconditionException("Job " + jobId + " no longer exists");
+		}
+		update.applyTo(job);
+		
+		if (update.getError() != null) {
+			jobLogger.error("Error during execution of " + job.getName() + "(" +job.getId() +")", update.getError());
+			logger.error("Error during execution of " + job.getName() + "(" +job.getId() +")", update.getError());
+		}
+		if (update.hasTransition() && update.getTo().isFinal()) {
+			job.setFinalizedAt(new Date());
+		}
+		
+		job = repository.save(job);
+		if (update.hasTransition()) {
+			eventPublisher.publishEvent(new JobStateChangedEvent(jobId, job.getComputeResource(), update.getFrom(), update.getTo()));
+			jobLogger.info("Job " + jobId + " now has state: " + update.getTo());
+		}
+		return job;
+	}
+	
+	@Transactional
+	public Job createJob(Job job) {
+		job = repository.saveAndFlush(job);
+		eventPublisher.publishEvent(new JobStateChangedEvent(job.getId(), job.getComputeResource(), null, job.getInternalState()));
+		return job;
+	}
+	
+	/**
+	 * Store a number of new jobs in one transaction, the inserts are sent to
+	 * the database in batches of hibernate.jdbc.batch_size.
+	 */
+	@Transactional
+	public List<Job> createJobs(List<Job> jobs) {
+		List<Job> created = repository.saveAll(jobs);
+		repository.flush();
+		for (Job job : created) {
+			eventPublisher.publishEvent(new JobStateChangedEvent(job.getId(), job.getComputeResource(), null, job.getInternalState()));
+		}
+		return created;
+	}
+	
 	@Transactional
 	public Job setJobState(String jobId, JobState from, JobState to) throws StatePreconditionException {
 		Logger jobLogger = LoggerFactory.getLogger("jobs."+jobId);
@@ -30,15 +152,41 @@ public class JobService {
 		job.changeState(from, to);
 		
 		if (to.isFinal()) {
-			job.getAdditionalInfo().put("finalizedAt", new Date());
+			job.setFinalizedAt(new Date());
 		}
 		
         job = repository.saveAndFlush(job);
+        eventPublisher.publishEvent(new JobStateChangedEvent(jobId, job.getComputeResource(), from, to));
         
         jobLogger.info("Job " + jobId + " now has state: " + to);
         return job;
 	}
 	
+	@Transactional
+	public void deleteJob(String jobId) {
+		Job job = repository.findOneForUpdate(jobId);
+		if (job != null) {
+			repository.delete(job);
+			repository.flush();
+			eventPublisher.publishEvent(new JobStateChangedEvent(jobId, job.getComputeResource(), job.getInternalState(), null));
+		}
+	}
+	
+	/**
+	 * Delete a number of jobs in one transaction.
+	 */
+	@Transactional
+	public void deleteJobs(List<String> jobIds) {
+		for (String jobId : jobIds) {
+			Job job = repository.findOneForUpdate(jobId);
+			if (job != null) {
+				repository.delete(job);
+				eventPublisher.publishEvent(new JobStateChangedEvent(jobId, job.getComputeResource(), job.getInternalState(), null));
+			}
+		}
+		repository.flush();
+	}
+	
 	@Transactional
 	public void setErrorAndState(String jobId, Exception e, JobState from, JobState to) {
 		Logger jobLogger = LoggerFactory.getLogger("jobs."+jobId);
@@ -49,7 +197,7 @@ public class JobService {
 			if (e != null) {
 				jobLogger.error("Error during execution of " + job.getName() + "(" +job.getId() +")", e);
 				logger.error("Error during execution of " + job.getName() + "(" +job.getId() +")", e);
-				job.getAdditionalInfo().put("error", e);
+				job.getAdditionalInfo().put("error", Job.describeError(e));
 				job = repository.saveAndFlush(job);
 			}
 			setJobState(jobId, from, to);
@@ -83,14 +231,14 @@ public class JobService {
 	@Transactional
 	public void setXenonState(String jobId, String state) {
 		Job job = repository.findOneForUpdate(jobId);
-		job.getAdditionalInfo().put("xenon.state", state);
+		job.setXenonState(state);
 		job = repository.saveAndFlush(job);
 	}
 
 	@Transactional
 	public void setXenonExitcode(String jobId, Integer exitCode) {
 		Job job = repository.findOneForUpdate(jobId);
-		job.getAdditionalInfo().put("xenon.exitcode", exitCode);
+		job.setXenonExitcode(exitCode);
 		job = repository.saveAndFlush(job);
 	}
 
@@ -142,10 +290,11 @@ public class JobService {
 			job.setOutput(files);
 		}
 		if (to.isFinal()) {
-			job.getAdditionalInfo().put("finalizedAt", new Date());
+			job.setFinalizedAt(new Date());
 		}
 		
         job = repository.saveAndFlush(job);
+        eventPublisher.publishEvent(new JobStateChangedEvent(jobId, job.getComputeResource(), from, to));
         
         jobLogger.info("Job " + jobId + " now has state: " + to);
         return job;
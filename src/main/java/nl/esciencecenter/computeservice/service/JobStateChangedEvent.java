@@ -0,0 +1,68 @@
+package nl.esciencecenter.computeservice.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import nl.esciencecenter.computeservice.model.JobState;
+
+/**
+ * Published by the JobService whenever the internal state of a job changes.
+ * 
+ * The from state is null when the job has just been created, the to state is
+ * null when the job has been deleted.
+ * 
+ * Every event gets a sequence number when it is created, in the transaction
+ * that makes the change, so listeners can tell which changes happened before
+ * some point.
+ */
+public class JobStateChangedEvent {
+	private static final AtomicLong lastSequence = new AtomicLong();
+
+	private final long sequence = lastSequence.incrementAndGet();
+	private final String jobId;
+	private final String computeResource;
+	private final JobState from;
+	private final JobState to;
+
+	public JobStateChangedEvent(String jobId, String computeResource, JobState from, JobState to) {
+		this.jobId = jobId;
+		this.computeResource = computeResource;
+		this.from = from;
+		this.to = to;
+	}
+
+	/**
+	 * The sequence number of the last event that was created.
+	 */
+	public static long getLastSequence() {
+		return lastSequence.get();
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	public String getJobId() {
+		return jobId;
+	}
+
+	public String getComputeResource() {
+		return computeResource;
+	}
+
+	public JobState getFrom() {
+		return from;
+	}
+
+	public JobState getTo() {
+		return to;
+	}
+
+	public boolean isDeletion() {
+		return to == null;
+	}
+
+	@Override
+	public String toString() {
+		return "JobStateChangedEvent [jobId=" + jobId + ", computeResource=" + computeResource + ", from=" + from + ", to=" + to + "]";
+	}
+}
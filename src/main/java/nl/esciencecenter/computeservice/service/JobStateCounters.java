@@ -0,0 +1,182 @@
+package nl.esciencecenter.computeservice.service;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import nl.esciencecenter.computeservice.model.JobRepository;
+import nl.esciencecenter.computeservice.model.JobState;
+import nl.esciencecenter.computeservice.model.JobStateCount;
+import nl.esciencecenter.computeservice.model.Status;
+
+/**
+ * Keeps the number of jobs per state and compute resource, so the status of
+ * the server can be reported without reading the jobs table.
+ * 
+ * The counts are loaded with a single query at startup and from then on
+ * follow the state changes published by the JobService.
+ */
+@Component
+public class JobStateCounters {
+	private static final Logger logger = LoggerFactory.getLogger(JobStateCounters.class);
+	
+	@Autowired
+	private JobRepository repository;
+	
+	@Autowired
+	private XenonService xenonService;
+	
+	/**
+	 * The counts with the sequence number of the last event they include.
+	 */
+	private static class Counts {
+		private final ConcurrentMap<String, Map<JobState, AtomicLong>> counters = new ConcurrentHashMap<String, Map<JobState, AtomicLong>>();
+		private final long sequence;
+
+		private Counts(long sequence) {
+			this.sequence = sequence;
+		}
+	}
+
+	// Replaced as a whole by a reconcile, readers never see a half loaded one
+	private volatile Counts counts = new Counts(0);
+
+	// The events that came in while a reconcile was querying, null when there is none
+	private List<JobStateChangedEvent> pending = null;
+	private final Object lock = new Object();
+	
+	/**
+	 * Reload the counts from the database. Besides at startup this runs every
+	 * now and then to correct for jobs that were changed without an event.
+	 *
+	 * The query counts the changes of the events created before it started,
+	 * those events are not counted again when they come in later. A change
+	 * that commits while the query runs can be missed, until the next
+	 * reconcile.
+	 */
+	@PostConstruct
+	@Scheduled(fixedRateString = "${xenonflow.status.reconcile.rate:600000}", initialDelayString = "${xenonflow.status.reconcile.rate:600000}")
+	public void reconcile() {
+		Counts fresh;
+		synchronized (lock) {
+			pending = new ArrayList<JobStateChangedEvent>();
+			fresh = new Counts(JobStateChangedEvent.getLastSequence());
+		}
+		try {
+			for (JobStateCount count : repository.countByInternalStateAndComputeResource()) {
+				if (count.getInternalState() != null) {
+					counter(fresh, count.getComputeResource(), count.getInternalState()).addAndGet(count.getCount());
+				}
+			}
+			synchronized (lock) {
+				for (JobStateChangedEvent event : pending) {
+					apply(fresh, event);
+				}
+				counts = fresh;
+			}
+			logger.debug("Loaded job counts: " + fresh.counters);
+		} finally {
+			synchronized (lock) {
+				pending = null;
+			}
+		}
+	}
+	
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onJobStateChanged(JobStateChangedEvent event) {
+		synchronized (lock) {
+			apply(counts, event);
+			if (pending != null) {
+				pending.add(event);
+			}
+		}
+	}
+
+	private void apply(Counts target, JobStateChangedEvent event) {
+		if (event.getSequence() <= target.sequence) {
+			// Already in the counts of the query
+			return;
+		}
+		if (event.getFrom() != null) {
+			counter(target, event.getComputeResource(), event.getFrom()).decrementAndGet();
+		}
+		if (event.getTo() != null) {
+			counter(target, event.getComputeResource(), event.getTo()).incrementAndGet();
+		}
+	}
+	
+	public long getCount(JobState state) {
+		long total = 0;
+		for (Map<JobState, AtomicLong> states : counts.counters.values()) {
+			AtomicLong counter = states.get(state);
+			if (counter != null) {
+				total += counter.get();
+			}
+		}
+		return total;
+	}
+	
+	/**
+	 * The number of jobs on a compute resource that are not done yet.
+	 */
+	public long getActiveCount(String computeResource) {
+		Map<JobState, AtomicLong> states = counts.counters.get(computeResource);
+		if (states == null) {
+			return 0;
+		}
+		long total = 0;
+		for (Map.Entry<JobState, AtomicLong> state : states.entrySet()) {
+			if (!state.getKey().isFinal()) {
+				total += state.getValue().get();
+			}
+		}
+		return total;
+	}
+	
+	/**
+	 * The current counts as reported by the status api.
+	 */
+	public Status getStatus() {
+		Map<JobState, Long> totals = new EnumMap<JobState, Long>(JobState.class);
+		Map<String, Status> perResource = new LinkedHashMap<String, Status>();
+		for (Map.Entry<String, Map<JobState, AtomicLong>> resource : counts.counters.entrySet()) {
+			Map<JobState, Long> states = new EnumMap<JobState, Long>(JobState.class);
+			for (Map.Entry<JobState, AtomicLong> state : resource.getValue().entrySet()) {
+				long count = state.getValue().get();
+				states.put(state.getKey(), count);
+				totals.merge(state.getKey(), count, Long::sum);
+			}
+			perResource.put(resource.getKey(), Status.fromStateCounts(states));
+		}
+		
+		Status status = Status.fromStateCounts(totals);
+		status.setComputeResources(perResource);
+		return status;
+	}
+	
+	private AtomicLong counter(Counts target, String computeResource, JobState state) {
+		if (computeResource == null) {
+			// Jobs from before compute resources were recorded ran on the default one
+			computeResource = xenonService.getConfig().getDefaultComputeResourceName();
+			if (computeResource == null) {
+				computeResource = "default";
+			}
+		}
+		Map<JobState, AtomicLong> states = target.counters.computeIfAbsent(computeResource, r -> new ConcurrentHashMap<JobState, AtomicLong>());
+		return states.computeIfAbsent(state, s -> new AtomicLong());
+	}
+}
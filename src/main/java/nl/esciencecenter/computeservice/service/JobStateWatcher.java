@@ -0,0 +1,206 @@
+package nl.esciencecenter.computeservice.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import nl.esciencecenter.computeservice.model.Job;
+import nl.esciencecenter.computeservice.model.JobRepository;
+import nl.esciencecenter.computeservice.model.JobState;
+
+/**
+ * Lets clients wait for state changes of jobs instead of polling for them.
+ *
+ * Waiting clients are kept in memory and only completed when the JobService
+ * reports a state change they are interested in, so they do not cost any
+ * database reads while nothing happens. Notifications are handed out by a
+ * single dispatch thread, to keep clients from holding up the thread that
+ * changed the job. Event streams are sent through the EventSender.
+ */
+@Component
+public class JobStateWatcher {
+	private static final Logger logger = LoggerFactory.getLogger(JobStateWatcher.class);
+
+	@Autowired
+	private JobRepository repository;
+
+	@Autowired
+	private EventSender eventSender;
+
+	@Value("${xenonflow.watch.max-timeout:300000}")
+	private long maxTimeout;
+
+	@Value("${xenonflow.watch.events.timeout:3600000}")
+	private long eventsTimeout;
+
+	private final ConcurrentMap<String, Set<Waiter>> waiters = new ConcurrentHashMap<String, Set<Waiter>>();
+	private final Set<EventSender.Client> streams = ConcurrentHashMap.newKeySet();
+	private final ExecutorService dispatcher = Executors.newSingleThreadExecutor(r -> new Thread(r, "xenonflow-watch"));
+
+	private static class Waiter {
+		private final Set<JobState> states;
+		private final DeferredResult<ResponseEntity<Job>> result;
+
+		Waiter(Set<JobState> states, DeferredResult<ResponseEntity<Job>> result) {
+			this.states = states;
+			this.result = result;
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		dispatcher.shutdownNow();
+	}
+
+	/**
+	 * Wait until a job reaches one of the given states.
+	 *
+	 * The result is the job once it is in one of the states, or the job as it
+	 * is when the timeout passes. When the job does not exist or is deleted
+	 * while waiting the result is a 404, also while its files are still being
+	 * removed.
+	 *
+	 * @param jobId
+	 * @param states
+	 * @param timeout in milliseconds, capped at xenonflow.watch.max-timeout
+	 * @return
+	 */
+	public DeferredResult<ResponseEntity<Job>> waitFor(String jobId, Set<JobState> states, long timeout) {
+		DeferredResult<ResponseEntity<Job>> result = new DeferredResult<ResponseEntity<Job>>(Math.max(1, Math.min(timeout, maxTimeout)));
+		Waiter waiter = new Waiter(states, result);
+
+		// Register before looking at the job, so a change in between is not missed
+		waiters.compute(jobId, (id, forJob) -> {
+			if (forJob == null) {
+				forJob = ConcurrentHashMap.newKeySet();
+			}
+			forJob.add(waiter);
+			return forJob;
+		});
+		result.onCompletion(() -> removeWaiter(jobId, waiter));
+		result.onTimeout(() -> result.setResult(currentJob(jobId)));
+
+		Optional<Job> job = findVisibleJob(jobId);
+		if (!job.isPresent()) {
+			result.setResult(new ResponseEntity<Job>(HttpStatus.NOT_FOUND));
+		} else if (states.contains(job.get().getInternalState())) {
+			result.setResult(new ResponseEntity<Job>(job.get(), HttpStatus.OK));
+		}
+		return result;
+	}
+
+	/**
+	 * Open a stream of server sent events, one for every state change of any job.
+	 */
+	public SseEmitter events() {
+		SseEmitter emitter = new SseEmitter(eventsTimeout);
+		streams.add(eventSender.open(emitter, streams::remove));
+		return emitter;
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onJobStateChanged(JobStateChangedEvent event) {
+		if (streams.isEmpty() && !waiters.containsKey(event.getJobId())) {
+			return;
+		}
+		try {
+			dispatcher.execute(() -> dispatch(event));
+		} catch (RejectedExecutionException e) {
+			logger.debug("Not dispatching " + event + ", shutting down");
+		}
+	}
+
+	private void dispatch(JobStateChangedEvent event) {
+		if (!streams.isEmpty()) {
+			sendEvent(event);
+		}
+
+		Set<Waiter> forJob = waiters.get(event.getJobId());
+		if (forJob == null) {
+			return;
+		}
+		List<Waiter> matching = new ArrayList<Waiter>();
+		for (Waiter waiter : forJob) {
+			if (isGone(event) || waiter.states.contains(event.getTo())) {
+				matching.add(waiter);
+			}
+		}
+		if (matching.isEmpty()) {
+			return;
+		}
+
+		// All clients waiting for this change get the same response
+		ResponseEntity<Job> response = isGone(event) ? new ResponseEntity<Job>(HttpStatus.NOT_FOUND)
+				: currentJob(event.getJobId());
+		for (Waiter waiter : matching) {
+			waiter.result.setResult(response);
+		}
+	}
+
+	private void sendEvent(JobStateChangedEvent event) {
+		Map<String, Object> data = new LinkedHashMap<String, Object>();
+		data.put("id", event.getJobId());
+		if (event.isDeletion()) {
+			data.put("deleted", true);
+		} else {
+			data.put("state", event.getTo().toCwlStateString());
+			data.put("internalState", event.getTo());
+		}
+		if (event.getFrom() != null) {
+			data.put("previousInternalState", event.getFrom());
+		}
+
+		for (EventSender.Client stream : streams) {
+			// An event can only be built once, every stream gets its own
+			stream.submit(emitter -> emitter.send(SseEmitter.event().name("state").data(data, MediaType.APPLICATION_JSON)));
+		}
+	}
+
+	/**
+	 * A job that is being deleted is already gone for the clients.
+	 */
+	private boolean isGone(JobStateChangedEvent event) {
+		return event.isDeletion() || event.getTo() == JobState.DELETING;
+	}
+
+	private Optional<Job> findVisibleJob(String jobId) {
+		return repository.findById(jobId).filter(job -> job.getInternalState() != JobState.DELETING);
+	}
+
+	private ResponseEntity<Job> currentJob(String jobId) {
+		Optional<Job> job = findVisibleJob(jobId);
+		if (job.isPresent()) {
+			return new ResponseEntity<Job>(job.get(), HttpStatus.OK);
+		}
+		return new ResponseEntity<Job>(HttpStatus.NOT_FOUND);
+	}
+
+	private void removeWaiter(String jobId, Waiter waiter) {
+		waiters.computeIfPresent(jobId, (id, forJob) -> {
+			forJob.remove(waiter);
+			return forJob.isEmpty() ? null : forJob;
+		});
+	}
+}
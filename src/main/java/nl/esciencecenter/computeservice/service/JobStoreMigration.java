@@ -0,0 +1,64 @@
+package nl.esciencecenter.computeservice.service;
+
+import java.util.Date;
+import java.util.List;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import nl.esciencecenter.computeservice.model.Job;
+import nl.esciencecenter.computeservice.model.JobRepository;
+
+/**
+ * Converts jobs stored by older versions of xenonflow to the current schema.
+ * 
+ * Loading a job moves the values that used to live in the additionalInfo map
+ * into their own columns, this stores them and rewrites the Java-serialized
+ * input and output as JSON.
+ */
+@Component
+public class JobStoreMigration {
+	private static final Logger logger = LoggerFactory.getLogger(JobStoreMigration.class);
+
+	@Autowired
+	private JobRepository repository;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@PostConstruct
+	public void migrate() {
+		List<String> ids = repository.findIdsBySchemaVersionBefore(Job.SCHEMA_VERSION);
+		if (ids.isEmpty()) {
+			return;
+		}
+
+		logger.info("Migrating " + ids.size() + " jobs to the current database schema");
+		TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+		for (String id : ids) {
+			try {
+				transactionTemplate.execute(status -> {
+					Job job = repository.findOneForUpdate(id);
+					if (job != null) {
+						if (job.getCreatedAt() == null) {
+							// Listing jobs relies on every job having a creation time
+							job.setCreatedAt(new Date(0));
+						}
+						job.setSchemaVersion(Job.SCHEMA_VERSION);
+						repository.saveAndFlush(job);
+						repository.rewriteBindings(id, job.getInput(), job.getOutput());
+					}
+					return null;
+				});
+			} catch (RuntimeException e) {
+				logger.error("Could not migrate job " + id, e);
+			}
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package nl.esciencecenter.computeservice.service;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import nl.esciencecenter.computeservice.model.Job;
+import nl.esciencecenter.computeservice.model.JobState;
+import nl.esciencecenter.computeservice.model.StatePreconditionException;
+
+/**
+ * A set of changes to a single job that the JobService applies under one lock
+ * and with a single flush.
+ *
+ * Use JobService.update(jobId) to create one, or JobService.apply(List) to apply
+ * the updates for many jobs in one transaction.
+ */
+public class JobUpdate {
+	private final JobService jobService;
+	private final String jobId;
+
+	private JobState from = null;
+	private JobState to = null;
+	private Exception error = null;
+	private String xenonState = null;
+	private String xenonId = null;
+	private String batchId = null;
+	private Integer exitCode = null;
+	private Date startedAt = null;
+	private final Map<String, Object> additionalInfo = new LinkedHashMap<String, Object>();
+
+	JobUpdate(JobService jobService, String jobId) {
+		this.jobService = jobService;
+		this.jobId = jobId;
+	}
+
+	public String getJobId() {
+		return jobId;
+	}
+
+	public JobUpdate xenonState(String state) {
+		this.xenonState = state;
+		return this;
+	}
+
+	public JobUpdate xenonId(String xenonId) {
+		this.xenonId = xenonId;
+		return this;
+	}
+
+	public JobUpdate batchId(String batchId) {
+		this.batchId = batchId;
+		return this;
+	}
+
+	public JobUpdate exitCode(Integer exitCode) {
+		this.exitCode = exitCode;
+		return this;
+	}
+
+	public JobUpdate startedAt(Date startedAt) {
+		this.startedAt = startedAt;
+		return this;
+	}
+
+	public JobUpdate error(Exception e) {
+		this.error = e;
+		return this;
+	}
+
+	public JobUpdate additionalInfo(String key, Object value) {
+		additionalInfo.put(key, value);
+		return this;
+	}
+
+	public JobUpdate transition(JobState from, JobState to) {
+		this.from = from;
+		this.to = to;
+		return this;
+	}
+
+	public boolean hasTransition() {
+		return to != null;
+	}
+
+	public JobState getFrom() {
+		return from;
+	}
+
+	public JobState getTo() {
+		return to;
+	}
+
+	public Exception getError() {
+		return error;
+	}
+
+	/**
+	 * Apply this update in its own transaction.
+	 *
+	 * @return the updated job
+	 * @throws StatePreconditionException if the job is not in the expected state, nothing is changed in that case.
+	 */
+	public Job apply() throws StatePreconditionException {
+		return jobService.apply(this);
+	}
+
+	void applyTo(Job job) throws StatePreconditionException {
+		if (to != null) {
+			job.changeState(from, to);
+		}
+		if (xenonState != null) {
+			job.setXenonState(xenonState);
+		}
+		if (xenonId != null) {
+			job.setXenonId(xenonId);
+			job.getAdditionalInfo().put("xenon.id", xenonId);
+		}
+		if (batchId != null) {
+			job.setBatchId(batchId);
+		}
+		if (exitCode != null) {
+			job.setXenonExitcode(exitCode);
+		}
+		if (startedAt != null) {
+			job.setStartedAt(startedAt);
+		}
+		job.getAdditionalInfo().putAll(additionalInfo);
+		if (error != null) {
+			job.getAdditionalInfo().put("error", Job.describeError(error));
+		}
+	}
+}
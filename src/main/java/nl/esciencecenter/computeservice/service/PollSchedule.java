@@ -0,0 +1,147 @@
+package nl.esciencecenter.computeservice.service;
+
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import nl.esciencecenter.computeservice.config.ComputeResource;
+import nl.esciencecenter.computeservice.model.JobState;
+import nl.esciencecenter.computeservice.model.PollStatistics;
+
+/**
+ * Decides when the XenonMonitor asks the scheduler for the state of a job
+ * again.
+ *
+ * A job that just got into a state is polled on every update. Every poll
+ * that finds nothing new doubles the time until the next one, up to
+ * xenonflow.poll.max-interval. A running job is polled more often again as it
+ * gets close to the maxTime of its compute resource, since it has to end by
+ * then, counted from the time it started. Jobs in a batch are polled as one,
+ * under the id of the batch.
+ */
+@Component
+public class PollSchedule {
+	@Autowired
+	private XenonService xenonService;
+
+	@Value("${xenonflow.update.rate}")
+	private long minInterval;
+
+	@Value("${xenonflow.poll.max-interval:60000}")
+	private long maxInterval;
+
+	private static class Entry {
+		private final JobState state;
+		private final long since;
+		private long interval;
+		private long lastPoll = 0;
+		private long nextPoll;
+
+		private Entry(JobState state, Date startedAt, long now, long interval) {
+			this.state = state;
+			this.since = startedAt != null ? startedAt.getTime() : now;
+			this.interval = interval;
+			this.nextPoll = now;
+		}
+	}
+
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+	private final AtomicLong polls = new AtomicLong();
+	private final AtomicLong pollTime = new AtomicLong();
+	private final AtomicLong jobsPolled = new AtomicLong();
+	private final AtomicLong jobsSkipped = new AtomicLong();
+	private final AtomicLong changes = new AtomicLong();
+	private final AtomicLong latencySamples = new AtomicLong();
+	private final AtomicLong latencyTotal = new AtomicLong();
+	private final LongAccumulator latencyMax = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * @param key the id of the job, or of its batch
+	 * @param startedAt when the job started running, null if it did not or
+	 *        it is not known
+	 * @return true if the job should be polled now.
+	 */
+	public boolean isDue(String key, JobState state, Date startedAt, long now) {
+		Entry entry = entries.compute(key, (k, e) -> e == null || e.state != state ? new Entry(state, startedAt, now, minInterval) : e);
+		synchronized (entry) {
+			// Updates do not run exactly on time, half an update early is close enough
+			if (now >= entry.nextPoll - minInterval / 2) {
+				return true;
+			}
+		}
+		jobsSkipped.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Record the outcome of polling a job.
+	 *
+	 * @param changed true if the poll found a change in the state of the job
+	 */
+	public void polled(String key, String computeResource, boolean changed, long now) {
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			return;
+		}
+		jobsPolled.incrementAndGet();
+		synchronized (entry) {
+			if (changed) {
+				changes.incrementAndGet();
+				if (entry.lastPoll > 0) {
+					// The change happened somewhere since the previous poll
+					long latency = now - entry.lastPoll;
+					latencySamples.incrementAndGet();
+					latencyTotal.addAndGet(latency);
+					latencyMax.accumulate(latency);
+				}
+				entry.interval = minInterval;
+			} else {
+				entry.interval = Math.min(entry.interval * 2, maxInterval(entry, computeResource, now));
+			}
+			entry.lastPoll = now;
+			entry.nextPoll = now + entry.interval;
+		}
+	}
+
+	/**
+	 * Record a round trip to a scheduler.
+	 */
+	public void recordPoll(long time) {
+		polls.incrementAndGet();
+		pollTime.addAndGet(time);
+	}
+
+	public void forget(String key) {
+		entries.remove(key);
+	}
+
+	public PollStatistics getStatistics() {
+		long samples = latencySamples.get();
+		return new PollStatistics(polls.get(), pollTime.get(), jobsPolled.get(), jobsSkipped.get(), changes.get(),
+				samples > 0 ? latencyTotal.get() / samples : 0, latencyMax.get());
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onJobStateChanged(JobStateChangedEvent event) {
+		// The job starts over in its new state
+		entries.remove(event.getJobId());
+	}
+
+	private long maxInterval(Entry entry, String computeResource, long now) {
+		long max = maxInterval;
+		ComputeResource resource = xenonService.getConfig().computeResource(computeResource);
+		if (entry.state == JobState.RUNNING && resource != null && resource.getMaxTime() > 0) {
+			long remaining = entry.since + resource.getMaxTime() * 60000L - now;
+			max = Math.min(max, remaining / 4);
+		}
+		return Math.max(minInterval, max);
+	}
+}
@@ -0,0 +1,103 @@
+package nl.esciencecenter.computeservice.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.esciencecenter.computeservice.config.AdaptorConfig;
+import nl.esciencecenter.computeservice.config.ComputeResource;
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.schedulers.Scheduler;
+
+/**
+ * A scheduler and filesystem of a compute resource, opened together. When the
+ * compute resource has no filesystem of its own the filesystem of the
+ * scheduler is used.
+ *
+ * Connections are handed out by a RemoteConnectionPool and have to be given
+ * back to it when they are no longer used.
+ */
+public class RemoteConnection {
+	private static final Logger logger = LoggerFactory.getLogger(RemoteConnection.class);
+
+	private final String computeResource;
+	private final Scheduler scheduler;
+	private final FileSystem fileSystem;
+	private final boolean ownsFileSystem;
+
+	// Guarded by the pool
+	int leases = 0;
+	long lastReleased = System.currentTimeMillis();
+
+	private RemoteConnection(String computeResource, Scheduler scheduler, FileSystem fileSystem, boolean ownsFileSystem) {
+		this.computeResource = computeResource;
+		this.scheduler = scheduler;
+		this.fileSystem = fileSystem;
+		this.ownsFileSystem = ownsFileSystem;
+	}
+
+	static RemoteConnection open(String computeResource, ComputeResource resource) throws XenonException {
+		AdaptorConfig schedulerConfig = resource.getSchedulerConfig();
+		AdaptorConfig fileSystemConfig = resource.getFilesystemConfig();
+
+		logger.info("Creating a scheduler to run jobs on " + computeResource + "...");
+		Scheduler scheduler = Scheduler.create(schedulerConfig.getAdaptor(), schedulerConfig.getLocation(),
+				schedulerConfig.getCredential(), schedulerConfig.getProperties());
+		FileSystem fileSystem;
+		boolean ownsFileSystem = false;
+		try {
+			if (fileSystemConfig == null && Scheduler.getAdaptorDescription(scheduler.getAdaptorName()).usesFileSystem()) {
+				logger.info("Using scheduler filesystem of " + computeResource + " as a remote filesystem...");
+				fileSystem = scheduler.getFileSystem();
+			} else {
+				logger.info("Creating remote filesystem for " + computeResource + "...");
+				fileSystem = FileSystem.create(fileSystemConfig.getAdaptor(), fileSystemConfig.getLocation(),
+						fileSystemConfig.getCredential(), fileSystemConfig.getProperties());
+				ownsFileSystem = true;
+				logger.info("Remote working directory: " + fileSystem.getWorkingDirectory());
+			}
+		} catch (XenonException | RuntimeException e) {
+			scheduler.close();
+			throw e;
+		}
+		return new RemoteConnection(computeResource, scheduler, fileSystem, ownsFileSystem);
+	}
+
+	public String getComputeResource() {
+		return computeResource;
+	}
+
+	public Scheduler getScheduler() {
+		return scheduler;
+	}
+
+	public FileSystem getFileSystem() {
+		return fileSystem;
+	}
+
+	boolean isOpen() {
+		try {
+			return scheduler.isOpen() && fileSystem.isOpen();
+		} catch (XenonException e) {
+			return false;
+		}
+	}
+
+	void close() {
+		try {
+			// The filesystem of a scheduler is closed with the scheduler
+			if (ownsFileSystem && fileSystem.isOpen()) {
+				fileSystem.close();
+			}
+		} catch (XenonException e) {
+			logger.warn("Error while closing the filesystem of " + computeResource, e);
+		}
+		try {
+			if (scheduler.isOpen()) {
+				scheduler.close();
+			}
+		} catch (XenonException e) {
+			logger.warn("Error while closing the scheduler of " + computeResource, e);
+		}
+	}
+}
@@ -0,0 +1,242 @@
+package nl.esciencecenter.computeservice.service;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.esciencecenter.computeservice.config.ComputeResource;
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.schedulers.Scheduler;
+
+/**
+ * A bounded set of connections to a single compute resource.
+ *
+ * Xenon schedulers and filesystems can be used from several threads at once,
+ * so borrowing a connection does not take it away from other users. It does
+ * make sure that busy connections are shared by as few users as possible: a
+ * new connection is only opened when every open one is in use, up to the size
+ * of the pool. Connections are checked before they are handed out, closed
+ * ones are replaced.
+ *
+ * When opening a connection fails the pool does not try again for a while,
+ * so that a cluster that is down does not get a connection attempt from
+ * every thread that needs it.
+ */
+public class RemoteConnectionPool {
+	private static final Logger logger = LoggerFactory.getLogger(RemoteConnectionPool.class);
+
+	private static final long RETRY_DELAY = 5000;
+
+	private final String name;
+	private final ComputeResource resource;
+	private final int maxSize;
+
+	private final List<RemoteConnection> connections = new ArrayList<RemoteConnection>();
+	// Holds a lease for as long as it is the shared connection
+	private RemoteConnection pinned = null;
+	private int opening = 0;
+	private boolean closed = false;
+	private XenonException lastFailure = null;
+	private long lastFailureTime = 0;
+
+	public RemoteConnectionPool(String name, ComputeResource resource) throws XenonException {
+		this.name = name;
+		this.resource = resource;
+
+		int size = Math.max(1, resource.getConnections());
+		if (size > 1 && Scheduler.getAdaptorDescription(resource.getSchedulerConfig().getAdaptor()).isEmbedded()) {
+			// Jobs of an embedded scheduler are only known to the scheduler that started them
+			logger.warn("The " + resource.getSchedulerConfig().getAdaptor() + " scheduler of " + name
+					+ " keeps track of its own jobs, using a single connection");
+			size = 1;
+		}
+		this.maxSize = size;
+	}
+
+	/**
+	 * Borrow a connection, opening a new one if all connections are in use
+	 * and the pool is not full. Has to be given back with release().
+	 */
+	public RemoteConnection borrow() throws XenonException {
+		synchronized (this) {
+			while (true) {
+				if (closed) {
+					throw new XenonException("xenonflow", "The connections to " + name + " are closed");
+				}
+				RemoteConnection least = leastUsed();
+				boolean full = connections.size() + opening >= maxSize;
+				if (least != null && (least.leases == 0 || full)) {
+					least.leases++;
+					return least;
+				}
+				if (!full) {
+					if (lastFailure != null && System.currentTimeMillis() - lastFailureTime < RETRY_DELAY) {
+						// A new exception for every caller, they may be thrown from several threads at once
+						throw new XenonException("xenonflow", "Could not connect to " + name + ": " + lastFailure.getMessage(), lastFailure);
+					}
+					opening++;
+					break;
+				}
+				// Every connection is still being opened
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new XenonException("xenonflow", "Interrupted while waiting for a connection to " + name, e);
+				}
+			}
+		}
+
+		RemoteConnection connection = null;
+		try {
+			connection = RemoteConnection.open(name, resource);
+			return connection;
+		} catch (XenonException e) {
+			synchronized (this) {
+				lastFailure = e;
+				lastFailureTime = System.currentTimeMillis();
+			}
+			throw e;
+		} finally {
+			synchronized (this) {
+				opening--;
+				if (connection != null && closed) {
+					// Shut down while it was being opened
+					connection.close();
+				} else if (connection != null) {
+					connection.leases++;
+					connections.add(connection);
+					lastFailure = null;
+					logger.debug("Opened connection " + connections.size() + " of " + maxSize + " to " + name);
+				}
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Give back a borrowed connection.
+	 */
+	public synchronized void release(RemoteConnection connection) {
+		connection.leases--;
+		connection.lastReleased = System.currentTimeMillis();
+		if (connection.leases <= 0 && !connections.contains(connection)) {
+			// It was dropped from the pool while it was in use
+			connection.close();
+		}
+	}
+
+	/**
+	 * Drop a connection that turned out to be broken. It is closed as soon
+	 * as everyone who borrowed it has given it back.
+	 */
+	public synchronized void invalidate(RemoteConnection connection) {
+		if (connections.remove(connection)) {
+			logger.info("Dropping broken connection to " + name);
+			if (connection.leases <= 0) {
+				connection.close();
+			}
+		}
+	}
+
+	/**
+	 * The connection to use for things that are not worth borrowing a
+	 * connection for.
+	 *
+	 * It is borrowed once and kept borrowed, so it is never closed for being
+	 * idle. Only when it is dropped from the pool for being broken or closed
+	 * is another connection borrowed in its place, and the old one given back.
+	 */
+	public RemoteConnection shared() throws XenonException {
+		synchronized (this) {
+			removeClosed();
+			if (pinned != null && connections.contains(pinned)) {
+				return pinned;
+			}
+		}
+		RemoteConnection connection = borrow();
+		synchronized (this) {
+			if (pinned != null && connections.contains(pinned)) {
+				// Another thread got there first
+				release(connection);
+				return pinned;
+			}
+			RemoteConnection old = pinned;
+			pinned = connection;
+			if (old != null) {
+				release(old);
+			}
+			return connection;
+		}
+	}
+
+	/**
+	 * Close the connections that nobody used for idleTimeout milliseconds.
+	 * The oldest connection is kept open, and so is the shared one as it is
+	 * always in use.
+	 *
+	 * @return the number of connections that were closed.
+	 */
+	public synchronized int evictIdle(long idleTimeout) {
+		long now = System.currentTimeMillis();
+		int evicted = 0;
+		for (int i = connections.size() - 1; i > 0; i--) {
+			RemoteConnection connection = connections.get(i);
+			if (connection.leases <= 0 && now - connection.lastReleased > idleTimeout) {
+				connections.remove(i);
+				connection.close();
+				evicted++;
+			}
+		}
+		if (evicted > 0) {
+			logger.debug("Closed " + evicted + " idle connections to " + name);
+		}
+		return evicted;
+	}
+
+	public synchronized int size() {
+		return connections.size();
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public synchronized void close() {
+		closed = true;
+		for (RemoteConnection connection : connections) {
+			connection.close();
+		}
+		connections.clear();
+		pinned = null;
+		notifyAll();
+	}
+
+	private RemoteConnection leastUsed() {
+		removeClosed();
+		RemoteConnection least = null;
+		for (RemoteConnection connection : connections) {
+			if (least == null || connection.leases < least.leases) {
+				least = connection;
+			}
+		}
+		return least;
+	}
+
+	private void removeClosed() {
+		Iterator<RemoteConnection> it = connections.iterator();
+		while (it.hasNext()) {
+			RemoteConnection connection = it.next();
+			if (!connection.isOpen()) {
+				logger.info("Connection to " + name + " was closed, it is opened again when needed");
+				it.remove();
+				if (connection.leases <= 0) {
+					connection.close();
+				}
+			}
+		}
+	}
+}
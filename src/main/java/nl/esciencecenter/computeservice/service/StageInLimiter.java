@@ -0,0 +1,93 @@
+package nl.esciencecenter.computeservice.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import nl.esciencecenter.computeservice.model.JobState;
+
+/**
+ * Limits the number of jobs that stage in to a compute resource at the same
+ * time, as configured in the staging section of the xenonflow config.
+ *
+ * A job holds a permit from the moment it starts staging in until it leaves
+ * the STAGING_IN state. Jobs that do not get a permit stay SUBMITTED and are
+ * picked up again by a later update of the XenonMonitor.
+ */
+@Component
+public class StageInLimiter {
+	private static final Logger logger = LoggerFactory.getLogger(StageInLimiter.class);
+
+	@Autowired
+	private XenonService xenonService;
+
+	private final Map<String, AtomicInteger> inUse = new ConcurrentHashMap<String, AtomicInteger>();
+	private final Map<String, String> holders = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * Take a permit for the job if the compute resource is below its limit.
+	 *
+	 * @return true if the job can start staging in.
+	 */
+	public boolean tryAcquire(String jobId, String computeResource) {
+		String resource = resolve(computeResource);
+		int limit = xenonService.getConfig().getStagingConfig().getMaxConcurrentStageIn(resource);
+		AtomicInteger count = inUse.computeIfAbsent(resource, r -> new AtomicInteger());
+		while (true) {
+			int current = count.get();
+			if (current >= limit) {
+				logger.debug("Stage in limit of " + limit + " reached for " + resource + ", " + jobId + " has to wait");
+				return false;
+			}
+			if (count.compareAndSet(current, current + 1)) {
+				break;
+			}
+		}
+		if (holders.putIfAbsent(jobId, resource) != null) {
+			// The job already holds a permit
+			count.decrementAndGet();
+		}
+		return true;
+	}
+
+	/**
+	 * Take a permit for a job that is already staging in, even if that goes
+	 * over the limit. Used when resuming jobs at startup.
+	 */
+	public void acquire(String jobId, String computeResource) {
+		String resource = resolve(computeResource);
+		if (holders.putIfAbsent(jobId, resource) == null) {
+			inUse.computeIfAbsent(resource, r -> new AtomicInteger()).incrementAndGet();
+		}
+	}
+
+	/**
+	 * Give back the permit of a job, if it holds one.
+	 */
+	public void release(String jobId) {
+		String resource = holders.remove(jobId);
+		if (resource != null) {
+			inUse.get(resource).decrementAndGet();
+		}
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onJobStateChanged(JobStateChangedEvent event) {
+		if (event.isDeletion() || event.getFrom() == JobState.STAGING_IN) {
+			release(event.getJobId());
+		}
+	}
+
+	private String resolve(String computeResource) {
+		if (computeResource == null) {
+			return xenonService.getConfig().getDefaultComputeResourceName();
+		}
+		return computeResource;
+	}
+}
@@ -1,7 +1,15 @@
 package nl.esciencecenter.computeservice.service;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import javax.annotation.PostConstruct;
 
@@ -14,16 +22,9 @@ import org.springframework.stereotype.Component;
 import nl.esciencecenter.computeservice.model.Job;
 import nl.esciencecenter.computeservice.model.JobRepository;
 import nl.esciencecenter.computeservice.model.JobState;
-import nl.esciencecenter.computeservice.model.StatePreconditionException;
-import nl.esciencecenter.computeservice.service.staging.XenonStager;
-import nl.esciencecenter.computeservice.service.tasks.CwlStageInTask;
-import nl.esciencecenter.computeservice.service.tasks.CwlStageOutTask;
-import nl.esciencecenter.computeservice.service.tasks.CwlWorkflowTask;
-import nl.esciencecenter.computeservice.service.tasks.DeleteJobTask;
+import nl.esciencecenter.computeservice.model.JobSummary;
 import nl.esciencecenter.xenon.XenonException;
-import nl.esciencecenter.xenon.adaptors.schedulers.JobCanceledException;
 import nl.esciencecenter.xenon.schedulers.JobStatus;
-import nl.esciencecenter.xenon.schedulers.NoSuchJobException;
 import nl.esciencecenter.xenon.schedulers.Scheduler;
 
 @Component
@@ -40,134 +41,155 @@ public class XenonMonitor {
 	private JobService jobService;
 	
 	@Autowired
-	private XenonStager sourceToRemoteStager;
-	
-	@Autowired
-	private XenonStager remoteToTargetStager;
-	
+	private JobPipeline pipeline;
+
 	@Autowired
-	private DeleteJobTask deleteJobTask;
+	private PollSchedule pollSchedule;
 
 	@PostConstruct
 	public void initialize() {
+		// Restart stage in for jobs that were staging in
 		List<Job> submitted = repository.findAllByInternalState(JobState.STAGING_IN);
 		for (Job job : submitted) {
 			Logger jobLogger = LoggerFactory.getLogger("jobs." + job.getId());
-			// We re-request the job here because it may have changed while we were looping.
-			job = repository.findById(job.getId()).get();
 			jobLogger.info("Starting new job runner for job: " + job);
-			try {
-				// this used to be run in a seperate thread
-				// so keeping the runnable part if we ever go back to that
-				CwlStageInTask stageIn = new CwlStageInTask(job.getId(), sourceToRemoteStager, xenonService);
-				stageIn.run();
-			} catch (XenonException e) {
-				jobLogger.error("Error during execution of " + job.getName() + "(" + job.getId() + ")", e);
-				logger.error("Error during execution of " + job.getName() + "(" + job.getId() + ")", e);
-			}
+			pipeline.resumeStageIn(job.getId(), job.getComputeResource());
 		}
 	
 		// Restart stage out for jobs that were staging out
 		List<Job> staging_out = repository.findAllByInternalState(JobState.STAGING_OUT);
 		for (Job job : staging_out) {
-			Logger jobLogger = LoggerFactory.getLogger("jobs." + job.getId());
-			// We re-request the job here because it may have changed while we were looping.
-			job = repository.findById(job.getId()).get();
-			try {
-				// this used to be run in a seperate thread
-				// so keeping the runnable part if we ever go back to that
-				CwlStageOutTask stageOut = new CwlStageOutTask(job.getId(), (int) job.getAdditionalInfo().get("xenon.exitcode"), remoteToTargetStager, xenonService);
-				stageOut.run();
-			} catch (XenonException e) {
-				jobLogger.error("Error during execution of " + job.getName() + "(" + job.getId() + ")", e);
-				logger.error("Error during execution of " + job.getName() + "(" + job.getId() + ")", e);
-			}
+			pipeline.resumeStageOut(job.getId(), job.getXenonExitcode());
 		}
 	}
 
 	@Scheduled(fixedRateString = "${xenonflow.update.rate}", initialDelay=5000)
 	public void update() {
-		Scheduler scheduler;
+		// Jobs are normally handed to the pipeline when their state changes,
+		// this picks up the ones that did not fit in a full queue or were left
+		// behind by a restart.
+		for (JobState state : JobPipeline.queuedStates) {
+			for (JobSummary job : repository.findSummariesByInternalState(state)) {
+				pipeline.enqueue(job.getId(), job.getComputeResource(), state);
+			}
+		}
+		
+		// Every compute resource is polled on its own, a slow cluster does not hold up the others
+		for (String computeResource : xenonService.getConfig().keySet()) {
+			pipeline.submit(JobPipeline.Phase.POLL, "poll-" + computeResource, () -> pollJobs(computeResource));
+		}
+	}
+
+	private void pollJobs(String computeResource) {
+		RemoteConnection connection;
 		try {
-			scheduler = xenonService.getScheduler();
+			connection = xenonService.borrowConnection(computeResource);
 		} catch (XenonException e) {
-			logger.error("Error getting the xenon scheduler", e);
+			logger.error("Error getting the xenon scheduler for " + computeResource, e);
 			return;
 		}
-		
-		// The order here is important
-		// update staging so staging is cancelled if
-		// there is a cancel or deleter request.
-		sourceToRemoteStager.updateStaging();
-		remoteToTargetStager.updateStaging();
-		
-		// Cancel things that should no longer be running
-		cancelWaitingJobs(scheduler);
 
-		cancelRunningJobs(scheduler);
-		
-		deleteJobs();
-		
-		// Start calculating as soon as we can
-		// otherwise we will be staging all tasks in first
-		startReadyJobs();
-		
-		// Prioritize getting results
-		startStageOutForFinishedJobs();
-		
-		// Finally we can start staging for new tasks
-		startStageInForSubmittedJobs();
-		
-		// Update the rest
-		updateWaitingJobs(scheduler);
+		// Collect the changes for all jobs and store them in one go
+		List<JobUpdate> updates = new ArrayList<JobUpdate>();
+		List<String> lost = new ArrayList<String>();
+
+		try {
+			Scheduler scheduler = connection.getScheduler();
+			List<JobSummary> waiting = findSummaries(JobState.WAITING, computeResource);
+			List<JobSummary> running = findSummaries(JobState.RUNNING, computeResource);
 
-		updateRunningJobs(scheduler);
+			// Jobs in a batch share a scheduler job and are followed through their batch directory
+			List<JobSummary> batched = new ArrayList<JobSummary>();
+			for (List<JobSummary> jobs : Arrays.asList(waiting, running)) {
+				batched.addAll(jobs.stream().filter(j -> j.getBatchId() != null).collect(Collectors.toList()));
+				jobs.removeIf(j -> j.getBatchId() != null);
+			}
+
+			// Only ask for the jobs that are due
+			long now = System.currentTimeMillis();
+			waiting.removeIf(j -> !pollSchedule.isDue(j.getId(), JobState.WAITING, null, now));
+			running.removeIf(j -> !pollSchedule.isDue(j.getId(), JobState.RUNNING, j.getStartedAt(), now));
+			Set<String> dueBatches = new HashSet<String>();
+			for (Map.Entry<String, List<JobSummary>> batch : groupByBatch(batched).entrySet()) {
+				JobState state = batch.getValue().stream().anyMatch(j -> j.getInternalState() == JobState.WAITING) ? JobState.WAITING : JobState.RUNNING;
+				// The job that started last is the one that runs now
+				Date startedAt = batch.getValue().stream().map(JobSummary::getStartedAt).filter(Objects::nonNull).max(Date::compareTo).orElse(null);
+				if (pollSchedule.isDue(batch.getKey(), state, startedAt, now)) {
+					dueBatches.add(batch.getKey());
+				}
+			}
+			batched.removeIf(j -> !dueBatches.contains(j.getBatchId()));
+
+			if (!waiting.isEmpty()) {
+				long start = System.currentTimeMillis();
+				updateWaitingJobs(scheduler, waiting, updates, lost);
+				pollSchedule.recordPoll(System.currentTimeMillis() - start);
+			}
+
+			if (!running.isEmpty()) {
+				long start = System.currentTimeMillis();
+				updateRunningJobs(scheduler, running, updates, lost);
+				pollSchedule.recordPoll(System.currentTimeMillis() - start);
+			}
+
+			if (!batched.isEmpty()) {
+				long start = System.currentTimeMillis();
+				updateBatchedJobs(connection, batched, updates, lost);
+				pollSchedule.recordPoll(System.currentTimeMillis() - start);
+			}
+
+			Set<String> changed = updates.stream().map(JobUpdate::getJobId).collect(Collectors.toSet());
+			long polled = System.currentTimeMillis();
+			for (List<JobSummary> jobs : Arrays.asList(waiting, running)) {
+				for (JobSummary job : jobs) {
+					pollSchedule.polled(job.getId(), computeResource, changed.contains(job.getId()), polled);
+				}
+			}
+			for (String batchId : dueBatches) {
+				boolean batchChanged = batched.stream().anyMatch(j -> j.getBatchId().equals(batchId) && changed.contains(j.getId()));
+				pollSchedule.polled(batchId, computeResource, batchChanged, polled);
+			}
+		} finally {
+			xenonService.releaseConnection(connection);
+		}
+
+		jobService.apply(updates);
+
+		for (String jobId : lost) {
+			tryRecoverJobOutput(jobId);
+		}
+	}
+
+	private List<JobSummary> findSummaries(JobState state, String computeResource) {
+		List<JobSummary> jobs = new ArrayList<JobSummary>(repository.findSummariesByInternalStateAndComputeResource(state, computeResource));
+		if (computeResource.equals(xenonService.getConfig().getDefaultComputeResourceName())) {
+			// Jobs from before compute resources were recorded run on the default one
+			jobs.addAll(repository.findSummariesByInternalStateAndComputeResourceIsNull(state));
+		}
+		return jobs;
 	}
 
-	private void updateRunningJobs(Scheduler scheduler) {
-		List<Job> jobs = repository.findAllByInternalState(JobState.RUNNING);
+	private void updateRunningJobs(Scheduler scheduler, List<JobSummary> jobs, List<JobUpdate> updates, List<String> lost) {
 		String[] jobIds = jobs.stream().map(j -> j.getXenonId()).toArray(String[]::new);
 		try {
 			JobStatus[] jobStatuses = scheduler.getJobStatuses(jobIds);
 			for (int i=0; i<jobs.size(); i++) {
-				Job job = jobs.get(i);
+				JobSummary job = jobs.get(i);
 				JobStatus status = jobStatuses[i];
 				Logger jobLogger = LoggerFactory.getLogger("jobs." + job.getId());
 				
 				if (status.hasException()) {
-					if (status.getState().equals("INTERNAL_ERROR")) {
-                        // We seem to have lost the connection to the scheduler -- we may retry later
-                        jobLogger.error("Exception while retrieving status of job (scheduler connection lost?)", status.getException());
-                        logger.error("Exception while retrieving status of job " + job.getName() + "(" + job.getId() + ") -- scheduler connection lost?",
-                                status.getException());
-                    } else if (status.getState().equals("UNKNOWN")) {
-                        // We seem to have lost the job completely? -- try to recover the output
-                        jobLogger.error("Could not find job ", status.getException());
-                        logger.error("Could not find job " + job.getName() + "(" + job.getId() + ")", status.getException());
-                        jobService.setErrorAndState(job.getId(), status.getException(), job.getInternalState(), JobState.SYSTEM_ERROR);
-						tryRecoverJobOutput(job);
-					} else {
-						// The job was cancelled or failed due to a timeout, node failure, preemption, etc. -- try to recover the output
-                        jobLogger.error("Job failed or cancelled ", status.getException());
-                        logger.error("Job failed or cancelled " + job.getName() + "(" + job.getId() + ")", status.getException());
-                        jobService.setErrorAndState(job.getId(), status.getException(), job.getInternalState(), JobState.SYSTEM_ERROR);
-						tryRecoverJobOutput(job);
-					}
+					handleStatusException(job, status, updates, lost);
 				} else if (status.isDone()) {
-					jobService.setXenonState(job.getId(), status.getState());
-					jobService.setXenonExitcode(job.getId(), status.getExitCode());
-					try {
-						if (status.getExitCode() != 0) {
-							jobLogger.error("Job has finished with errors.");
-							jobService.setJobState(job.getId(), JobState.RUNNING, JobState.FINISHED);
-						} else {
-							jobLogger.info("Jobs done.");
-							jobService.setJobState(job.getId(), JobState.RUNNING, JobState.FINISHED);
-						}
-					} catch (StatePreconditionException e) {
-						jobLogger.error("Error during execution of " + job.getName() + "(" + job.getId() + ")", e);
-						logger.error("Error during execution of " + job.getName() + "(" + job.getId() + ")", e);
+					if (status.getExitCode() != 0) {
+						jobLogger.error("Job has finished with errors.");
+					} else {
+						jobLogger.info("Jobs done.");
 					}
+					updates.add(jobService.update(job.getId())
+							.xenonState(status.getState())
+							.exitCode(status.getExitCode())
+							.transition(JobState.RUNNING, JobState.FINISHED));
 				}
 			}
 		} catch (XenonException e) {
@@ -175,60 +197,38 @@ public class XenonMonitor {
 		}
 	}
 
-	private void updateWaitingJobs(Scheduler scheduler) {
-		List<Job> waiting = repository.findAllByInternalState(JobState.WAITING);
+	private void updateWaitingJobs(Scheduler scheduler, List<JobSummary> waiting, List<JobUpdate> updates, List<String> lost) {
 		String[] jobIds = waiting.stream().map(j -> j.getXenonId()).toArray(String[]::new);
 
 		try {
 			JobStatus[] jobStatuses = scheduler.getJobStatuses(jobIds);
 			for (int i=0; i<waiting.size(); i++) {
-				Job job = waiting.get(i);
+				JobSummary job = waiting.get(i);
 				JobStatus status = jobStatuses[i];
 				Logger jobLogger = LoggerFactory.getLogger("jobs." + job.getId());
 
-				// We re-request the job here because it may have changed while we were looping.
-				job = repository.findById(job.getId()).get();
 				String xenonJobId = job.getXenonId();
 				
 				if (status.hasException()) {
-					if (status.getState().equals("INTERNAL_ERROR")) {
-                        // We seem to have lost the connection to the scheduler -- we may retry later
-                        jobLogger.error("Exception while retrieving status of job (scheduler connection lost?)", status.getException());
-                        logger.error("Exception while retrieving status of job " + job.getName() + "(" + job.getId() + ") -- scheduler connection lost?",
-                                status.getException());
-                    } else if (status.getState().equals("UNKNOWN")) {
-                        // We seem to have lost the job completely? -- try to recover the output
-                        jobLogger.error("Could not find job ", status.getException());
-                        logger.error("Could not find job " + job.getName() + "(" + job.getId() + ")", status.getException());
-                        jobService.setErrorAndState(job.getId(), status.getException(), job.getInternalState(), JobState.SYSTEM_ERROR);
-						tryRecoverJobOutput(job);
-					} else {
-						// The job was cancelled or failed due to a timeout, node failure, preemption, etc. -- try to recover the output
-                        jobLogger.error("Job failed or cancelled ", status.getException());
-                        logger.error("Job failed or cancelled " + job.getName() + "(" + job.getId() + ")", status.getException());
-                        jobService.setErrorAndState(job.getId(), status.getException(), job.getInternalState(), JobState.SYSTEM_ERROR);
-						tryRecoverJobOutput(job);
-					}
+					handleStatusException(job, status, updates, lost);
 				} else if (xenonJobId != null && !xenonJobId.isEmpty()) {
-					try {
-						if (status.isRunning() && !status.hasException()) {
-							jobService.setAdditionalInfo(job.getId(), "startedAt", new Date());
-							jobService.setJobState(job.getId(), JobState.WAITING, JobState.RUNNING);
-						} else if (status.isDone() && status.getExitCode() != 0) {
-							jobLogger.error("Execution failed with code: " + status.getExitCode());
-							jobService.setXenonExitcode(job.getId(), status.getExitCode());
-							jobService.setErrorAndState(job.getId(), status.getException(), JobState.WAITING, JobState.FINISHED);
-						} else if (status.isDone() && status.getExitCode() == 0) {
-							jobLogger.info("Jobs done.");
-							jobService.setXenonExitcode(job.getId(), status.getExitCode());
-							jobService.setJobState(job.getId(), JobState.WAITING, JobState.FINISHED);
-						}
-						// If neither of the statements above holds then the job is probably pending.
-						jobService.setXenonState(job.getId(), status.getState());
-					} catch (StatePreconditionException e) {
-						jobLogger.error("Error during execution of " + job.getName() + "(" + job.getId() + ")", e);
-						logger.error("Error during execution of " + job.getName() + "(" + job.getId() + ")", e);
+					JobUpdate update = jobService.update(job.getId()).xenonState(status.getState());
+					if (status.isRunning()) {
+						update.startedAt(new Date())
+							.transition(JobState.WAITING, JobState.RUNNING);
+					} else if (status.isDone() && status.getExitCode() != 0) {
+						jobLogger.error("Execution failed with code: " + status.getExitCode());
+						update.exitCode(status.getExitCode())
+							.transition(JobState.WAITING, JobState.FINISHED);
+					} else if (status.isDone() && status.getExitCode() == 0) {
+						jobLogger.info("Jobs done.");
+						update.exitCode(status.getExitCode())
+							.transition(JobState.WAITING, JobState.FINISHED);
+					} else if (status.getState().equals(job.getXenonState())) {
+						// The job is still pending and nothing changed
+						continue;
 					}
+					updates.add(update);
 				}
 			}
 		} catch (XenonException e) {
@@ -236,156 +236,94 @@ public class XenonMonitor {
 		}
 	}
 
-	private void cancelRunningJobs(Scheduler scheduler) {
-		List<Job> cancelRunning = repository.findAllByInternalState(JobState.RUNNING_CR);
-		for (Job job : cancelRunning) {
-			Logger jobLogger = LoggerFactory.getLogger("jobs." + job.getId());
-			// We re-request the job here because it may have changed while we were looping.
-			job = repository.findById(job.getId()).get();
-			try {
-				String xenonJobId = job.getXenonId();
-				if (xenonJobId != null && !xenonJobId.isEmpty()) {
-					JobStatus status = scheduler.getJobStatus(xenonJobId);
+	private void updateBatchedJobs(RemoteConnection connection, List<JobSummary> jobs, List<JobUpdate> updates, List<String> lost) {
+		Map<String, List<JobSummary>> batches = groupByBatch(jobs);
+		String[] jobIds = batches.values().stream().map(b -> b.get(0).getXenonId()).toArray(String[]::new);
 
-					if (status.isRunning()) {
-						status = scheduler.cancelJob(job.getXenonId());
-						jobService.setXenonState(job.getId(), status.getState());
-					} else {
-						if (status.hasException() && !(status.getException() instanceof JobCanceledException)) {
-							jobService.setXenonExitcode(job.getId(), status.getExitCode());
-							jobService.setErrorAndState(job.getId(), status.getException(), JobState.RUNNING_CR, JobState.PERMANENT_FAILURE);
+		try {
+			JobStatus[] jobStatuses = connection.getScheduler().getJobStatuses(jobIds);
+			int i = 0;
+			for (Map.Entry<String, List<JobSummary>> entry : batches.entrySet()) {
+				JobStatus status = jobStatuses[i++];
+				List<JobSummary> members = entry.getValue();
+				if (status.hasException() && status.getState().equals("INTERNAL_ERROR")) {
+					// Lost the connection to the scheduler, retried on the next update
+					handleStatusException(members.get(0), status, updates, lost);
+					continue;
+				}
+				boolean batchDone = status.isDone() || status.hasException();
+
+				JobBatch batch = new JobBatch(connection.getFileSystem(), entry.getKey());
+				JobBatch.Progress progress = batch.readProgress(members.stream().map(JobSummary::getId).collect(Collectors.toSet()));
+				for (JobSummary job : members) {
+					Logger jobLogger = LoggerFactory.getLogger("jobs." + job.getId());
+					Integer exitcode = progress.getExitcode(job.getId());
+					JobUpdate update = jobService.update(job.getId()).xenonState(status.getState());
+					if (exitcode != null) {
+						if (exitcode != 0) {
+							jobLogger.error("Execution failed with code: " + exitcode);
 						} else {
-							logger.debug("Cancelled job: " + job.getId() + " new status: " + status);
-							jobService.setXenonState(job.getId(), status.getState());
-							jobService.setXenonExitcode(job.getId(), status.getExitCode());
-							jobService.setJobState(job.getId(), JobState.RUNNING_CR, JobState.CANCELLED);
+							jobLogger.info("Jobs done.");
 						}
+						if (job.getInternalState() == JobState.WAITING) {
+							update.startedAt(new Date());
+						}
+						update.exitCode(exitcode).transition(job.getInternalState(), JobState.FINISHED);
+					} else if (batchDone) {
+						// The batch ended before it got to this job, or while it was running
+						jobLogger.error("Job did not finish in " + entry.getKey());
+						Exception error = status.hasException() ? status.getException()
+								: new XenonException("xenonflow", "Job did not finish in " + entry.getKey());
+						update.error(error).transition(job.getInternalState(), JobState.SYSTEM_ERROR);
+						lost.add(job.getId());
+					} else if (job.getInternalState() == JobState.WAITING && progress.hasStarted(job.getId())) {
+						update.startedAt(new Date()).transition(JobState.WAITING, JobState.RUNNING);
+					} else if (status.getState().equals(job.getXenonState())) {
+						continue;
 					}
+					updates.add(update);
 				}
-			} catch (NoSuchJobException e) {
-				// It was running at some moment in time, so lets try to retrieve the output.
-                tryRecoverJobOutput(job);
-				if (job.getInternalState().isCancellationActive()) {
-					// We can't find the job that we're cancelling. That's awesome let's continue!
-					try {
-						jobService.setJobState(job.getId(), job.getInternalState(), JobState.CANCELLED);
-					} catch (StatePreconditionException e1) {
-						jobLogger.error("Error during execution of " + job.getName() + "(" + job.getId() + ")", e);
-						logger.error("Error during execution of " + job.getName() + "(" + job.getId() + ")", e);
-					}
-				} else {
-					jobService.setErrorAndState(job.getId(), e, job.getInternalState(), JobState.SYSTEM_ERROR);
-					jobLogger.error("Error during execution of " + job.getName() + "(" + job.getId() + ")", e);
-					logger.error("Error during execution of " + job.getName() + "(" + job.getId() + ")", e);
-				}
-			} catch (XenonException | StatePreconditionException e) {
-				jobLogger.error("Error while cancelling execution of " + job.getName() + "(" + job.getId() + ") -- scheduler connection lost?", e);
-                logger.error("Error while cancelling execution of " + job.getName() + "(" + job.getId() + ") -- scheduler connection lost?", e);
-			}
-		}
-	}
-
-	private void cancelWaitingJobs(Scheduler scheduler) {
-		List<Job> cancelWaiting = repository.findAllByInternalState(JobState.WAITING_CR);
-		for (Job job : cancelWaiting) {
-			Logger jobLogger = LoggerFactory.getLogger("jobs." + job.getId());
-			// We re-request the job here because it may have changed while we were looping.
-			job = repository.findById(job.getId()).get();
-			try {
-				String xenonJobId = job.getXenonId();
-				if (xenonJobId != null && !xenonJobId.isEmpty()) {
-					JobStatus status = scheduler.getJobStatus(xenonJobId);
-
-					if (!status.hasException()) {
-						status = scheduler.cancelJob(job.getXenonId());
-						logger.debug("Cancelled job: " + job.getId() + " new status: " + status);
-					}
 
-					jobService.setJobState(job.getId(), JobState.WAITING_CR, JobState.CANCELLED);
+				if (batchDone) {
+					pollSchedule.forget(entry.getKey());
+					batch.delete();
 				}
-			} catch (NoSuchJobException e) {
-				jobService.setErrorAndState(job.getId(), e, job.getInternalState(), JobState.SYSTEM_ERROR);
-				tryRecoverJobOutput(job);
-			} catch (XenonException | StatePreconditionException e) {
-				jobLogger.error("Error while cancelling execution of " + job.getName() + "(" + job.getId() + ") -- scheduler connection lost?", e);
-                logger.error("Error while cancelling execution of " + job.getName() + "(" + job.getId() + ") -- scheduler connection lost?", e);
 			}
+		} catch (XenonException e) {
+			logger.error("Error during execution of update of batched jobs", e);
 		}
 	}
-	
-	private void deleteJobs() {
-		List<Job> deleting = repository.findAllByInternalState(JobState.RUNNING_DELR);
-		deleting.addAll(repository.findAllByInternalState(JobState.STAGING_IN_DELR));
-		deleting.addAll(repository.findAllByInternalState(JobState.STAGING_OUT_DELR));
-		deleting.addAll(repository.findAllByInternalState(JobState.WAITING_DELR));
-		for (Job job : deleting) {
-			deleteJobTask.deleteJob(job.getId());
-		}
-	}
-
-	private void startStageOutForFinishedJobs() {
-		List<Job> finished = repository.findAllByInternalState(JobState.FINISHED);
-		for (Job job : finished) {
 
-			Logger jobLogger = LoggerFactory.getLogger("jobs." + job.getId());
-			// We re-request the job here because it may have changed while we were looping.
-			job = repository.findById(job.getId()).get();
-			try {
-				job = jobService.setJobState(job.getId(), JobState.FINISHED, JobState.STAGING_OUT);
-				CwlStageOutTask stageOut = new CwlStageOutTask(job.getId(), (int) job.getAdditionalInfo().get("xenon.exitcode"), remoteToTargetStager, xenonService);
-				stageOut.run();
-			} catch (XenonException | StatePreconditionException e) {
-				jobLogger.error("Error during execution of " + job.getName() + "(" + job.getId() + ")", e);
-				logger.error("Error during execution of " + job.getName() + "(" + job.getId() + ")", e);
-			}
-		}
-	}
-	
-	private void startStageInForSubmittedJobs() {
-		List<Job> submitted = repository.findAllByInternalState(JobState.SUBMITTED);
-		for (Job job : submitted) {
-			Logger jobLogger = LoggerFactory.getLogger("jobs." + job.getId());
-			// We re-request the job here because it may have changed while we were looping.
-			job = repository.findById(job.getId()).get();
-			try {
-				job = jobService.setJobState(job.getId(), JobState.SUBMITTED, JobState.STAGING_IN);
-				CwlStageInTask stageIn = new CwlStageInTask(job.getId(), sourceToRemoteStager, xenonService);
-				stageIn.run();
-			} catch (XenonException | StatePreconditionException e) {
-				jobLogger.error("Error during execution of " + job.getName() + "(" + job.getId() + ")", e);
-				logger.error("Error during execution of " + job.getName() + "(" + job.getId() + ")", e);
-			}
-		}
+	private static Map<String, List<JobSummary>> groupByBatch(List<JobSummary> jobs) {
+		return jobs.stream().collect(Collectors.groupingBy(JobSummary::getBatchId, LinkedHashMap::new, Collectors.toList()));
 	}
 
-	private void startReadyJobs() {
-		List<Job> ready = repository.findAllByInternalState(JobState.STAGING_READY);
-		for (Job job : ready) {
-			Logger jobLogger = LoggerFactory.getLogger("jobs." + job.getId());
-			// We re-request the job here because it may have changed while we were looping.
-			job = repository.findById(job.getId()).get();
-			jobLogger.info("Starting new job runner for job: " + job.getId());
-			try {
-				jobService.setJobState(job.getId(), JobState.STAGING_READY, JobState.XENON_SUBMIT);
-				CwlWorkflowTask submit = new CwlWorkflowTask(job.getId(), xenonService);
-				submit.run();
-			} catch (XenonException | StatePreconditionException e) {
-				jobLogger.error("Error during execution of " + job.getName() + "(" + job.getId() + ")", e);
-				logger.error("Error during execution of " + job.getName() + "(" + job.getId() + ")", e);
-			}
-		}
-	}
-	
-	private void tryRecoverJobOutput(Job job) {
-		logger.info("Could not recover job" + job + " it is probably lost...");
+	private void handleStatusException(JobSummary job, JobStatus status, List<JobUpdate> updates, List<String> lost) {
 		Logger jobLogger = LoggerFactory.getLogger("jobs." + job.getId());
-		try {
-			// Let's try to stage back what we can
-			CwlStageOutTask stageOut = new CwlStageOutTask(job.getId(), null, remoteToTargetStager, xenonService);
-			stageOut.run();
-		} catch (XenonException e) {
-			jobLogger.error("Error during execution of " + job.getName() + "(" + job.getId() + ")", e);
-			logger.error("Error during execution of " + job.getName() + "(" + job.getId() + ")", e);
+		if (status.getState().equals("INTERNAL_ERROR")) {
+			// We seem to have lost the connection to the scheduler -- we may retry later
+			jobLogger.error("Exception while retrieving status of job (scheduler connection lost?)", status.getException());
+			logger.error("Exception while retrieving status of job " + job.getName() + "(" + job.getId() + ") -- scheduler connection lost?",
+					status.getException());
+			return;
+		} else if (status.getState().equals("UNKNOWN")) {
+			// We seem to have lost the job completely? -- try to recover the output
+			jobLogger.error("Could not find job ", status.getException());
+			logger.error("Could not find job " + job.getName() + "(" + job.getId() + ")", status.getException());
+		} else {
+			// The job was cancelled or failed due to a timeout, node failure, preemption, etc. -- try to recover the output
+			jobLogger.error("Job failed or cancelled ", status.getException());
+			logger.error("Job failed or cancelled " + job.getName() + "(" + job.getId() + ")", status.getException());
 		}
+		updates.add(jobService.update(job.getId())
+				.error(status.getException())
+				.transition(job.getInternalState(), JobState.SYSTEM_ERROR));
+		lost.add(job.getId());
+	}
+
+	private void tryRecoverJobOutput(String jobId) {
+		logger.info("Could not recover job " + jobId + " it is probably lost...");
+		// Let's try to stage back what we can
+		pipeline.recoverOutput(jobId);
 	}
 }
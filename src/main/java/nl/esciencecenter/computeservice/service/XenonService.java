@@ -2,6 +2,8 @@ package nl.esciencecenter.computeservice.service;
 
 import java.io.IOException;
 import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.PostConstruct;
 
@@ -9,6 +11,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import nl.esciencecenter.computeservice.config.AdaptorConfig;
@@ -31,6 +34,9 @@ public class XenonService implements AutoCloseable {
 	@Value("${xenonflow.log.basepath}")
 	private Path logBasePath;
 
+	@Value("${xenonflow.pool.idle-timeout:300000}")
+	private long idleTimeout;
+
 	@Autowired
 	private JobRepository repository;
 	
@@ -38,8 +44,7 @@ public class XenonService implements AutoCloseable {
 	private JobService jobService;
 	
 	private XenonflowConfig config = null;
-	private Scheduler scheduler = null;
-	private FileSystem remoteFileSystem = null;
+	private final Map<String, RemoteConnectionPool> pools = new ConcurrentHashMap<String, RemoteConnectionPool>();
 	private FileSystem sourceFileSystem = null;
 	private FileSystem targetFileSystem = null;
 	private FileSystem cwlFileSystem = null;
@@ -52,25 +57,20 @@ public class XenonService implements AutoCloseable {
 	}
 
 	public void close() {
+		for (RemoteConnectionPool pool : pools.values()) {
+			pool.close();
+		}
 		try {
-			if (scheduler != null && scheduler.isOpen()) {
-				scheduler.close();
-			}
 			if (sourceFileSystem != null && sourceFileSystem.isOpen()) {
 				sourceFileSystem.close();
 			}
-			if (remoteFileSystem != null && remoteFileSystem.isOpen()) {
-				remoteFileSystem.close();
-			}
 			if (cwlFileSystem != null && cwlFileSystem.isOpen()) {
 				cwlFileSystem.close();
 			}
 		} catch (XenonException e) {
 			logger.error("Error while shutting down xenon: ", e);
 		}
-		scheduler = null;
 		sourceFileSystem = null;
-		remoteFileSystem = null;
 		cwlFileSystem = null;
 	}
 
@@ -96,8 +96,18 @@ public class XenonService implements AutoCloseable {
 		assert(resource != null);
 		assert(resource.getSchedulerConfig() != null);
 		
-		// Make sure everything is running.
-		checkSchedulerStates();
+		// Make sure everything is running. The default compute resource has to
+		// be available, the others are connected again when they are used.
+		getConnectionPool(null).shared();
+		for (String name : getConfig().keySet()) {
+			if (!name.equals(getConfig().getDefaultComputeResourceName())) {
+				try {
+					getConnectionPool(name).shared();
+				} catch (XenonException e) {
+					logger.error("Could not connect to compute resource " + name, e);
+				}
+			}
+		}
 	}
 
 	public JobService getJobService() {
@@ -108,79 +118,95 @@ public class XenonService implements AutoCloseable {
 		this.jobService = jobService;
 	}
 	
-	public boolean checkSchedulerStates() throws XenonException {
-		ComputeResource resource = getConfig().defaultComputeResource();
-		AdaptorConfig schedulerConfig = resource.getSchedulerConfig();
-		AdaptorConfig fileSystemConfig = resource.getFilesystemConfig();
-		
-		boolean useSchedulerFilesystem = fileSystemConfig == null;
-		boolean recreateScheduler = false;
-		boolean recreateFileSystem = false;
-		if(useSchedulerFilesystem) {
-			if (scheduler == null || !scheduler.isOpen() || remoteFileSystem == null || !remoteFileSystem.isOpen()) {
-				recreateScheduler = true;
-				recreateFileSystem = true;
-			}
-			
-		} else {
-			if (scheduler == null || !scheduler.isOpen()) {
-				recreateScheduler = true;
-			}
-			if (remoteFileSystem == null || !remoteFileSystem.isOpen()) {
-				recreateFileSystem = true;
-			}
+	/**
+	 * The connections to a compute resource, or to the default one if
+	 * computeResource is null. Every compute resource is connected on its own,
+	 * so a slow or unreachable cluster does not hold up the others.
+	 */
+	public RemoteConnectionPool getConnectionPool(String computeResource) throws XenonException {
+		String name = getConfig().computeResourceName(computeResource);
+		ComputeResource resource = getConfig().get(name);
+		if (resource == null) {
+			throw new XenonException("xenonflow", "Unknown compute resource: " + name);
 		}
-		if (recreateScheduler) {
-			logger.info("Creating a scheduler to run jobs...");
-			scheduler = Scheduler.create(schedulerConfig.getAdaptor(), schedulerConfig.getLocation(),
-										 schedulerConfig.getCredential(), schedulerConfig.getProperties());
-		} else {
-	        logger.debug("Reusing existing scheduler");
-	    }
-		if (recreateFileSystem) {
-			if (useSchedulerFilesystem && Scheduler.getAdaptorDescription(scheduler.getAdaptorName()).usesFileSystem()) {
-				logger.info("Using scheduler filesystem as a remote filesystem...");
-				remoteFileSystem = scheduler.getFileSystem();
-			} else {
-				// Initialize remote filesystem
-				logger.info("Creating remote filesystem...");
-				remoteFileSystem = FileSystem.create(fileSystemConfig.getAdaptor(), fileSystemConfig.getLocation(),
-													 fileSystemConfig.getCredential(), fileSystemConfig.getProperties());
-				logger.info("Remote working directory: " + remoteFileSystem.getWorkingDirectory());
+		RemoteConnectionPool pool = pools.get(name);
+		if (pool == null) {
+			synchronized (pools) {
+				pool = pools.get(name);
+				if (pool == null) {
+					pool = new RemoteConnectionPool(name, resource);
+					pools.put(name, pool);
+				}
 			}
 		}
-		return recreateFileSystem || recreateScheduler;
+		return pool;
+	}
+
+	/**
+	 * Borrow a connection to a compute resource for work that can run next
+	 * to other work on the same compute resource, like submitting, polling
+	 * and staging. It has to be given back with releaseConnection().
+	 */
+	public RemoteConnection borrowConnection(String computeResource) throws XenonException {
+		return getConnectionPool(computeResource).borrow();
+	}
+
+	public void releaseConnection(RemoteConnection connection) {
+		try {
+			getConnectionPool(connection.getComputeResource()).release(connection);
+		} catch (XenonException e) {
+			logger.error("Could not give back a connection to " + connection.getComputeResource(), e);
+		}
+	}
+
+	/**
+	 * Give back a connection that turned out to be broken, it is not handed
+	 * out again.
+	 */
+	public void invalidateConnection(RemoteConnection connection) {
+		try {
+			RemoteConnectionPool pool = getConnectionPool(connection.getComputeResource());
+			pool.invalidate(connection);
+			pool.release(connection);
+		} catch (XenonException e) {
+			logger.error("Could not give back a connection to " + connection.getComputeResource(), e);
+		}
 	}
 
+	@Scheduled(fixedRateString = "${xenonflow.pool.evict.rate:60000}", initialDelayString = "${xenonflow.pool.evict.rate:60000}")
+	public void evictIdleConnections() {
+		for (RemoteConnectionPool pool : pools.values()) {
+			pool.evictIdle(idleTimeout);
+		}
+	}
+
+	/**
+	 * The scheduler of the default compute resource.
+	 */
 	public Scheduler getScheduler() throws XenonException {
-		checkSchedulerStates();
-		return scheduler;
+		return getScheduler(null);
 	}
-	
-	public void closeScheduler() throws XenonException {
-        if (scheduler != null) {
-            if (scheduler.isOpen()) {
-                scheduler.close();
-            }
-            scheduler = null;
-        }
-    }
-
-	public Scheduler forceNewScheduler() throws XenonException {
-		closeScheduler();
-		return getScheduler();
+
+	/**
+	 * The scheduler of the shared connection to a compute resource, or to
+	 * the default one if computeResource is null.
+	 */
+	public Scheduler getScheduler(String computeResource) throws XenonException {
+		return getConnectionPool(computeResource).shared().getScheduler();
 	}
 
+	/**
+	 * The filesystem of the default compute resource.
+	 */
 	public FileSystem getRemoteFileSystem() throws XenonException {
-		checkSchedulerStates();
-		return remoteFileSystem;
+		return getRemoteFileSystem(null);
 	}
 
-	public void setRemoteFileSystem(FileSystem remoteFileSystem) {
-		this.remoteFileSystem = remoteFileSystem;
+	public FileSystem getRemoteFileSystem(String computeResource) throws XenonException {
+		return getConnectionPool(computeResource).shared().getFileSystem();
 	}
 
-	public FileSystem getSourceFileSystem() throws XenonException {
+	public synchronized FileSystem getSourceFileSystem() throws XenonException {
 		if (sourceFileSystem == null || !sourceFileSystem.isOpen()) {
 			AdaptorConfig sourceConfig = getConfig().getSourceFilesystemConfig();
 			logger.debug("Creating source filesystem..." +
@@ -201,7 +227,7 @@ public class XenonService implements AutoCloseable {
 		return sourceFileSystem;
 	}
 
-	public FileSystem getTargetFileSystem() throws XenonException {
+	public synchronized FileSystem getTargetFileSystem() throws XenonException {
 		if (targetFileSystem == null || !targetFileSystem.isOpen()) {
 			TargetAdaptorConfig targetConfig = getConfig().getTargetFilesystemConfig();
 			logger.debug("Creating target filesystem..."
@@ -226,7 +252,7 @@ public class XenonService implements AutoCloseable {
 		this.sourceFileSystem = sourceFileSystem;
 	}
 	
-	public FileSystem getCwlFileSystem() throws XenonException {
+	public synchronized FileSystem getCwlFileSystem() throws XenonException {
 		if (cwlFileSystem == null || !cwlFileSystem.isOpen()) {
 			AdaptorConfig cwlConfig = getConfig().getCwlFilesystemConfig();
 			logger.debug("Creating cwl filesystem..." + cwlConfig.getAdaptor() + " location: "
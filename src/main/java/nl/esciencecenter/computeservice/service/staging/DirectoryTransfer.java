@@ -0,0 +1,201 @@
+package nl.esciencecenter.computeservice.service.staging;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.Path;
+import nl.esciencecenter.xenon.filesystems.PathAttributes;
+
+/**
+ * Copies a directory file by file, several files at the same time.
+ *
+ * Both directories are listed first. A file that is already in the target
+ * with the same size, and that was written after the source was last
+ * modified, is left alone. Xenon can not set the modification time of a file,
+ * so a copy is always newer than its source, and a directory that was copied
+ * before a restart, or by an earlier attempt to stage out, is only copied for
+ * the part that is missing or changed. Files of at least resumableThreshold
+ * bytes are copied with a ResumableTransfer.
+ */
+public class DirectoryTransfer implements Callable<Long> {
+	private static final Logger logger = LoggerFactory.getLogger(DirectoryTransfer.class);
+
+	// Progress goes to the job log, a line every ten seconds per directory is plenty
+	private static final long CHECKPOINT_INTERVAL = 10000;
+
+	private final FileSystem sourceFileSystem;
+	private final Path sourcePath;
+	private final FileSystem targetFileSystem;
+	private final Path targetPath;
+	private final ExecutorService entryPool;
+	private final long resumableThreshold;
+	private final LongConsumer checkpoint;
+
+	private final AtomicLong bytes = new AtomicLong();
+	private final AtomicInteger filesCopied = new AtomicInteger();
+	private final AtomicInteger filesSkipped = new AtomicInteger();
+	private long lastCheckpoint = 0;
+
+	/**
+	 * @param entryPool runs the copies of the files, it is shared by all
+	 *        directories being copied and limits how many files are copied at
+	 *        the same time.
+	 * @param checkpoint called with the number of bytes of the directory that
+	 *        are in the target every now and then, and when the copy is done.
+	 */
+	public DirectoryTransfer(FileSystem sourceFileSystem, Path sourcePath, FileSystem targetFileSystem, Path targetPath,
+			ExecutorService entryPool, long resumableThreshold, LongConsumer checkpoint) {
+		this.sourceFileSystem = sourceFileSystem;
+		this.sourcePath = sourcePath;
+		this.targetFileSystem = targetFileSystem;
+		this.targetPath = targetPath;
+		this.entryPool = entryPool;
+		this.resumableThreshold = resumableThreshold;
+		this.checkpoint = checkpoint;
+	}
+
+	@Override
+	public Long call() throws XenonException, IOException {
+		Map<String, PathAttributes> existing = listTarget();
+		if (!targetFileSystem.exists(targetPath)) {
+			targetFileSystem.createDirectories(targetPath);
+		}
+
+		List<Future<?>> copies = new ArrayList<Future<?>>();
+		try {
+			for (PathAttributes source : sourceFileSystem.list(sourcePath, true)) {
+				String name = sourcePath.relativize(source.getPath()).toString();
+				Path target = targetPath.resolve(name);
+				PathAttributes current = existing.get(name);
+
+				if (source.isDirectory()) {
+					if (current == null) {
+						targetFileSystem.createDirectories(target);
+					}
+				} else if (source.isSymbolicLink()) {
+					if (current == null) {
+						targetFileSystem.createSymbolicLink(target, sourceFileSystem.readSymbolicLink(source.getPath()));
+					}
+				} else if (isUpToDate(source, current)) {
+					filesSkipped.incrementAndGet();
+					bytes.addAndGet(source.getSize());
+				} else {
+					copies.add(entryPool.submit(() -> copy(source, target, current)));
+				}
+			}
+
+			for (Future<?> copy : copies) {
+				copy.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Copy of " + sourcePath + " was cancelled");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof XenonException) {
+				throw (XenonException) e.getCause();
+			}
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Copy of " + sourcePath + " failed", e.getCause());
+		} finally {
+			for (Future<?> copy : copies) {
+				copy.cancel(true);
+			}
+		}
+
+		logger.debug("Copied " + sourcePath + " to " + targetPath + ": " + filesCopied.get() + " files copied, "
+				+ filesSkipped.get() + " already there");
+		checkpoint(bytes.get());
+		return bytes.get();
+	}
+
+	public int getFilesCopied() {
+		return filesCopied.get();
+	}
+
+	public int getFilesSkipped() {
+		return filesSkipped.get();
+	}
+
+	private Map<String, PathAttributes> listTarget() throws XenonException {
+		Map<String, PathAttributes> existing = new HashMap<String, PathAttributes>();
+		if (targetFileSystem.exists(targetPath)) {
+			for (PathAttributes target : targetFileSystem.list(targetPath, true)) {
+				existing.put(targetPath.relativize(target.getPath()).toString(), target);
+			}
+		}
+		return existing;
+	}
+
+	private static boolean isUpToDate(PathAttributes source, PathAttributes target) {
+		return target != null && target.isRegular() && target.getSize() == source.getSize()
+				&& target.getLastModifiedTime() >= source.getLastModifiedTime();
+	}
+
+	private Void copy(PathAttributes source, Path target, PathAttributes current) throws XenonException, IOException {
+		if (Thread.currentThread().isInterrupted()) {
+			throw new InterruptedIOException("Copy of " + source.getPath() + " was cancelled");
+		}
+		long size = source.getSize();
+		if (resumableThreshold > 0 && size >= resumableThreshold) {
+			// The part of the file that is done counts towards the directory
+			long[] counted = new long[1];
+			new ResumableTransfer(sourceFileSystem, source.getPath(), targetFileSystem, target, size, done -> {
+				add(done - counted[0]);
+				counted[0] = done;
+			}).call();
+		} else {
+			if (current != null) {
+				targetFileSystem.delete(target, current.isDirectory());
+			}
+			try (InputStream in = sourceFileSystem.readFromFile(source.getPath());
+					OutputStream out = targetFileSystem.writeToFile(target, size)) {
+				IOUtils.copyLarge(in, out);
+			}
+			add(size);
+		}
+		filesCopied.incrementAndGet();
+		return null;
+	}
+
+	private void add(long delta) {
+		long total = bytes.addAndGet(delta);
+		synchronized (this) {
+			long now = System.currentTimeMillis();
+			if (now - lastCheckpoint < CHECKPOINT_INTERVAL) {
+				return;
+			}
+			lastCheckpoint = now;
+		}
+		checkpoint(total);
+	}
+
+	private void checkpoint(long total) {
+		try {
+			checkpoint.accept(total);
+		} catch (RuntimeException e) {
+			// The copy itself is fine, only the progress could not be recorded
+			logger.warn("Could not record progress of " + targetPath + ": " + e.getMessage());
+		}
+	}
+}
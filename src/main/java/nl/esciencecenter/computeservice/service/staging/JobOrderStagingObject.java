@@ -0,0 +1,49 @@
+package nl.esciencecenter.computeservice.service.staging;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import nl.esciencecenter.computeservice.model.WorkflowBinding;
+import nl.esciencecenter.computeservice.utils.JacksonUtils;
+import nl.esciencecenter.xenon.filesystems.Path;
+
+/**
+ * The job order of a job, written as json to the remote filesystem.
+ *
+ * The binding is serialized straight into the output stream when it is
+ * staged, so large job orders are never held in memory as a string.
+ */
+public class JobOrderStagingObject extends StringToFileStagingObject {
+	private WorkflowBinding jobOrder;
+
+	public JobOrderStagingObject(WorkflowBinding jobOrder, Path targetPath) {
+		super(null, targetPath, null);
+		this.jobOrder = jobOrder;
+	}
+
+	public WorkflowBinding getJobOrder() {
+		return jobOrder;
+	}
+
+	/**
+	 * Write the job order as json to the stream, the stream is left open.
+	 */
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		JacksonUtils.getWorkflowBindingWriter().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET).writeValue(out, jobOrder);
+	}
+
+	@Override
+	public String getSourceString() {
+		return jobOrder.toString();
+	}
+
+	@Override
+	public String toString() {
+		return "JobOrderStagingObject ["
+				+ "targetPath=" + getTargetPath()
+				+ "]";
+	}
+}
@@ -0,0 +1,242 @@
+package nl.esciencecenter.computeservice.service.staging;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import nl.esciencecenter.computeservice.config.StagingConfig;
+import nl.esciencecenter.computeservice.model.CachedInput;
+import nl.esciencecenter.computeservice.model.CachedInputReference;
+import nl.esciencecenter.computeservice.model.CachedInputReferenceRepository;
+import nl.esciencecenter.computeservice.model.CachedInputRepository;
+import nl.esciencecenter.computeservice.service.JobStateChangedEvent;
+import nl.esciencecenter.computeservice.service.XenonService;
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.Path;
+import nl.esciencecenter.xenon.filesystems.PathAttributes;
+
+/**
+ * A cache of input files on the remote filesystem.
+ *
+ * The first job that needs a file copies it into the cache, every job links
+ * the cached copy into its sandbox directory. Jobs keep a reference to the
+ * files they use until they are done. When the cache grows over its size the
+ * least recently used files that no job refers to are removed.
+ *
+ * An entry that is not ready is either being copied into the cache or being
+ * evicted, jobs do not link to it in both cases. Eviction marks the entry
+ * while holding the same row lock acquire() takes, and only removes the file
+ * after that.
+ */
+@Component
+public class RemoteInputCache {
+	private static final Logger logger = LoggerFactory.getLogger(RemoteInputCache.class);
+
+	@Autowired
+	private XenonService xenonService;
+
+	@Autowired
+	private CachedInputRepository cache;
+
+	@Autowired
+	private CachedInputReferenceRepository references;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	private TransactionTemplate transactionTemplate;
+
+	@PostConstruct
+	public void initialize() {
+		// Also used from event listeners, after the transaction that published the event
+		transactionTemplate = new TransactionTemplate(transactionManager);
+		transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+		// Copies into the cache that were running when xenonflow stopped are
+		// started again by the next job that needs the file
+		int removed = transactionTemplate.execute(status -> cache.deleteNotReady());
+		if (removed > 0) {
+			logger.info("Removed " + removed + " unfinished entries from the input cache");
+		}
+	}
+
+	/**
+	 * Look up a source file in the cache and record that the job uses it.
+	 *
+	 * When the returned entry is not ready yet, the caller is the first to use
+	 * the file and has to copy it to the path of the entry and call completed()
+	 * when it is done.
+	 *
+	 * @return the cache entry, or null if the file should be copied into the
+	 *         sandbox directory as usual.
+	 */
+	public CachedInput acquire(String jobId, String computeResource, FileSystem sourceFileSystem, Path sourcePath, FileSystem remoteFileSystem)
+			throws XenonException {
+		StagingConfig config = xenonService.getConfig().getStagingConfig();
+		if (config.getCacheSize() <= 0
+				|| !FileSystem.getAdaptorDescription(remoteFileSystem.getAdaptorName()).supportsSymboliclinks()) {
+			return null;
+		}
+		PathAttributes attributes = sourceFileSystem.getAttributes(sourcePath);
+		if (attributes.getSize() < config.getCacheMinFileSize()) {
+			return null;
+		}
+
+		String key = key(computeResource, sourceFileSystem, sourcePath, attributes);
+		Path cachePath = remoteFileSystem.getWorkingDirectory().resolve(config.getCacheDirectory()).resolve(key)
+				.resolve(sourcePath.getFileNameAsString()).toAbsolutePath();
+
+		CachedInput entry;
+		try {
+			entry = transactionTemplate.execute(status -> {
+				CachedInput c = cache.findOneForUpdate(key);
+				if (c == null) {
+					c = new CachedInput();
+					c.setId(key);
+					c.setComputeResource(computeResource);
+					c.setPath(cachePath.toString());
+					c.setSize(attributes.getSize());
+				} else if (!c.isReady()) {
+					// Another job is copying it into the cache, or it is being evicted
+					return null;
+				}
+				c.setLastUsed(new Date());
+				c = cache.saveAndFlush(c);
+				if (!references.existsByCacheKeyAndJobId(key, jobId)) {
+					references.save(new CachedInputReference(key, jobId));
+				}
+				return c;
+			});
+		} catch (DataIntegrityViolationException e) {
+			// Another job added it at the same time
+			return null;
+		}
+		if (entry == null) {
+			return null;
+		}
+
+		if (entry.isReady() && !remoteFileSystem.exists(cachePath)) {
+			logger.warn("Cached input " + cachePath + " has disappeared, removing it from the cache");
+			transactionTemplate.execute(status -> {
+				cache.deleteById(key);
+				return null;
+			});
+			return null;
+		}
+		if (!entry.isReady() && !remoteFileSystem.exists(cachePath.getParent())) {
+			remoteFileSystem.createDirectories(cachePath.getParent());
+		}
+		return entry;
+	}
+
+	/**
+	 * Called when the copy of a file into the cache is done.
+	 *
+	 * @param error null if the copy succeeded.
+	 */
+	public void completed(CachedInput entry, Exception error) {
+		transactionTemplate.execute(status -> {
+			if (error != null) {
+				cache.deleteById(entry.getId());
+			} else {
+				CachedInput c = cache.findOneForUpdate(entry.getId());
+				if (c != null) {
+					c.setReady(true);
+					cache.save(c);
+				}
+			}
+			return null;
+		});
+		if (error == null) {
+			evict();
+		}
+	}
+
+	/**
+	 * Remove the least recently used files that no job refers to until the
+	 * cache fits in its size again.
+	 */
+	public synchronized void evict() {
+		long maxSize = xenonService.getConfig().getStagingConfig().getCacheSize();
+		long size = cache.totalSize();
+		if (size <= maxSize) {
+			return;
+		}
+
+		for (CachedInput candidate : cache.findUnreferencedByLastUsed()) {
+			CachedInput entry = transactionTemplate.execute(status -> {
+				// A job can have started using it since it was listed
+				CachedInput c = cache.findOneForUpdate(candidate.getId());
+				if (c == null || !c.isReady() || references.existsByCacheKey(c.getId())) {
+					return null;
+				}
+				c.setReady(false);
+				return cache.saveAndFlush(c);
+			});
+			if (entry == null) {
+				continue;
+			}
+
+			try {
+				Path directory = new Path(entry.getPath()).getParent();
+				FileSystem remoteFileSystem = xenonService.getRemoteFileSystem(entry.getComputeResource());
+				if (remoteFileSystem.exists(directory)) {
+					remoteFileSystem.delete(directory, true);
+				}
+			} catch (XenonException e) {
+				// Left not ready, so no job uses what is left of it
+				logger.error("Could not remove " + entry.getPath() + " from the input cache", e);
+				continue;
+			}
+			transactionTemplate.execute(status -> {
+				cache.deleteById(entry.getId());
+				return null;
+			});
+			logger.info("Evicted " + entry.getPath() + " from the input cache");
+
+			size -= entry.getSize();
+			if (size <= maxSize) {
+				return;
+			}
+		}
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onJobStateChanged(JobStateChangedEvent event) {
+		if (xenonService.getConfig().getStagingConfig().getCacheSize() <= 0) {
+			return;
+		}
+		if (event.isDeletion() || event.getTo().isFinal()) {
+			transactionTemplate.execute(status -> references.deleteByJobId(event.getJobId()));
+		}
+	}
+
+	private static String key(String computeResource, FileSystem sourceFileSystem, Path sourcePath, PathAttributes attributes) {
+		String identity = computeResource + "\n" + sourceFileSystem.getLocation() + "\n" + sourcePath.toAbsolutePath() + "\n"
+				+ attributes.getSize() + "\n" + attributes.getLastModifiedTime();
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			StringBuilder key = new StringBuilder();
+			for (byte b : digest.digest(identity.getBytes(StandardCharsets.UTF_8))) {
+				key.append(String.format("%02x", b));
+			}
+			return key.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package nl.esciencecenter.computeservice.service.staging;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.function.LongConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.Path;
+
+/**
+ * Copies a single large file so that an interrupted copy can be resumed.
+ *
+ * Whatever part of the target already exists is kept and only the rest of the
+ * source is appended to it. Xenon filesystems can not write at an offset, so a
+ * file is always written front to back by one stream; several large files are
+ * copied in parallel instead. The copy is verified by comparing the size of
+ * the target with the size of the source.
+ */
+public class ResumableTransfer implements Callable<Long> {
+	private static final Logger logger = LoggerFactory.getLogger(ResumableTransfer.class);
+
+	private static final int BUFFER_SIZE = 1024 * 1024;
+	private static final long CHECKPOINT_INTERVAL = 64L * 1024 * 1024;
+
+	private final FileSystem sourceFileSystem;
+	private final Path sourcePath;
+	private final FileSystem targetFileSystem;
+	private final Path targetPath;
+	private final long size;
+	private final LongConsumer checkpoint;
+
+	/**
+	 * @param checkpoint called with the number of bytes in the target every
+	 *        now and then, and when the copy is done.
+	 */
+	public ResumableTransfer(FileSystem sourceFileSystem, Path sourcePath, FileSystem targetFileSystem, Path targetPath,
+			long size, LongConsumer checkpoint) {
+		this.sourceFileSystem = sourceFileSystem;
+		this.sourcePath = sourcePath;
+		this.targetFileSystem = targetFileSystem;
+		this.targetPath = targetPath;
+		this.size = size;
+		this.checkpoint = checkpoint;
+	}
+
+	@Override
+	public Long call() throws XenonException, IOException {
+		long offset = existingBytes();
+		if (offset == size) {
+			logger.debug("Skipping " + sourcePath + ", " + targetPath + " is already complete");
+			checkpoint(size);
+			return size;
+		}
+		if (offset > 0) {
+			logger.info("Resuming copy of " + sourcePath + " to " + targetPath + " at byte " + offset + " of " + size);
+		}
+
+		long copied = offset;
+		try (InputStream in = sourceFileSystem.readFromFile(sourcePath);
+				OutputStream out = offset == 0 ? targetFileSystem.writeToFile(targetPath, size) : targetFileSystem.appendToFile(targetPath)) {
+			skipFully(in, offset);
+
+			byte[] buffer = new byte[BUFFER_SIZE];
+			long lastCheckpoint = offset;
+			int read;
+			while ((read = in.read(buffer)) > 0) {
+				if (Thread.currentThread().isInterrupted()) {
+					throw new InterruptedIOException("Copy of " + sourcePath + " was cancelled at byte " + copied);
+				}
+				out.write(buffer, 0, read);
+				copied += read;
+				if (copied - lastCheckpoint >= CHECKPOINT_INTERVAL) {
+					out.flush();
+					checkpoint(copied);
+					lastCheckpoint = copied;
+				}
+			}
+		}
+
+		long written = targetFileSystem.getAttributes(targetPath).getSize();
+		if (written != size) {
+			throw new IOException("Copy of " + sourcePath + " to " + targetPath + " has " + written + " bytes, expected " + size);
+		}
+		checkpoint(size);
+		return size;
+	}
+
+	/**
+	 * The number of bytes of the target that can be kept. A target that can not
+	 * be appended to, or that is larger than the source, is removed.
+	 */
+	private long existingBytes() throws XenonException {
+		if (!targetFileSystem.exists(targetPath)) {
+			return 0;
+		}
+		long existing = targetFileSystem.getAttributes(targetPath).getSize();
+		boolean canAppend = FileSystem.getAdaptorDescription(targetFileSystem.getAdaptorName()).canAppend();
+		if (existing == size || (existing < size && canAppend)) {
+			return existing;
+		}
+		targetFileSystem.delete(targetPath, false);
+		return 0;
+	}
+
+	private void checkpoint(long bytes) {
+		try {
+			checkpoint.accept(bytes);
+		} catch (RuntimeException e) {
+			// The copy itself is fine, only the progress could not be recorded
+			logger.warn("Could not record progress of " + targetPath + ": " + e.getMessage());
+		}
+	}
+
+	private static void skipFully(InputStream in, long bytes) throws IOException {
+		long remaining = bytes;
+		while (remaining > 0) {
+			long skipped = in.skip(remaining);
+			if (skipped <= 0) {
+				if (in.read() < 0) {
+					throw new IOException("Source is shorter than the part that was already copied");
+				}
+				skipped = 1;
+			}
+			remaining -= skipped;
+		}
+	}
+}
@@ -2,6 +2,7 @@ package nl.esciencecenter.computeservice.service.staging;
 
 import nl.esciencecenter.computeservice.model.JobRepository;
 import nl.esciencecenter.computeservice.service.JobService;
+import nl.esciencecenter.computeservice.service.RemoteConnection;
 import nl.esciencecenter.computeservice.service.XenonService;
 import nl.esciencecenter.xenon.XenonException;
 import nl.esciencecenter.xenon.filesystems.FileSystem;
@@ -13,17 +14,17 @@ public class SourceToRemoteStager extends XenonStager {
 	}
 
 	@Override
-	protected FileSystem getTargetFileSystem() throws XenonException {
-		return service.getRemoteFileSystem();
+	protected FileSystem getTargetFileSystem(RemoteConnection remote) throws XenonException {
+		return remote.getFileSystem();
 	}
 
 	@Override
-	protected FileSystem getSourceFileSystem() throws XenonException {
+	protected FileSystem getSourceFileSystem(RemoteConnection remote) throws XenonException {
 		return service.getSourceFileSystem();
 	}
 	
 	@Override
-	protected FileSystem getCwlFileSystem() throws XenonException {
+	protected FileSystem getCwlFileSystem(RemoteConnection remote) throws XenonException {
 		return service.getCwlFileSystem();
 	}
 
@@ -12,6 +12,7 @@ public class StagingManifest extends LinkedList<StagingObject> {
 	private String jobId;
 	private Path targetDir;
 	private String baseurl;
+	private String computeResource;
 	
 	public StagingManifest(String jobId, Path targetDir) {
 		super();
@@ -43,6 +44,17 @@ public class StagingManifest extends LinkedList<StagingObject> {
 		this.baseurl = baseurl;
 	}
 
+	/**
+	 * The compute resource the job runs on, null for the default one.
+	 */
+	public String getComputeResource() {
+		return computeResource;
+	}
+
+	public void setComputeResource(String computeResource) {
+		this.computeResource = computeResource;
+	}
+
 	public StagingObject getByCopyid(String id) {
 		return this.stream().filter(o -> o.getCopyId() == id).findFirst().get();
 	}
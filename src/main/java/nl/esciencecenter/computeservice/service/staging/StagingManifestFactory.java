@@ -1,13 +1,16 @@
 package nl.esciencecenter.computeservice.service.staging;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.StringReader;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.TeeInputStream;
 import org.commonwl.cwl.CwlException;
 import org.commonwl.cwl.FileDirEntry;
 import org.commonwl.cwl.InputParameter;
@@ -19,17 +22,15 @@ import org.commonwl.cwl.utils.CWLUtils.WorkflowDescription;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParseException;
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 import nl.esciencecenter.computeservice.model.Job;
 import nl.esciencecenter.computeservice.model.StatePreconditionException;
 import nl.esciencecenter.computeservice.model.WorkflowBinding;
 import nl.esciencecenter.computeservice.model.XenonflowException;
 import nl.esciencecenter.computeservice.service.JobService;
+import nl.esciencecenter.computeservice.utils.JacksonUtils;
 import nl.esciencecenter.xenon.XenonException;
 import nl.esciencecenter.xenon.filesystems.FileSystem;
 import nl.esciencecenter.xenon.filesystems.Path;
@@ -39,6 +40,7 @@ public class StagingManifestFactory {
 	
 	public static StagingManifest createStagingInManifest(Job job, FileSystem cwlFileSystem, FileSystem sourceFileSystem, String cwlCommandScript, Logger jobLogger, JobService jobService) throws CwlException, XenonException, JsonParseException, JsonMappingException, IOException, StatePreconditionException, XenonflowException {
 		StagingManifest manifest = new StagingManifest(job.getId(), job.getSandboxDirectory());
+		manifest.setComputeResource(job.getComputeResource());
 
 		WorkflowDescription wfd = CWLUtils.loadLocalWorkflow(job, cwlFileSystem, jobLogger);
 
@@ -61,8 +63,9 @@ public class StagingManifestFactory {
 	}
 	
 	public static StagingManifest createStagingOutManifest(Job job, Integer exitcode, FileSystem cwlFileSystem, FileSystem fileSystem, FileSystem remoteFileSystem, JobService jobService,
-			Logger jobLogger) throws JsonParseException, JsonMappingException, IOException, XenonException, XenonflowException, CwlException {
+			long logOutputLimit, Logger jobLogger) throws JsonParseException, JsonMappingException, IOException, XenonException, XenonflowException, CwlException {
 		StagingManifest manifest = new StagingManifest(job.getId(), job.getSandboxDirectory());
+		manifest.setComputeResource(job.getComputeResource());
 		manifest.setBaseurl((String) job.getAdditionalInfo().get("baseurl"));
 		
 		WorkflowDescription wfd = CWLUtils.loadLocalWorkflow(job, cwlFileSystem, jobLogger);
@@ -72,29 +75,37 @@ public class StagingManifestFactory {
         Path errPath = remoteDirectory.resolve("stderr.txt");
         Path localErrPath = new Path(errPath.getFileNameAsString());
         
-        InputStream stderr = remoteFileSystem.readFromFile(errPath);
-		String errorContents = IOUtils.toString(stderr, "UTF-8");
-		if (errorContents.isEmpty()) {
+        // Standard error is copied back as a file, only its start goes into the job log
+        long errorSize = remoteFileSystem.getAttributes(errPath).getSize();
+		if (errorSize == 0) {
     		//throw new IOException("Output path " + outPath + " was empty!");
     		jobLogger.warn("Error path " + errPath + " was empty!");
     	} else {
-    		jobLogger.info("Standard Error:" + errorContents);
+    		LogHead errorHead = new LogHead(logOutputLimit);
+    		try (InputStream stderr = remoteFileSystem.readFromFile(errPath)) {
+    			IOUtils.copyLarge(stderr, errorHead, 0, logOutputLimit);
+    		}
+    		jobLogger.info("Standard Error:" + errorHead.toString(errorSize));
     		manifest.add(new FileStagingObject(errPath, localErrPath, null));
     	}
 		
-		InputStream stdout = remoteFileSystem.readFromFile(outPath);
-    	String outputContents = IOUtils.toString(stdout, "UTF-8");
-    	
-    	if (outputContents.isEmpty()) {
+		long outputSize = remoteFileSystem.getAttributes(outPath).getSize();
+    	if (outputSize == 0) {
     		//throw new IOException("Output path " + outPath + " was empty!");
     		jobLogger.warn("Output path " + outPath + " was empty!");
     	} else {
-	    	jobLogger.info("Raw output: " + outputContents);
-  
+    		LogHead outputHead = new LogHead(logOutputLimit);
 	        WorkflowBinding outputMap = null;
-	        // TODO: Try to stage back files even if the exitcode is not 0.
-	        if (exitcode != null && exitcode.intValue() == 0) {
-	        	outputMap = addOutputToManifest(job, wfd.workflow, manifest, outputContents, jobLogger);
+	        try (InputStream stdout = remoteFileSystem.readFromFile(outPath)) {
+		        // TODO: Try to stage back files even if the exitcode is not 0.
+		        if (exitcode != null && exitcode.intValue() == 0) {
+		        	// Parsed straight from the remote stream, the start of it is kept for the job log
+		        	outputMap = addOutputToManifest(job, wfd.workflow, manifest, new TeeInputStream(stdout, outputHead), jobLogger);
+		        } else {
+		        	IOUtils.copyLarge(stdout, outputHead, 0, logOutputLimit);
+		        }
+	        } finally {
+	        	jobLogger.info("Raw output: " + outputHead.toString(outputSize));
 	        }
 	        
 	        if (outputMap != null) {
@@ -121,9 +132,6 @@ public class StagingManifestFactory {
 	}
 	
 	public static void addInputToManifest(Job job, Workflow workflow, StagingManifest manifest, Logger jobLogger, JobService jobService) throws CwlException, JsonParseException, JsonMappingException, IOException, StatePreconditionException, XenonflowException, XenonException {	
-		// Read in the job order as a hashmap
-		ObjectMapper mapper = new ObjectMapper(new JsonFactory());
-		TypeReference<WorkflowBinding> typeRef = new TypeReference<WorkflowBinding>() {};
 	
 		if (workflow.getInputs() == null) {
 			throw new CwlException("Error staging files, cannot read the workflow file!\nworkflow: " + workflow);
@@ -134,9 +142,8 @@ public class StagingManifestFactory {
     	// on the remote server
 		WorkflowBinding jobOrder = null;
 		if(job.hasInput()) {
-			String jobOrderString = job.getInput().toString();
-			logger.debug("Old job order string: " + jobOrderString);
-			jobOrder = mapper.readValue(new StringReader(jobOrderString), typeRef);
+			// The paths in the copy are updated, the input of the job itself is left alone
+			jobOrder = job.getInput().deepCopy();
 		} else {
 			jobOrder = new WorkflowBinding();
 		}
@@ -154,18 +161,15 @@ public class StagingManifestFactory {
         		}
         	}
     	
-			String newJobOrderString = mapper.writeValueAsString(jobOrder);
-			logger.debug("New job order string: " + newJobOrderString);
-			manifest.add(new StringToFileStagingObject(newJobOrderString, remoteJobOrder, null));
+			manifest.add(new JobOrderStagingObject(jobOrder, remoteJobOrder));
 			
 			jobService.setInput(job.getId(), jobOrder);
         }
 	}
 	
-	private static WorkflowBinding addOutputToManifest(Job job, Workflow workflow, StagingManifest manifest, String outputContents, Logger jobLogger) throws JsonParseException, JsonMappingException, IOException, XenonException, XenonflowException, CwlException {    	
+	private static WorkflowBinding addOutputToManifest(Job job, Workflow workflow, StagingManifest manifest, InputStream outputContents, Logger jobLogger) throws JsonParseException, JsonMappingException, IOException, XenonException, XenonflowException, CwlException {    	
     	// Read the cwltool stdout to determine where the files are.
-		ObjectMapper mapper = new ObjectMapper(new JsonFactory());
-    	WorkflowBinding outputMap = mapper.readValue(new StringReader(outputContents), WorkflowBinding.class);
+    	WorkflowBinding outputMap = JacksonUtils.getWorkflowBindingReader("json").readValue(outputContents);
     	
     	if (workflow.getOutputs().length > 0) {
 	    	for (OutputParameter parameter : workflow.getOutputs()) {
@@ -253,7 +257,6 @@ public class StagingManifestFactory {
 			// There should be a default now if it was not in the map
 			file = (HashMap<String, Object>) parameter.get("default");
 		}
-		
 		if (file == null) {
 			// We did not find any suitable value for this file.
 			if (parameter.isOptional()) {
@@ -325,5 +328,44 @@ public class StagingManifestFactory {
 
 		dir.put("path", targetPath.toString());
 	}
+
+	/**
+	 * Keeps the first bytes written to it, so that only the start of a large
+	 * output ends up in the job log.
+	 */
+	private static class LogHead extends OutputStream {
+		private final ByteArrayOutputStream head = new ByteArrayOutputStream();
+		private final long limit;
+		private long count = 0;
+
+		private LogHead(long limit) {
+			this.limit = limit;
+		}
+
+		@Override
+		public void write(int b) {
+			if (count < limit) {
+				head.write(b);
+			}
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			int keep = (int) Math.max(0, Math.min(len, limit - count));
+			head.write(b, off, keep);
+			count += len;
+		}
+
+		/**
+		 * @param size the size of the whole output
+		 */
+		public String toString(long size) {
+			String text = new String(head.toByteArray(), StandardCharsets.UTF_8);
+			if (size > head.size()) {
+				text += "\n... (" + (size - head.size()) + " more bytes)";
+			}
+			return text;
+		}
+	}
 }
- 
\ No newline at end of file
@@ -1,5 +1,9 @@
 package nl.esciencecenter.computeservice.service.staging;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
 import org.commonwl.cwl.Parameter;
 
 import nl.esciencecenter.xenon.filesystems.Path;
@@ -22,6 +26,13 @@ public class StringToFileStagingObject extends BaseStagingObject {
 		this.sourceString = sourceString;
 	}
 
+	/**
+	 * Write the contents of the file to the stream, the stream is left open.
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		out.write(sourceString.getBytes(StandardCharsets.UTF_8));
+	}
+
 	public Path getTargetPath() {
 		return targetPath;
 	}
@@ -1,28 +1,43 @@
 package nl.esciencecenter.computeservice.service.staging;
 
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
+import org.apache.commons.io.output.CountingOutputStream;
 import org.commonwl.cwl.Parameter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.util.Pair;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.transaction.event.TransactionalEventListener;
 import org.springframework.web.util.UriComponentsBuilder;
 
+import nl.esciencecenter.computeservice.model.CachedInput;
 import nl.esciencecenter.computeservice.model.Job;
 import nl.esciencecenter.computeservice.model.JobRepository;
 import nl.esciencecenter.computeservice.model.JobState;
 import nl.esciencecenter.computeservice.model.StatePreconditionException;
 import nl.esciencecenter.computeservice.model.WorkflowBinding;
 import nl.esciencecenter.computeservice.service.JobService;
+import nl.esciencecenter.computeservice.service.JobStateChangedEvent;
+import nl.esciencecenter.computeservice.service.RemoteConnection;
 import nl.esciencecenter.computeservice.service.XenonMonitor;
 import nl.esciencecenter.computeservice.service.XenonService;
 import nl.esciencecenter.xenon.XenonException;
@@ -40,16 +55,29 @@ public abstract class XenonStager {
 	private JobService jobService;
 	private JobRepository repository;
 	protected XenonService service;
-	private HashMap<String, StagingJob> copyMap;
+	private Map<String, StagingJob> copyMap;
+	private ScheduledExecutorService copyPoller;
+	private ExecutorService finishers;
+	private ExecutorService transferPool;
+	private ExecutorService directoryPool;
+	private ExecutorService entryPool;
+	private final Map<String, Future<Long>> transfers = new ConcurrentHashMap<String, Future<Long>>();
+	private final Map<String, Consumer<Exception>> copyListeners = new ConcurrentHashMap<String, Consumer<Exception>>();
+	private RemoteInputCache inputCache = null;
 	
 	private static class StagingJob {
 		private final StagingManifest manifest;
+		// Copies can only be waited for and cancelled on the filesystem that started them
+		private final RemoteConnection connection;
 		private final List<String> copyIds;
 		private final List<String> cwlFileIds;
+		// Only used by the copy poller
+		private final Set<String> done = new HashSet<String>();
 		
-		public StagingJob(StagingManifest manifest, List<String> copyIds, List<String> cwlFileIds) {
+		public StagingJob(StagingManifest manifest, RemoteConnection connection, List<String> copyIds, List<String> cwlFileIds) {
 			super();
 			this.manifest = manifest;
+			this.connection = connection;
 			this.copyIds = copyIds;
 			this.cwlFileIds = cwlFileIds;
 		}
@@ -58,8 +86,8 @@ public abstract class XenonStager {
 	private static final class StagingOutJob extends StagingJob {
 		private final int exitcode;
 		
-		public StagingOutJob(int exitcode, StagingManifest manifest, List<String> copyIds, List<String> cwlFileIds) {
-			super(manifest, copyIds, cwlFileIds);
+		public StagingOutJob(int exitcode, StagingManifest manifest, RemoteConnection connection, List<String> copyIds, List<String> cwlFileIds) {
+			super(manifest, connection, copyIds, cwlFileIds);
 			this.exitcode = exitcode;
 		}
 	}
@@ -68,13 +96,37 @@ public abstract class XenonStager {
 		this.jobService = jobService;
 		this.repository = repository;
 		this.service = service;
-		this.copyMap = new LinkedHashMap<String, StagingJob>();		
+		// Staging is started from the pipeline threads, a single poller notices when the copies are done
+		this.copyMap = new ConcurrentHashMap<String, StagingJob>();
+		this.copyPoller = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("xenonflow-copy-poll-"));
+		long pollInterval = service.getConfig().getStagingConfig().getCopyPollInterval();
+		this.copyPoller.scheduleWithFixedDelay(this::pollCopies, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+		this.finishers = Executors.newFixedThreadPool(service.getConfig().getStagingConfig().getFinishThreads(),
+				new CustomizableThreadFactory("xenonflow-copy-"));
+		this.transferPool = Executors.newFixedThreadPool(service.getConfig().getStagingConfig().getTransferStreams(),
+				new CustomizableThreadFactory("xenonflow-transfer-"));
+		// Directories list both sides and wait for their files, the files are copied on the entry pool
+		this.directoryPool = Executors.newFixedThreadPool(service.getConfig().getStagingConfig().getDirectoryThreads(),
+				new CustomizableThreadFactory("xenonflow-directory-"));
+		this.entryPool = Executors.newFixedThreadPool(service.getConfig().getStagingConfig().getDirectoryStreams(),
+				new CustomizableThreadFactory("xenonflow-entry-"));
 	}
 
 	
-	protected abstract FileSystem getTargetFileSystem() throws XenonException;
-	protected abstract FileSystem getSourceFileSystem() throws XenonException;
-	protected abstract FileSystem getCwlFileSystem() throws XenonException;
+	/**
+	 * Stage input files through a cache on the target filesystem.
+	 */
+	public void setInputCache(RemoteInputCache inputCache) {
+		this.inputCache = inputCache;
+	}
+
+	/*
+	 * The filesystems to stage between for a job that uses the given
+	 * connection to its compute resource
+	 */
+	protected abstract FileSystem getTargetFileSystem(RemoteConnection remote) throws XenonException;
+	protected abstract FileSystem getSourceFileSystem(RemoteConnection remote) throws XenonException;
+	protected abstract FileSystem getCwlFileSystem(RemoteConnection remote) throws XenonException;
 
 	/**
 	 * Stages everything defined in the StagingManifest
@@ -89,15 +141,15 @@ public abstract class XenonStager {
 	 * @throws XenonException 
 	 * @throws StatePreconditionException 
 	 */
-	public Pair<List<String>,List<String>> doStaging(StagingManifest manifest) throws XenonException, StatePreconditionException {
+	public Pair<List<String>,List<String>> doStaging(StagingManifest manifest, RemoteConnection remote) throws XenonException, StatePreconditionException {
 		Logger jobLogger = LoggerFactory.getLogger("jobs." + manifest.getJobId());
 
-		FileSystem targetFileSystem = getTargetFileSystem();
-		FileSystem sourceFileSystem = getSourceFileSystem();
-		FileSystem cwlFileSystem = getCwlFileSystem();
+		FileSystem targetFileSystem = getTargetFileSystem(remote);
+		FileSystem sourceFileSystem = getSourceFileSystem(remote);
+		FileSystem cwlFileSystem = getCwlFileSystem(remote);
 
 		// Make sure the target directory exists
-		Path targetDirectory = getTargetFileSystem().getWorkingDirectory().resolve(manifest.getTargetDirectory()).toAbsolutePath();
+		Path targetDirectory = targetFileSystem.getWorkingDirectory().resolve(manifest.getTargetDirectory()).toAbsolutePath();
 		if (!targetFileSystem.exists(targetDirectory)) {
 			jobLogger.info("Creating directory: " + targetDirectory);
 			targetFileSystem.createDirectories(targetDirectory);
@@ -140,10 +192,11 @@ public abstract class XenonStager {
 				}
 				
 				jobLogger.info("Copying from " + sourcePath + " to " + targetPath);
-				String copyId = sourceFileSystem.copy(sourcePath, targetFileSystem, targetPath, CopyMode.REPLACE,
-						false);
-				stageObject.setCopyId(copyId);
-				stagingIds.add(copyId);
+				String copyId = stageFile(manifest.getJobId(), manifest.getComputeResource(), stageObject, sourceFileSystem, sourcePath, targetFileSystem, targetPath);
+				if (copyId != null) {
+					stageObject.setCopyId(copyId);
+					stagingIds.add(copyId);
+				}
 			} else if (stageObject instanceof StringToFileStagingObject) {
 				StringToFileStagingObject object = (StringToFileStagingObject) stageObject;
 				Path targetPath = targetDirectory.resolve(object.getTargetPath());
@@ -153,16 +206,14 @@ public abstract class XenonStager {
 					targetFileSystem.createDirectories(targetDir);
 				}
 				
-				jobLogger.info("Writing string to: " + targetPath);
-				String contents = object.getSourceString();
-				
-				jobLogger.debug("Input contents: " + contents);
-				
-				PrintWriter out = new PrintWriter(targetFileSystem.writeToFile(targetPath));
-				out.write(contents);
-				out.close();
-
-				stageObject.setBytesCopied(contents.length());
+				jobLogger.info("Writing contents to: " + targetPath);
+				try (CountingOutputStream out = new CountingOutputStream(targetFileSystem.writeToFile(targetPath))) {
+					object.writeTo(out);
+					out.flush();
+					stageObject.setBytesCopied(out.getByteCount());
+				} catch (IOException e) {
+					throw new XenonException(targetFileSystem.getAdaptorName(), "Could not write to " + targetPath, e);
+				}
 				
 				if (stageObject instanceof CommandScriptStagingObject) {
 					Set<PosixFilePermission> permissions = targetFileSystem.getAttributes(targetPath).getPermissions();
@@ -185,8 +236,7 @@ public abstract class XenonStager {
 				}
 				
 				jobLogger.info("Copying from " + sourcePath + " to " + targetPath);
-				String copyId = sourceFileSystem.copy(sourcePath, targetFileSystem, targetPath, CopyMode.REPLACE,
-						true);
+				String copyId = copyDirectory(manifest.getJobId(), sourceFileSystem, sourcePath, targetFileSystem, targetPath);
 				stageObject.setCopyId(copyId);
 				stagingIds.add(copyId);
 			}
@@ -194,107 +244,317 @@ public abstract class XenonStager {
 		
 		return Pair.of(stagingIds, cwlFileIds);
 	}
+
+	/**
+	 * Stage a single input file, through the input cache if there is one.
+	 *
+	 * @return the id of the copy, or null if the file was linked from the cache.
+	 */
+	private String stageFile(String jobId, String computeResource, StagingObject stageObject, FileSystem sourceFileSystem, Path sourcePath,
+			FileSystem targetFileSystem, Path targetPath) throws XenonException {
+		CachedInput cached = inputCache == null ? null : inputCache.acquire(jobId, computeResource, sourceFileSystem, sourcePath, targetFileSystem);
+		if (cached == null) {
+			return copyFile(jobId, sourceFileSystem, sourcePath, targetFileSystem, targetPath);
+		}
+
+		Logger jobLogger = LoggerFactory.getLogger("jobs." + jobId);
+		Path cachePath = new Path(cached.getPath());
+		String copyId = null;
+		if (cached.isReady()) {
+			stageObject.setBytesCopied(cached.getSize());
+		} else {
+			// The first job to use this file copies it into the cache
+			jobLogger.info("Copying " + sourcePath + " into the input cache at " + cachePath);
+			copyId = copyFile(jobId, sourceFileSystem, sourcePath, targetFileSystem, cachePath);
+			copyListeners.put(copyId, error -> inputCache.completed(cached, error));
+		}
+
+		if (targetFileSystem.exists(targetPath)) {
+			targetFileSystem.delete(targetPath, false);
+		}
+		jobLogger.info("Linking " + targetPath + " to cached input " + cachePath);
+		targetFileSystem.createSymbolicLink(targetPath, cachePath);
+		return copyId;
+	}
+
+	/**
+	 * Start the copy of a single file. Large files are copied with a
+	 * ResumableTransfer, so that a copy that was interrupted by a restart
+	 * continues where it left off.
+	 *
+	 * @return the id of the copy, or of the transfer for large files.
+	 */
+	private String copyFile(String jobId, FileSystem sourceFileSystem, Path sourcePath, FileSystem targetFileSystem, Path targetPath) throws XenonException {
+		long threshold = service.getConfig().getStagingConfig().getResumableThreshold();
+		if (threshold > 0) {
+			long size = sourceFileSystem.getAttributes(sourcePath).getSize();
+			if (size >= threshold) {
+				// Progress goes to the job log, a restart resumes from what is in the target
+				Logger jobLogger = LoggerFactory.getLogger("jobs." + jobId);
+				ResumableTransfer transfer = new ResumableTransfer(sourceFileSystem, sourcePath, targetFileSystem, targetPath, size,
+						bytes -> jobLogger.info("Copied " + bytes + " of " + size + " bytes to " + targetPath));
+				String transferId = "transfer-" + UUID.randomUUID().toString();
+				transfers.put(transferId, transferPool.submit(transfer));
+				return transferId;
+			}
+		}
+		return sourceFileSystem.copy(sourcePath, targetFileSystem, targetPath, CopyMode.REPLACE, false);
+	}
 	
-	public void updateStaging() {
-		for(Iterator<Map.Entry<String,StagingJob>> stagingEntries=copyMap.entrySet().iterator(); stagingEntries.hasNext();) {
-			Map.Entry<String,StagingJob> entry = stagingEntries.next();
-			String jobId = entry.getKey();
-			StagingJob stagingJob = entry.getValue();
-			
-			StagingManifest manifest = stagingJob.manifest;
-			List<String> copyIds = stagingJob.copyIds;
-			List<String> cwlFileIds = stagingJob.cwlFileIds;
-			Logger jobLogger = LoggerFactory.getLogger("jobs." + jobId);
-			
-			Optional<Job> j = repository.findById(jobId);		
-			if (!j.isPresent()) {
-				logger.error("Could not find job with id: " + jobId);
-				jobLogger.error("Could not find job with id: " + jobId);
+	/**
+	 * Start the copy of a directory, see DirectoryTransfer.
+	 *
+	 * @return the id of the transfer.
+	 */
+	private String copyDirectory(String jobId, FileSystem sourceFileSystem, Path sourcePath, FileSystem targetFileSystem, Path targetPath) {
+		Logger jobLogger = LoggerFactory.getLogger("jobs." + jobId);
+		DirectoryTransfer transfer = new DirectoryTransfer(sourceFileSystem, sourcePath, targetFileSystem, targetPath, entryPool,
+				service.getConfig().getStagingConfig().getResumableThreshold(),
+				bytes -> jobLogger.info("Copied " + bytes + " bytes to " + targetPath));
+		String transferId = "transfer-" + UUID.randomUUID().toString();
+		transfers.put(transferId, directoryPool.submit(transfer));
+		return transferId;
+	}
+
+	/**
+	 * Hand the copies of a job to the copy poller. The job is moved on as
+	 * soon as the poller finds its last copy done.
+	 */
+	private void track(String jobId, StagingJob stagingJob) {
+		if (copyPoller.isShutdown()) {
+			service.releaseConnection(stagingJob.connection);
+			logger.debug("Not waiting for the copies of " + jobId + ", shutting down");
+			return;
+		}
+		copyMap.put(jobId, stagingJob);
+	}
+
+	private void pollCopies() {
+		for (Map.Entry<String, StagingJob> entry : copyMap.entrySet()) {
+			try {
+				pollCopies(entry.getKey(), entry.getValue());
+			} catch (RuntimeException e) {
+				// The poller has to keep running for the other jobs
+				logger.error("Error while checking the copies of " + entry.getKey(), e);
+			}
+		}
+	}
+
+	private void pollCopies(String jobId, StagingJob stagingJob) {
+		try {
+			if (!pollCopies(jobId, stagingJob, getSourceFileSystem(stagingJob.connection), stagingJob.copyIds)
+					|| !pollCopies(jobId, stagingJob, getCwlFileSystem(stagingJob.connection), stagingJob.cwlFileIds)) {
 				return;
 			}
-			Job job = j.get();
-			
-			try {
-				FileSystem sourceFileSystem = getSourceFileSystem();
-				FileSystem cwlFileSystem = getCwlFileSystem();
+		} catch (XenonException e) {
+			failStaging(jobId, stagingJob, e, JobState.SYSTEM_ERROR);
+			return;
+		}
 
-				// Check if the job has been cancelled
-				if (job.getInternalState().isCancellationActive() || job.getInternalState().isDeletionActive()) {
-					for (String id: copyIds) {
-						sourceFileSystem.cancel(id);
-					}
-					for (String id: cwlFileIds) {
-						cwlFileSystem.cancel(id);
-					}
-					stagingEntries.remove();
-					continue;
+		// Only one of completion, failure and cancellation gets to remove the job
+		if (!copyMap.remove(jobId, stagingJob)) {
+			return;
+		}
+		try {
+			finishers.execute(() -> finish(jobId, stagingJob));
+		} catch (RejectedExecutionException e) {
+			service.releaseConnection(stagingJob.connection);
+			logger.debug("Not finishing the staging of " + jobId + ", shutting down");
+		}
+	}
+
+	private void finish(String jobId, StagingJob stagingJob) {
+		try {
+			finishStaging(jobId, stagingJob);
+		} catch (XenonException | StatePreconditionException | IOException e) {
+			jobService.setErrorAndState(jobId, e, stagingState(stagingJob), JobState.SYSTEM_ERROR);
+		} finally {
+			service.releaseConnection(stagingJob.connection);
+		}
+	}
+
+	/**
+	 * Check the copies that are not done yet, in order, without waiting for
+	 * them.
+	 *
+	 * @return true if all copies finished, false if one is still running, failed or the staging was cancelled.
+	 */
+	private boolean pollCopies(String jobId, StagingJob stagingJob, FileSystem fileSystem, List<String> copyIds) throws XenonException {
+		for (String id : copyIds) {
+			if (stagingJob.done.contains(id)) {
+				continue;
+			}
+			Exception error = null;
+			long bytesCopied = 0;
+
+			Future<Long> transfer = transfers.get(id);
+			if (transfer != null) {
+				if (!transfer.isDone()) {
+					return false;
 				}
-				
-				// Check the status of the copies of the job
-				for (Iterator<String> iterator=copyIds.iterator(); iterator.hasNext();) {
-					checkAndReportCopy(jobId, manifest, jobLogger, job, sourceFileSystem, iterator);
+				transfers.remove(id);
+				try {
+					bytesCopied = transfer.get();
+				} catch (ExecutionException e) {
+					error = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+				} catch (CancellationException e) {
+					error = e;
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
 				}
-				for (Iterator<String> iterator=cwlFileIds.iterator(); iterator.hasNext();) {
-					checkAndReportCopy(jobId, manifest, jobLogger, job, cwlFileSystem, iterator);
+			} else {
+				CopyStatus s = fileSystem.getStatus(id);
+				if (!s.isDone()) {
+					return false;
 				}
-				
-				// All statuses have been updated, if there are no more copyIds were done with staging
-				if (copyIds.isEmpty()) {
-					// No longer staging files for this job
-					stagingEntries.remove();
-					if (job.getInternalState() == JobState.STAGING_IN) {
-						job = jobService.setJobState(jobId, JobState.STAGING_IN, JobState.STAGING_READY);
-						jobLogger.info("StageIn complete.");
-						logger.info(job.getId()+": staging in complete.");
-					} else if (job.getInternalState() == JobState.STAGING_OUT){
-						WorkflowBinding files = null;
-						if (manifest.size() > 0) {
-				    		files = postStageout(job, manifest);
-				    		jobLogger.info("Fixed output: " + files.toIndentedString());
-				    	} else {
-				    		jobLogger.warn("There are no files to stage.");
-				    	}
-				    	
-				        jobLogger.info("StageOut complete.");
-				        logger.info(job.getId()+": staging out complete.");
-				        
-				        int exitcode = ((StagingOutJob)stagingJob).exitcode;
-
-				        if (!job.getInternalState().isFinal()) {
-				        	if (exitcode == 0) {
-				        		job = jobService.completeJob(jobId, files, JobState.STAGING_OUT, JobState.SUCCESS);
-				        		logger.info(job.getId()+": job completed successfully.");
-				        	} else {
-				        		job = jobService.completeJob(jobId, files, JobState.STAGING_OUT, JobState.PERMANENT_FAILURE);
-				        		logger.info(job.getId()+": job completed with errors, exitcode: " + exitcode);
-				        	}
-				        }
+				error = s.getException();
+				bytesCopied = s.bytesCopied();
+			}
+			stagingJob.done.add(id);
+
+			notifyCopyListener(id, error);
+
+			if (copyMap.get(jobId) != stagingJob) {
+				// Cancelled in the meantime
+				return false;
+			}
+			if (error != null) {
+				failStaging(jobId, stagingJob, error, JobState.PERMANENT_FAILURE);
+				return false;
+			}
+			StagingObject stageObject = stagingJob.manifest.getByCopyid(id);
+			stageObject.setBytesCopied(bytesCopied);
+		}
+		return true;
+	}
+
+	private void finishStaging(String jobId, StagingJob stagingJob) throws StatePreconditionException, IOException, XenonException {
+		Logger jobLogger = LoggerFactory.getLogger("jobs." + jobId);
+		Optional<Job> j = repository.findById(jobId);
+		if (!j.isPresent()) {
+			logger.debug("Job " + jobId + " was deleted during staging");
+			return;
+		}
+		Job job = j.get();
+
+		if (!(stagingJob instanceof StagingOutJob)) {
+			job = jobService.setJobState(jobId, JobState.STAGING_IN, JobState.STAGING_READY);
+			jobLogger.info("StageIn complete.");
+			logger.info(job.getId()+": staging in complete.");
+			return;
+		}
+
+		StagingManifest manifest = stagingJob.manifest;
+		WorkflowBinding files = null;
+		if (manifest.size() > 0) {
+			files = postStageout(job, manifest, stagingJob.connection);
+			jobLogger.info("Fixed output: " + files.toIndentedString());
+		} else {
+			jobLogger.warn("There are no files to stage.");
+		}
+
+		jobLogger.info("StageOut complete.");
+		logger.info(job.getId()+": staging out complete.");
+
+		int exitcode = ((StagingOutJob)stagingJob).exitcode;
+
+		if (!job.getInternalState().isFinal()) {
+			if (exitcode == 0) {
+				job = jobService.completeJob(jobId, files, JobState.STAGING_OUT, JobState.SUCCESS);
+				logger.info(job.getId()+": job completed successfully.");
+			} else {
+				job = jobService.completeJob(jobId, files, JobState.STAGING_OUT, JobState.PERMANENT_FAILURE);
+				logger.info(job.getId()+": job completed with errors, exitcode: " + exitcode);
+			}
+		}
+	}
+
+	/**
+	 * Cancels the copies of a job as soon as it is cancelled or deleted.
+	 */
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onJobStateChanged(JobStateChangedEvent event) {
+		String jobId = event.getJobId();
+		StagingJob stagingJob = copyMap.get(jobId);
+		if (stagingJob == null) {
+			return;
+		}
+		JobState to = event.getTo();
+		if (to != null && !to.isCancellationActive() && !to.isDeletionActive()) {
+			return;
+		}
+		if (!copyMap.remove(jobId, stagingJob)) {
+			return;
+		}
+		cancelCopies(stagingJob);
+		service.releaseConnection(stagingJob.connection);
+
+		if (to != null && to.isCancellationActive()) {
+			// Not on this thread, the transaction that published the event is already committed
+			try {
+				finishers.execute(() -> {
+					try {
+						jobService.setJobState(jobId, to, JobState.CANCELLED);
+					} catch (StatePreconditionException e) {
+						logger.debug("Not cancelling " + jobId + ": " + e.getMessage());
 					}
-				}
-			} catch (XenonException | StatePreconditionException | IOException e) {
-				jobLogger.error("Error during execution of " + job.getName() + "(" + job.getId() + ")", e);
-				logger.error("Error during execution of " + job.getName() + "(" + job.getId() + ")", e);
-				jobService.setErrorAndState(job.getId(), e, job.getInternalState(), JobState.SYSTEM_ERROR);
-				copyMap.remove(jobId);
+				});
+			} catch (RejectedExecutionException e) {
+				logger.debug("Not cancelling " + jobId + ", shutting down");
 			}
 		}
 	}
 
+	public void shutdown() {
+		copyPoller.shutdownNow();
+		finishers.shutdownNow();
+		transferPool.shutdownNow();
+		directoryPool.shutdownNow();
+		entryPool.shutdownNow();
+	}
 
-	private void checkAndReportCopy(String jobId, StagingManifest manifest, Logger jobLogger, Job job,
-			FileSystem sourceFileSystem, Iterator<String> iterator) throws XenonException {
-		String id = iterator.next();
-		CopyStatus s = sourceFileSystem.getStatus(id);
-		
-		if (s.hasException()) {
-			jobLogger.error("Error during execution of " + job.getName() + "(" + job.getId() + ")", s.getException());
-			logger.error("Error during execution of " + job.getName() + "(" + job.getId() + ")", s.getException());
-			jobService.setErrorAndState(job.getId(), s.getException(), job.getInternalState(), JobState.PERMANENT_FAILURE);
-			copyMap.remove(jobId);
-		} else if (s.isDone()) {
-			StagingObject stageObject = manifest.getByCopyid(id);
-			stageObject.setBytesCopied(s.bytesCopied());
-			iterator.remove();
+	private void notifyCopyListener(String copyId, Exception error) {
+		Consumer<Exception> listener = copyListeners.remove(copyId);
+		if (listener != null) {
+			try {
+				listener.accept(error);
+			} catch (RuntimeException e) {
+				logger.error("Error while handling the end of copy " + copyId, e);
+			}
+		}
+	}
+
+	private void failStaging(String jobId, StagingJob stagingJob, Exception e, JobState to) {
+		if (copyMap.remove(jobId, stagingJob)) {
+			cancelCopies(stagingJob);
+			service.releaseConnection(stagingJob.connection);
+			jobService.setErrorAndState(jobId, e, stagingState(stagingJob), to);
+		}
+	}
+
+	private static JobState stagingState(StagingJob stagingJob) {
+		return stagingJob instanceof StagingOutJob ? JobState.STAGING_OUT : JobState.STAGING_IN;
+	}
+
+	private void cancelCopies(StagingJob stagingJob) {
+		try {
+			FileSystem sourceFileSystem = getSourceFileSystem(stagingJob.connection);
+			FileSystem cwlFileSystem = getCwlFileSystem(stagingJob.connection);
+			for (String id: stagingJob.copyIds) {
+				notifyCopyListener(id, new CancellationException("Staging was cancelled"));
+				Future<Long> transfer = transfers.remove(id);
+				if (transfer != null) {
+					transfer.cancel(true);
+				} else {
+					sourceFileSystem.cancel(id);
+				}
+			}
+			for (String id: stagingJob.cwlFileIds) {
+				cwlFileSystem.cancel(id);
+			}
+		} catch (XenonException e) {
+			logger.error("Error while cancelling copies", e);
 		}
 	}
 	
@@ -307,10 +567,18 @@ public abstract class XenonStager {
 	 * @throws XenonException 
 	 */
 	public void stageIn(StagingManifest manifest) throws XenonException, StatePreconditionException {	
-		Pair<List<String>, List<String>> ids = doStaging(manifest);
+		// Held until the copies are done, jobs that stage at the same time use different connections
+		RemoteConnection connection = service.borrowConnection(manifest.getComputeResource());
+		Pair<List<String>, List<String>> ids;
+		try {
+			ids = doStaging(manifest, connection);
+		} catch (XenonException | StatePreconditionException | RuntimeException e) {
+			service.releaseConnection(connection);
+			throw e;
+		}
 		
-		StagingJob stagingJob = new StagingJob(manifest, ids.getFirst(), ids.getSecond());
-		copyMap.put(manifest.getJobId(), stagingJob);
+		StagingJob stagingJob = new StagingJob(manifest, connection, ids.getFirst(), ids.getSecond());
+		track(manifest.getJobId(), stagingJob);
 	}
 
 	/**
@@ -328,21 +596,26 @@ public abstract class XenonStager {
 	 * @throws IOException 
 	 */
 	public void stageOut(StagingManifest manifest, int exitcode) throws StatePreconditionException, IOException, XenonException {
+		RemoteConnection connection = null;
 		try {
-			Pair<List<String>, List<String>> ids = doStaging(manifest);
-			StagingOutJob stagingJob = new StagingOutJob(exitcode, manifest, ids.getFirst(), ids.getSecond());
-			copyMap.put(manifest.getJobId(), stagingJob);
+			connection = service.borrowConnection(manifest.getComputeResource());
+			Pair<List<String>, List<String>> ids = doStaging(manifest, connection);
+			StagingOutJob stagingJob = new StagingOutJob(exitcode, manifest, connection, ids.getFirst(), ids.getSecond());
+			track(manifest.getJobId(), stagingJob);
 		} catch (XenonException e) {
+			if (connection != null) {
+				service.releaseConnection(connection);
+			}
 			jobService.setErrorAndState(manifest.getJobId(), e, JobState.STAGING_OUT, JobState.PERMANENT_FAILURE);
 		}
 	}
 	
 	@SuppressWarnings("unchecked")
-	public WorkflowBinding postStageout(Job job, StagingManifest manifest) throws IOException, XenonException {
+	public WorkflowBinding postStageout(Job job, StagingManifest manifest, RemoteConnection remote) throws IOException, XenonException {
 		Logger jobLogger = LoggerFactory.getLogger("jobs." + manifest.getJobId());
 		WorkflowBinding binding = job.getOutput();
 		
-		FileSystem targetFileSystem = getTargetFileSystem();
+		FileSystem targetFileSystem = getTargetFileSystem(remote);
 		
 		jobLogger.debug("Starting postStageout");
 		for (StagingObject stageObject : manifest) {
@@ -400,7 +673,7 @@ public abstract class XenonStager {
 				}
 				binding.put(outputTarget, outputObject);
 			} else if (stageObject instanceof DirectoryStagingObject) {
-				fixDirectoryStagingObject(job, manifest, stageObject, binding, jobLogger);
+				fixDirectoryStagingObject(job, manifest, stageObject, binding, targetFileSystem, jobLogger);
 			}
 //			} else if (stageObject instanceof FileToStringStagingObject) {
 //				FileToStringStagingObject object = (FileToStringStagingObject) stageObject;
@@ -435,7 +708,7 @@ public abstract class XenonStager {
 	
 	@SuppressWarnings("unchecked")
 	public void fixDirectoryStagingObject(Job job, StagingManifest manifest,
-			StagingObject stageObject, WorkflowBinding binding, Logger jobLogger) throws XenonException {
+			StagingObject stageObject, WorkflowBinding binding, FileSystem targetFileSystem, Logger jobLogger) throws XenonException {
 		DirectoryStagingObject object = (DirectoryStagingObject) stageObject;
 		Parameter parameter = object.getParameter();
 		
@@ -450,8 +723,6 @@ public abstract class XenonStager {
 			}
 		}
 		
-		FileSystem targetFileSystem = getTargetFileSystem();
-		
 		UriComponentsBuilder b = createUriBuilderFromObject(manifest, targetFileSystem, object);
 		
 
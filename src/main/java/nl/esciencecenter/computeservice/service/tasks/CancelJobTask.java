@@ -0,0 +1,172 @@
+package nl.esciencecenter.computeservice.service.tasks;
+
+import java.util.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import nl.esciencecenter.computeservice.model.Job;
+import nl.esciencecenter.computeservice.model.JobRepository;
+import nl.esciencecenter.computeservice.model.JobState;
+import nl.esciencecenter.computeservice.model.StatePreconditionException;
+import nl.esciencecenter.computeservice.service.JobBatch;
+import nl.esciencecenter.computeservice.service.JobService;
+import nl.esciencecenter.computeservice.service.XenonService;
+import nl.esciencecenter.computeservice.service.staging.XenonStager;
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.adaptors.schedulers.JobCanceledException;
+import nl.esciencecenter.xenon.schedulers.JobStatus;
+import nl.esciencecenter.xenon.schedulers.NoSuchJobException;
+import nl.esciencecenter.xenon.schedulers.Scheduler;
+
+@Component
+public class CancelJobTask {
+	private static final Logger logger = LoggerFactory.getLogger(CancelJobTask.class);
+
+	@Autowired
+	private XenonService xenonService;
+
+	@Autowired
+	private JobRepository repository;
+
+	@Autowired
+	private JobService jobService;
+
+	@Autowired
+	private XenonStager remoteToTargetStager;
+
+	public void cancelJob(String jobId) {
+		Optional<Job> j = repository.findById(jobId);
+		if (!j.isPresent()) {
+			logger.debug("Not cancelling job " + jobId + ", it no longer exists");
+			return;
+		}
+		Job job = j.get();
+
+		if (job.getBatchId() != null && job.getInternalState().isCancellationActive()) {
+			cancelBatchedJob(job);
+		} else if (job.getInternalState() == JobState.WAITING_CR) {
+			cancelWaitingJob(job);
+		} else if (job.getInternalState() == JobState.RUNNING_CR) {
+			cancelRunningJob(job);
+		}
+	}
+
+	private void cancelRunningJob(Job job) {
+		Logger jobLogger = LoggerFactory.getLogger("jobs." + job.getId());
+		try {
+			String xenonJobId = job.getXenonId();
+			if (xenonJobId != null && !xenonJobId.isEmpty()) {
+				Scheduler scheduler = xenonService.getScheduler(job.getComputeResource());
+				JobStatus status = scheduler.getJobStatus(xenonJobId);
+
+				if (status.isRunning()) {
+					status = scheduler.cancelJob(job.getXenonId());
+					jobService.setXenonState(job.getId(), status.getState());
+				} else {
+					if (status.hasException() && !(status.getException() instanceof JobCanceledException)) {
+						jobService.update(job.getId())
+							.exitCode(status.getExitCode())
+							.error(status.getException())
+							.transition(JobState.RUNNING_CR, JobState.PERMANENT_FAILURE)
+							.apply();
+					} else {
+						logger.debug("Cancelled job: " + job.getId() + " new status: " + status);
+						jobService.update(job.getId())
+							.xenonState(status.getState())
+							.exitCode(status.getExitCode())
+							.transition(JobState.RUNNING_CR, JobState.CANCELLED)
+							.apply();
+					}
+				}
+			}
+		} catch (NoSuchJobException e) {
+			// It was running at some moment in time, so lets try to retrieve the output.
+			tryRecoverJobOutput(job);
+			if (job.getInternalState().isCancellationActive()) {
+				// We can't find the job that we're cancelling. That's awesome let's continue!
+				try {
+					jobService.setJobState(job.getId(), job.getInternalState(), JobState.CANCELLED);
+				} catch (StatePreconditionException e1) {
+					jobLogger.error("Error during execution of " + job.getName() + "(" + job.getId() + ")", e);
+					logger.error("Error during execution of " + job.getName() + "(" + job.getId() + ")", e);
+				}
+			} else {
+				jobService.setErrorAndState(job.getId(), e, job.getInternalState(), JobState.SYSTEM_ERROR);
+				jobLogger.error("Error during execution of " + job.getName() + "(" + job.getId() + ")", e);
+				logger.error("Error during execution of " + job.getName() + "(" + job.getId() + ")", e);
+			}
+		} catch (XenonException | StatePreconditionException e) {
+			jobLogger.error("Error while cancelling execution of " + job.getName() + "(" + job.getId() + ") -- scheduler connection lost?", e);
+			logger.error("Error while cancelling execution of " + job.getName() + "(" + job.getId() + ") -- scheduler connection lost?", e);
+		}
+	}
+
+	/**
+	 * Cancelling the scheduler job would cancel the whole batch, so the job
+	 * is skipped by the batch instead, which kills it when it is already
+	 * running. The batch itself is cancelled with its last job.
+	 */
+	private void cancelBatchedJob(Job job) {
+		Logger jobLogger = LoggerFactory.getLogger("jobs." + job.getId());
+		try {
+			JobBatch batch = new JobBatch(xenonService.getRemoteFileSystem(job.getComputeResource()), job.getBatchId());
+			batch.skip(job.getId());
+			jobService.setJobState(job.getId(), job.getInternalState(), JobState.CANCELLED);
+
+			boolean active = repository.findSummariesByBatchId(job.getBatchId()).stream()
+					.anyMatch(j -> !j.getInternalState().isFinal());
+			if (!active) {
+				logger.debug("Cancelling " + job.getBatchId() + ", it has no jobs left");
+				try {
+					xenonService.getScheduler(job.getComputeResource()).cancelJob(job.getXenonId());
+				} catch (NoSuchJobException e) {
+					// The batch already ended
+				}
+				batch.delete();
+			}
+		} catch (XenonException | StatePreconditionException e) {
+			jobLogger.error("Error while cancelling execution of " + job.getName() + "(" + job.getId() + ") in " + job.getBatchId(), e);
+			logger.error("Error while cancelling execution of " + job.getName() + "(" + job.getId() + ") in " + job.getBatchId(), e);
+		}
+	}
+
+	private void cancelWaitingJob(Job job) {
+		Logger jobLogger = LoggerFactory.getLogger("jobs." + job.getId());
+		try {
+			String xenonJobId = job.getXenonId();
+			if (xenonJobId != null && !xenonJobId.isEmpty()) {
+				Scheduler scheduler = xenonService.getScheduler(job.getComputeResource());
+				JobStatus status = scheduler.getJobStatus(xenonJobId);
+
+				if (!status.hasException()) {
+					status = scheduler.cancelJob(job.getXenonId());
+					logger.debug("Cancelled job: " + job.getId() + " new status: " + status);
+				}
+
+				jobService.setJobState(job.getId(), JobState.WAITING_CR, JobState.CANCELLED);
+			}
+		} catch (NoSuchJobException e) {
+			jobService.setErrorAndState(job.getId(), e, job.getInternalState(), JobState.SYSTEM_ERROR);
+			tryRecoverJobOutput(job);
+		} catch (XenonException | StatePreconditionException e) {
+			jobLogger.error("Error while cancelling execution of " + job.getName() + "(" + job.getId() + ") -- scheduler connection lost?", e);
+			logger.error("Error while cancelling execution of " + job.getName() + "(" + job.getId() + ") -- scheduler connection lost?", e);
+		}
+	}
+
+	private void tryRecoverJobOutput(Job job) {
+		logger.info("Could not recover job" + job + " it is probably lost...");
+		Logger jobLogger = LoggerFactory.getLogger("jobs." + job.getId());
+		try {
+			// Let's try to stage back what we can
+			CwlStageOutTask stageOut = new CwlStageOutTask(job.getId(), null, remoteToTargetStager, xenonService);
+			stageOut.run();
+		} catch (XenonException e) {
+			jobLogger.error("Error during execution of " + job.getName() + "(" + job.getId() + ")", e);
+			logger.error("Error during execution of " + job.getName() + "(" + job.getId() + ")", e);
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package nl.esciencecenter.computeservice.service.tasks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.esciencecenter.computeservice.config.ComputeResource;
+import nl.esciencecenter.computeservice.model.Job;
+import nl.esciencecenter.computeservice.model.JobState;
+import nl.esciencecenter.computeservice.service.JobBatch;
+import nl.esciencecenter.computeservice.service.JobService;
+import nl.esciencecenter.computeservice.service.JobUpdate;
+import nl.esciencecenter.computeservice.service.RemoteConnection;
+import nl.esciencecenter.computeservice.service.XenonService;
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.adaptors.NotConnectedException;
+
+/**
+ * Submits a number of jobs that are ready to run as a single scheduler job,
+ * see JobBatch. The jobs have to be in the XENON_SUBMIT state.
+ */
+public class CwlBatchTask implements Runnable {
+	private static final Logger logger = LoggerFactory.getLogger(CwlBatchTask.class);
+
+	private String computeResource;
+	private List<Job> jobs;
+
+	private XenonService service;
+	private JobService jobService;
+
+	public CwlBatchTask(String computeResource, List<Job> jobs, XenonService service) {
+		this.computeResource = computeResource;
+		this.jobs = jobs;
+		this.service = service;
+		this.jobService = service.getJobService();
+	}
+
+	@Override
+	public void run() {
+		String batchId = "batch-" + UUID.randomUUID().toString();
+		JobBatch batch = null;
+		RemoteConnection connection = null;
+		try {
+			ComputeResource resource = service.getConfig().computeResource(computeResource);
+			if (resource == null) {
+				// Removed from the config since the jobs were submitted
+				throw new XenonException("xenonflow", "Compute resource " + service.getConfig().computeResourceName(computeResource) + " is not configured");
+			}
+			connection = service.borrowConnection(computeResource);
+			batch = new JobBatch(connection.getFileSystem(), batchId);
+			batch.writeScript(jobs);
+
+			nl.esciencecenter.xenon.schedulers.JobDescription description = new nl.esciencecenter.xenon.schedulers.JobDescription();
+			description.setExecutable("bash");
+			description.setArguments(JobBatch.SCRIPT);
+			description.setStdout("batch-stdout.txt");
+			description.setStderr("batch-stderr.txt");
+			description.setWorkingDirectory(batch.getDirectory().toString());
+
+			// The jobs run one after the other
+			int maxTimeMinutes = resource.getMaxTime();
+			if (maxTimeMinutes > 0) {
+				description.setMaxRuntime(maxTimeMinutes * jobs.size());
+			}
+
+			logger.debug("Submitting " + batchId + " with " + jobs.size() + " jobs: " + description);
+
+			String xenonJobId = null;
+			int tries = 0;
+			while(xenonJobId == null && tries < 3) {
+				try {
+					tries++;
+					if (connection == null) {
+						connection = service.borrowConnection(computeResource);
+					}
+					xenonJobId = connection.getScheduler().submitBatchJob(description);
+				} catch (NotConnectedException e) {
+					if (connection != null) {
+						service.invalidateConnection(connection);
+						connection = null;
+					}
+					logger.warn("Try: " + tries + ". Exception during submission of " + batchId + ", using a new connection for next attempt");
+				}
+			}
+			if (xenonJobId == null) {
+				throw new XenonException("xenonflow", "Failed to submit " + batchId + " after " + tries + " tries, giving up");
+			}
+
+			logger.info("Submitted " + jobs.size() + " jobs in " + batchId + ", xenon jobid: " + xenonJobId);
+			List<JobUpdate> updates = new ArrayList<JobUpdate>();
+			for (Job job : jobs) {
+				LoggerFactory.getLogger("jobs." + job.getId()).info("Xenon jobid: " + xenonJobId + " (" + batchId + ")");
+				updates.add(jobService.update(job.getId())
+						.xenonId(xenonJobId)
+						.batchId(batchId)
+						.transition(JobState.XENON_SUBMIT, JobState.WAITING));
+			}
+			skipCancelled(connection, batch, xenonJobId, jobService.apply(updates));
+		} catch (XenonException e) {
+			logger.error("Error during submission of " + batchId, e);
+			List<JobUpdate> updates = new ArrayList<JobUpdate>();
+			for (Job job : jobs) {
+				updates.add(jobService.update(job.getId())
+						.error(e)
+						.transition(JobState.XENON_SUBMIT, JobState.SYSTEM_ERROR));
+			}
+			jobService.apply(updates);
+			if (batch != null) {
+				batch.delete();
+			}
+		} finally {
+			if (connection != null) {
+				service.releaseConnection(connection);
+			}
+		}
+	}
+
+	/**
+	 * A job that was cancelled or deleted while the batch was submitted is no
+	 * longer in XENON_SUBMIT and was not updated, the batch should not run it.
+	 */
+	private void skipCancelled(RemoteConnection connection, JobBatch batch, String xenonJobId, List<Job> updated) {
+		Set<String> submitted = updated.stream().map(Job::getId).collect(Collectors.toSet());
+		try {
+			if (submitted.isEmpty()) {
+				logger.info("All jobs in " + batch.getBatchId() + " were cancelled, cancelling the batch");
+				connection.getScheduler().cancelJob(xenonJobId);
+				batch.delete();
+				return;
+			}
+			for (Job job : jobs) {
+				if (!submitted.contains(job.getId())) {
+					logger.debug("Skipping " + job.getId() + " in " + batch.getBatchId() + ", it is no longer waiting to be submitted");
+					batch.skip(job.getId());
+				}
+			}
+		} catch (XenonException e) {
+			logger.error("Could not skip the cancelled jobs in " + batch.getBatchId(), e);
+		}
+	}
+}
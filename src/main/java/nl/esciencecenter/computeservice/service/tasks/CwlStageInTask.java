@@ -7,6 +7,7 @@ import org.commonwl.cwl.CwlException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import nl.esciencecenter.computeservice.config.ComputeResource;
 import nl.esciencecenter.computeservice.model.Job;
 import nl.esciencecenter.computeservice.model.JobRepository;
 import nl.esciencecenter.computeservice.model.JobState;
@@ -64,13 +65,22 @@ public class CwlStageInTask implements Runnable {
 			}
 			
 			
-			String cwlCommand = service.getConfig().defaultComputeResource().getCwlCommand();
+			ComputeResource resource = service.getConfig().computeResource(job.getComputeResource());
+			if (resource == null) {
+				// Removed from the config since the job was submitted
+				XenonflowException e = new XenonflowException("Compute resource " + service.getConfig().computeResourceName(job.getComputeResource()) + " is not configured");
+				jobService.setErrorAndState(jobId, e, JobState.STAGING_IN, JobState.SYSTEM_ERROR);
+				return;
+			}
+			
+			String cwlCommand = resource.getCwlCommand();
 			// Staging files
 			StagingManifest manifest = StagingManifestFactory.createStagingInManifest(job, service.getCwlFileSystem(), service.getSourceFileSystem(), cwlCommand, jobLogger, jobService);
 	       
+			// The job can move on as soon as the copies are done, so set this first
+			jobService.setXenonRemoteDir(jobId, service.getRemoteFileSystem(job.getComputeResource()).getWorkingDirectory().resolve(manifest.getTargetDirectory()));
+
 			sourceToRemoteStager.stageIn(manifest);
-	        
-	        jobService.setXenonRemoteDir(jobId, service.getRemoteFileSystem().getWorkingDirectory().resolve(manifest.getTargetDirectory()));
 		} catch (CwlException | StatePreconditionException e) {
 			jobLogger.error("Error during stage-in: ", e);
 			logger.error("Error during stage-in: ", e);
@@ -5,16 +5,18 @@ import java.util.ArrayList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import nl.esciencecenter.computeservice.config.ComputeResource;
 import nl.esciencecenter.computeservice.model.Job;
 import nl.esciencecenter.computeservice.model.JobRepository;
 import nl.esciencecenter.computeservice.model.JobState;
 import nl.esciencecenter.computeservice.model.StatePreconditionException;
+import nl.esciencecenter.computeservice.model.XenonflowException;
 import nl.esciencecenter.computeservice.service.JobService;
+import nl.esciencecenter.computeservice.service.RemoteConnection;
 import nl.esciencecenter.computeservice.service.XenonService;
 import nl.esciencecenter.xenon.XenonException;
 import nl.esciencecenter.xenon.adaptors.NotConnectedException;
 import nl.esciencecenter.xenon.filesystems.Path;
-import nl.esciencecenter.xenon.schedulers.Scheduler;
 
 public class CwlWorkflowTask implements Runnable {
 	private static final Logger logger = LoggerFactory.getLogger(CwlWorkflowTask.class);
@@ -36,9 +38,8 @@ public class CwlWorkflowTask implements Runnable {
 	public void run() {
 		Logger jobLogger = LoggerFactory.getLogger("jobs." + jobId);
 		Job job = repository.findById(jobId).get();
+		RemoteConnection connection = null;
 		try {
-			Scheduler scheduler = service.getScheduler();
-
 			job = repository.findById(jobId).get();
 
 			if (job.getInternalState().isCancellationActive()) {
@@ -50,6 +51,14 @@ public class CwlWorkflowTask implements Runnable {
 				return;
 			}
 
+			ComputeResource resource = service.getConfig().computeResource(job.getComputeResource());
+			if (resource == null) {
+				// Removed from the config since the job was submitted
+				XenonflowException e = new XenonflowException("Compute resource " + service.getConfig().computeResourceName(job.getComputeResource()) + " is not configured");
+				jobService.setErrorAndState(jobId, e, JobState.XENON_SUBMIT, JobState.SYSTEM_ERROR);
+				return;
+			}
+
 			Path remoteDirectory = job.getSandboxDirectory();
 
 			// Create a new job description
@@ -67,7 +76,7 @@ public class CwlWorkflowTask implements Runnable {
 			description.setStdout("stdout.txt");
 			description.setStderr("stderr.txt");
 			
-			int maxTimeMinutes = service.getConfig().defaultComputeResource().getMaxTime();
+			int maxTimeMinutes = resource.getMaxTime();
 			jobLogger.debug("Setting maximum running time to: " + maxTimeMinutes);
 			description.setMaxRuntime(maxTimeMinutes);
 
@@ -83,11 +92,16 @@ public class CwlWorkflowTask implements Runnable {
 			while(xenonJobId == null && tries < 3) {
 				try {
 					tries++;
-					xenonJobId = scheduler.submitBatchJob(description);
+					connection = service.borrowConnection(job.getComputeResource());
+					xenonJobId = connection.getScheduler().submitBatchJob(description);
 				} catch (NotConnectedException e) {
+					if (connection != null) {
+						// Other jobs can still be using it, it is closed when they are done
+						service.invalidateConnection(connection);
+						connection = null;
+					}
 					if (tries <=3 ) {
-						logger.warn("Try: " + tries + ". Exception during job submission, forcing new scheduler for next attempt");
-						scheduler = service.forceNewScheduler();
+						logger.warn("Try: " + tries + ". Exception during job submission, using a new connection for next attempt");
 					} else {
 						logger.error("Failed to submit after " + tries + " tries, giving up");
 					}
@@ -97,9 +111,18 @@ public class CwlWorkflowTask implements Runnable {
 			
 			if (xenonJobId != null) {
 				jobLogger.info("Xenon jobid: " + xenonJobId);
-	
-				jobService.setXenonJobId(jobId, xenonJobId);			
-				jobService.setJobState(jobId, JobState.XENON_SUBMIT, JobState.WAITING);
+
+				// The id and the state are stored together, a job is never waiting without its id
+				try {
+					jobService.update(jobId)
+						.xenonId(xenonJobId)
+						.transition(JobState.XENON_SUBMIT, JobState.WAITING)
+						.apply();
+				} catch (StatePreconditionException e) {
+					// Cancelled or deleted while it was submitted, nothing follows the scheduler job
+					logger.debug("Cancelling " + xenonJobId + " of " + jobId + ": " + e.getMessage());
+					connection.getScheduler().cancelJob(xenonJobId);
+				}
 			} else {
 				jobService.setJobState(jobId, JobState.XENON_SUBMIT, JobState.SYSTEM_ERROR);
 			}
@@ -112,6 +135,10 @@ public class CwlWorkflowTask implements Runnable {
 			}
 			jobLogger.error("Error during execution of " + job.getName() + "(" + job.getId() + ")", e);
 			logger.error("Error during execution of " + job.getName() + "(" + job.getId() + ")", e);
+		} finally {
+			if (connection != null) {
+				service.releaseConnection(connection);
+			}
 		}
 	}
 
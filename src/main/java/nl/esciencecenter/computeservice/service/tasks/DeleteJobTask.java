@@ -1,64 +1,215 @@
 package nl.esciencecenter.computeservice.service.tasks;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import nl.esciencecenter.computeservice.config.AdaptorConfig;
+import nl.esciencecenter.computeservice.config.ComputeResource;
 import nl.esciencecenter.computeservice.model.Job;
 import nl.esciencecenter.computeservice.model.JobRepository;
+import nl.esciencecenter.computeservice.model.JobState;
+import nl.esciencecenter.computeservice.model.StatePreconditionException;
+import nl.esciencecenter.computeservice.service.JobBatch;
+import nl.esciencecenter.computeservice.service.JobService;
+import nl.esciencecenter.computeservice.service.RemoteConnection;
 import nl.esciencecenter.computeservice.service.XenonService;
 import nl.esciencecenter.xenon.XenonException;
 import nl.esciencecenter.xenon.filesystems.FileSystem;
 import nl.esciencecenter.xenon.filesystems.Path;
+import nl.esciencecenter.xenon.schedulers.JobDescription;
 import nl.esciencecenter.xenon.schedulers.JobStatus;
+import nl.esciencecenter.xenon.schedulers.NoSuchJobException;
 import nl.esciencecenter.xenon.schedulers.Scheduler;
 
+/**
+ * Deletes jobs in two steps. deleteJob() stops whatever still runs for a job
+ * and marks it DELETING, from then on the job is gone for the user.
+ * deleteJobs() removes the files and the database entries of the DELETING jobs
+ * of a compute resource later on, a batch at a time, with a single remote
+ * rm for all sandboxes in the batch. A job only becomes DELETING once it no
+ * longer runs, so rm never removes a sandbox that is still in use.
+ *
+ * Since DELETING is stored with the job, deletions that were not finished
+ * when xenonflow stopped are picked up again after a restart.
+ */
 @Component
 public class DeleteJobTask {
 	private static final Logger logger = LoggerFactory.getLogger(DeleteJobTask.class);
 
+	// Schedulers that run a job right away
+	private static final Set<String> SHELL_ADAPTORS = new HashSet<String>(Arrays.asList("local", "ssh"));
+	private static final String SSH_PROPERTIES = "xenon.adaptors.schedulers.ssh.";
+
 	@Autowired
 	private XenonService xenonService;
 	
 	@Autowired
 	private JobRepository repository;
+	
+	@Autowired
+	private JobService jobService;
+
+	@Value("${xenonflow.delete.batch-size:100}")
+	private int batchSize;
+
+	@Value("${xenonflow.delete.timeout:60000}")
+	private long timeout;
 
 	public void deleteJob(String jobId) {
 		Logger jobLogger = LoggerFactory.getLogger("jobs." + jobId);
-		Job job = repository.findById(jobId).get();
+		Optional<Job> j = repository.findById(jobId);
 		
-		if (job != null) {
-			// Once we are in this function the staging has already been cancelled because of
-			// the order of execution in XenonMonitoringTask
-			// It can have any state, but we ignore it all and just cancel and delete everything
-			// afterwards the job will no longer exist.
+		if (j.isPresent()) {
+			Job job = j.get();
+			// Staging for this job was cancelled by the stagers when the deletion was requested
+			// It can have any state, but we ignore it all and just cancel the job, afterwards
+			// there is nothing left but its files.
 			try {				
 				// cancel the job if it's running.
-				if (job.getInternalState().isRemote()) {
-					String xenonJobId = job.getXenonId();
-					if (xenonJobId != null && !xenonJobId.isEmpty()) {
-						Scheduler scheduler = xenonService.getScheduler();
-						JobStatus status = scheduler.getJobStatus(xenonJobId);
-
-						if (status.isRunning()) {
-							status = scheduler.cancelJob(job.getXenonId());
-							logger.debug("Cancelled job: " + job.getId() + " new status: " + status);
-						}
+				if (job.getInternalState() == JobState.WAITING_DELR || job.getInternalState() == JobState.RUNNING_DELR) {
+					if (!stop(job)) {
+						// Its sandbox is still in use, this is tried again on a later update
+						logger.debug("Not deleting " + jobId + " yet, it has not stopped");
+						return;
 					}
 				}
 			} catch (XenonException e) {
 				jobLogger.info("Exception while cancelling job:", e);
-				logger.error("Exception while concelling job:", e);
+				logger.error("Exception while cancelling job " + jobId + ", trying again later:", e);
+				return;
 			}
-			
+
+			try {
+				jobService.setJobState(jobId, job.getInternalState(), JobState.DELETING);
+			} catch (StatePreconditionException e) {
+				logger.debug("Not deleting " + jobId + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Cancel a job on the compute resource.
+	 *
+	 * @return true if it no longer runs.
+	 */
+	private boolean stop(Job job) throws XenonException {
+		if (xenonService.getConfig().computeResource(job.getComputeResource()) == null) {
+			// The compute resource is no longer configured, nothing can be stopped there
+			return true;
+		}
+		if (job.getBatchId() != null) {
+			// The other jobs in the batch keep running, the batch kills this one
+			JobBatch batch = new JobBatch(xenonService.getRemoteFileSystem(job.getComputeResource()), job.getBatchId());
+			batch.skip(job.getId());
+			JobBatch.Progress progress = batch.readProgress(Collections.singleton(job.getId()));
+			return !progress.hasStarted(job.getId()) || progress.getExitcode(job.getId()) != null;
+		}
+
+		String xenonJobId = job.getXenonId();
+		if (xenonJobId == null || xenonJobId.isEmpty()) {
+			return true;
+		}
+		try {
+			Scheduler scheduler = xenonService.getScheduler(job.getComputeResource());
+			JobStatus status = scheduler.getJobStatus(xenonJobId);
+			if (!status.isDone()) {
+				status = scheduler.cancelJob(xenonJobId);
+				logger.debug("Cancelled job: " + job.getId() + " new status: " + status);
+			}
+			return status.isDone();
+		} catch (NoSuchJobException e) {
+			// The scheduler forgot about it, so it is done
+			return true;
+		}
+	}
+
+	/**
+	 * Remove the files and the entries of all DELETING jobs on a compute resource.
+	 */
+	public void deleteJobs(String computeResource) {
+		if (xenonService.getConfig().get(computeResource) == null) {
+			// The compute resource is no longer configured, its files can not be reached
+			logger.warn("Deleting the jobs of unknown compute resource " + computeResource + " without their remote directories");
+			List<Job> jobs = findDeleting(computeResource);
+			deleteLocalDirectories(jobs);
+			jobService.deleteJobs(ids(jobs));
+			return;
+		}
+
+		List<Job> jobs = findDeleting(computeResource);
+		while (!jobs.isEmpty()) {
+			List<Job> batch = jobs.subList(0, Math.min(batchSize, jobs.size()));
+
+			RemoteConnection connection;
+			try {
+				connection = xenonService.borrowConnection(computeResource);
+			} catch (XenonException e) {
+				// The jobs stay DELETING and are tried again on a later update
+				logger.error("Could not connect to " + computeResource + " to delete " + jobs.size() + " jobs", e);
+				return;
+			}
+			try {
+				deleteRemoteDirectories(computeResource, connection, batch);
+			} finally {
+				xenonService.releaseConnection(connection);
+			}
+			deleteLocalDirectories(batch);
+
+			List<String> ids = ids(batch);
+			for (String jobId : ids) {
+				LoggerFactory.getLogger("jobs." + jobId).info("Deleting job " + jobId);
+			}
+			logger.info("Deleting " + ids.size() + " jobs on " + computeResource);
+			jobService.deleteJobs(ids);
+
+			batch.clear();
+		}
+	}
+
+	private List<Job> findDeleting(String computeResource) {
+		List<Job> jobs = new ArrayList<Job>(repository.findAllByInternalStateAndComputeResource(JobState.DELETING, computeResource));
+		if (computeResource.equals(xenonService.getConfig().getDefaultComputeResourceName())) {
+			jobs.addAll(repository.findAllByInternalStateAndComputeResourceIsNull(JobState.DELETING));
+		}
+		return jobs;
+	}
+
+	private void deleteRemoteDirectories(String computeResource, RemoteConnection connection, List<Job> jobs) {
+		FileSystem remoteFilesystem = connection.getFileSystem();
+		try {
+			Path workingDirectory = remoteFilesystem.getWorkingDirectory();
+			List<String> directories = new ArrayList<String>();
+			for (Job job : jobs) {
+				Path remoteDirectory = workingDirectory.resolve(job.getSandboxDirectory()).toAbsolutePath();
+				LoggerFactory.getLogger("jobs." + job.getId()).info("Deleting remote directory: " + remoteDirectory);
+				directories.add(remoteDirectory.toString());
+			}
+			if (removeWithShell(computeResource, connection, workingDirectory, directories)) {
+				return;
+			}
+		} catch (XenonException e) {
+			logger.warn("Could not remove " + jobs.size() + " remote directories with rm, deleting them one by one", e);
+		}
+
+		// Much slower over sftp, but it does not depend on the scheduler
+		for (Job job : jobs) {
+			Logger jobLogger = LoggerFactory.getLogger("jobs." + job.getId());
 			try {
-				// delete remote directory
 				Path remoteDirectory = job.getSandboxDirectory();
-				FileSystem remoteFilesystem = xenonService.getRemoteFileSystem();
-				
 				if (remoteFilesystem.exists(remoteDirectory)) {
-					jobLogger.info("Deleting remote directory: " + remoteDirectory);
 					remoteFilesystem.delete(remoteDirectory, true);
 				} else {
 					jobLogger.info("Remote directory: " + remoteDirectory + " does not exist, skipping.");
@@ -67,7 +218,96 @@ public class DeleteJobTask {
 				jobLogger.info("Exception while deleting remote directory:", e);
 				logger.error("Exception while deleting remote directory:", e);
 			}
-			
+		}
+	}
+
+	/**
+	 * Run rm -rf on the directories on the remote machine itself, instead of
+	 * removing them file by file. It runs through the local or ssh scheduler
+	 * of the machine, never through the queue of a batch scheduler where it
+	 * could wait for longer than the timeout.
+	 *
+	 * @return true if rm removed all directories.
+	 */
+	private boolean removeWithShell(String computeResource, RemoteConnection connection, Path workingDirectory, List<String> directories) throws XenonException {
+		ComputeResource resource = xenonService.getConfig().get(computeResource);
+		if (resource.getFilesystemConfig() != null) {
+			// The sandboxes are not necessarily on the machine of the scheduler
+			return false;
+		}
+
+		AdaptorConfig config = resource.getSchedulerConfig();
+		if (SHELL_ADAPTORS.contains(config.getAdaptor())) {
+			return remove(connection.getScheduler(), workingDirectory, directories);
+		}
+		Scheduler shell = openShell(config);
+		if (shell == null) {
+			return false;
+		}
+		try {
+			return remove(shell, workingDirectory, directories);
+		} finally {
+			shell.close();
+		}
+	}
+
+	/**
+	 * A local or ssh scheduler for the machine a batch scheduler runs on.
+	 *
+	 * @return null if the location is not one of those.
+	 */
+	private static Scheduler openShell(AdaptorConfig config) throws XenonException {
+		String location = config.getLocation() == null ? "" : config.getLocation();
+		if (location.isEmpty() || location.startsWith("local://")) {
+			return Scheduler.create("local");
+		}
+		if (location.startsWith("ssh://")) {
+			location = location.substring("ssh://".length());
+		} else if (location.contains("://")) {
+			return null;
+		}
+		int path = location.indexOf('/');
+		String host = path < 0 ? location : location.substring(0, path);
+
+		Map<String, String> properties = new HashMap<String, String>();
+		if (config.getProperties() != null) {
+			for (Map.Entry<String, String> property : config.getProperties().entrySet()) {
+				if (property.getKey().startsWith(SSH_PROPERTIES)) {
+					properties.put(property.getKey(), property.getValue());
+				}
+			}
+		}
+		return Scheduler.create("ssh", host, config.getCredential(), properties);
+	}
+
+	private boolean remove(Scheduler shell, Path workingDirectory, List<String> directories) throws XenonException {
+		List<String> arguments = new ArrayList<String>();
+		arguments.add("-rf");
+		arguments.add("--");
+		arguments.addAll(directories);
+
+		JobDescription description = new JobDescription();
+		description.setExecutable("rm");
+		description.setArguments(arguments.toArray(new String[arguments.size()]));
+		description.setWorkingDirectory(workingDirectory.toString());
+
+		String xenonJobId = shell.submitBatchJob(description);
+		JobStatus status = shell.waitUntilDone(xenonJobId, timeout);
+		if (!status.isDone()) {
+			shell.cancelJob(xenonJobId);
+			logger.warn("Removing " + directories.size() + " remote directories took longer than " + timeout + " ms, deleting them one by one");
+			return false;
+		}
+		if (status.hasException() || status.getExitCode() == null || status.getExitCode() != 0) {
+			logger.warn("Removing " + directories.size() + " remote directories failed: " + status + ", deleting them one by one");
+			return false;
+		}
+		return true;
+	}
+
+	private void deleteLocalDirectories(List<Job> jobs) {
+		for (Job job : jobs) {
+			Logger jobLogger = LoggerFactory.getLogger("jobs." + job.getId());
 			try {
 				// delete local output directory if it exists
 				FileSystem localFilesystem = xenonService.getSourceFileSystem();
@@ -77,18 +317,20 @@ public class DeleteJobTask {
 					jobLogger.info("Deleting local output directory: " + localDirectory);
 					localFilesystem.delete(localDirectory, true);
 				} else {
-					jobLogger.info("Local directory: " + localFilesystem + " does not exist, skipping.");
+					jobLogger.info("Local directory: " + localDirectory + " does not exist, skipping.");
 				}
 			} catch (XenonException e) {
 				jobLogger.info("Exception while deleting local directory:", e);
 				logger.error("Exception while deleting local directory:", e);
 			}
-
-			// delete the job
-			jobLogger.info("Deleting job " + jobId);
-			logger.info("Deleting job " + jobId);
-			repository.deleteById(jobId);	
 		}
 	}
 
+	private static List<String> ids(List<Job> jobs) {
+		List<String> ids = new ArrayList<String>();
+		for (Job job : jobs) {
+			ids.add(job.getId());
+		}
+		return ids;
+	}
 }
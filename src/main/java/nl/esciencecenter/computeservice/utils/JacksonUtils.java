@@ -4,22 +4,117 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 
+import org.commonwl.cwl.FileDirEntry;
+import org.commonwl.cwl.Process;
+import org.commonwl.cwl.Workflow;
+import org.commonwl.cwl.deserialization.FileDirectoryDeserializer;
+import org.commonwl.cwl.deserialization.ProcessDeserializer;
+import org.commonwl.cwl.deserialization.WorkflowDeserializer;
+
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 
+import nl.esciencecenter.computeservice.config.CredentialDeserializer;
+import nl.esciencecenter.computeservice.config.XenonflowConfig;
+import nl.esciencecenter.computeservice.model.WorkflowBinding;
+import nl.esciencecenter.xenon.credentials.Credential;
+
+/**
+ * Shared Jackson mappers, readers and writers.
+ *
+ * Building an ObjectMapper is expensive and a new mapper starts with empty
+ * serializer caches, so they are created once here and shared. Readers and
+ * writers are immutable and can be used from any thread. The mappers are
+ * shared as well and must not be configured further by their users.
+ */
 public class JacksonUtils {
 	private static final Set<String> yamlTypes = new HashSet<String>(Arrays.asList(new String[] {"yml", "yaml", "cwl"}));
 	private static final Set<String> jsonTypes = new HashSet<String>(Arrays.asList(new String[] {"json"}));
-	
+
+	private static final ObjectMapper jsonMapper = new ObjectMapper(new JsonFactory());
+	private static final ObjectMapper yamlMapper = new ObjectMapper(new YAMLFactory());
+	private static final ObjectMapper cwlJsonMapper = new ObjectMapper(new JsonFactory()).registerModule(cwlModule());
+	private static final ObjectMapper cwlYamlMapper = new ObjectMapper(new YAMLFactory()).registerModule(cwlModule());
+	private static final ObjectMapper configJsonMapper = new ObjectMapper(new JsonFactory()).registerModule(configModule());
+	private static final ObjectMapper configYamlMapper = new ObjectMapper(new YAMLFactory()).registerModule(configModule());
+
+	private static final ObjectWriter prettyWriter = jsonMapper.writerWithDefaultPrettyPrinter();
+	private static final ObjectReader bindingJsonReader = jsonMapper.readerFor(WorkflowBinding.class);
+	private static final ObjectReader bindingYamlReader = yamlMapper.readerFor(WorkflowBinding.class);
+	private static final ObjectWriter bindingWriter = jsonMapper.writerFor(WorkflowBinding.class);
+	private static final ObjectReader processJsonReader = cwlJsonMapper.readerFor(Process.class);
+	private static final ObjectReader processYamlReader = cwlYamlMapper.readerFor(Process.class);
+	private static final ObjectReader configJsonReader = configJsonMapper.readerFor(XenonflowConfig.class);
+	private static final ObjectReader configYamlReader = configYamlMapper.readerFor(XenonflowConfig.class);
+
 	public static ObjectMapper getMapperForFileType(String type) throws JsonParseException {
+		return isYaml(type) ? yamlMapper : jsonMapper;
+	}
+
+	/**
+	 * The shared json mapper.
+	 */
+	public static ObjectMapper getMapper() {
+		return jsonMapper;
+	}
+
+	/**
+	 * The shared json mapper that knows the cwl types, for converting
+	 * already parsed values into them.
+	 */
+	public static ObjectMapper getCwlMapper() {
+		return cwlJsonMapper;
+	}
+
+	public static ObjectWriter getPrettyWriter() {
+		return prettyWriter;
+	}
+
+	public static ObjectReader getWorkflowBindingReader(String type) throws JsonParseException {
+		return isYaml(type) ? bindingYamlReader : bindingJsonReader;
+	}
+
+	public static ObjectWriter getWorkflowBindingWriter() {
+		return bindingWriter;
+	}
+
+	/**
+	 * Reads cwl files into a Process, which is a Workflow for workflow files.
+	 */
+	public static ObjectReader getProcessReader(String type) throws JsonParseException {
+		return isYaml(type) ? processYamlReader : processJsonReader;
+	}
+
+	public static ObjectReader getConfigReader(String type) throws JsonParseException {
+		return isYaml(type) ? configYamlReader : configJsonReader;
+	}
+
+	private static boolean isYaml(String type) throws JsonParseException {
 		if(yamlTypes.contains(type)) {
-			return new ObjectMapper(new YAMLFactory());
+			return true;
 		} else if(jsonTypes.contains(type)) {
-			return new ObjectMapper(new JsonFactory());
+			return false;
 		} else {
 			throw new JsonParseException(null, "Could not find a mapper for file type: " + type);
 		}
 	}
+
+	private static SimpleModule cwlModule() {
+		SimpleModule module = new SimpleModule();
+		module.addDeserializer(Process.class, new ProcessDeserializer());
+		module.addDeserializer(Workflow.class, new WorkflowDeserializer());
+		module.addDeserializer(FileDirEntry.class, new FileDirectoryDeserializer());
+		return module;
+	}
+
+	private static SimpleModule configModule() {
+		SimpleModule module = new SimpleModule();
+		module.addDeserializer(Credential.class, new CredentialDeserializer());
+		return module;
+	}
 }
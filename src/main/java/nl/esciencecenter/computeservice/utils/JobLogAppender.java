@@ -0,0 +1,259 @@
+package nl.esciencecenter.computeservice.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.AppenderBase;
+import ch.qos.logback.core.encoder.Encoder;
+
+/**
+ * Writes the events of every jobs.<id> logger to the log file of that job.
+ *
+ * Only a limited number of log files is kept open, the file that was written
+ * least recently is closed when another one has to be opened, and opened
+ * again when its job logs something. Writes are buffered, flush() makes them
+ * visible to readers of the file. The logs of followed loggers are flushed on
+ * every event instead, and the listener is told about it.
+ *
+ * The appender usually sits behind an AsyncAppender, see setFront(). Flushing
+ * and finishing a log then go through the queue of that appender, so they
+ * happen after the events that were logged before them. A finished log is
+ * not opened again, later events for it go to the application log.
+ */
+public class JobLogAppender extends AppenderBase<ILoggingEvent> {
+	private static final Logger logger = LoggerFactory.getLogger(JobLogAppender.class);
+	private static final String PREFIX = "jobs.";
+	private static final int BUFFER_SIZE = 8192;
+	private static final int MAX_FINISHED = 4096;
+
+	private static final Marker FLUSH = MarkerFactory.getMarker("XENONFLOW_LOG_FLUSH");
+	private static final Marker FINISH = MarkerFactory.getMarker("XENONFLOW_LOG_FINISH");
+
+	private String basePath;
+	private int maxOpen = 256;
+	private Encoder<ILoggingEvent> encoder;
+
+	private final LinkedHashMap<String, OutputStream> open = new LinkedHashMap<String, OutputStream>(16, 0.75f, true);
+	private final Set<String> followed = ConcurrentHashMap.newKeySet();
+	private final Map<String, Boolean> finished = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+			return size() > MAX_FINISHED;
+		}
+	};
+	private volatile Consumer<String> writeListener = null;
+	private volatile Appender<ILoggingEvent> front = null;
+
+	public void setBasePath(String basePath) {
+		this.basePath = basePath;
+	}
+
+	public void setMaxOpen(int maxOpen) {
+		this.maxOpen = maxOpen;
+	}
+
+	public void setEncoder(Encoder<ILoggingEvent> encoder) {
+		this.encoder = encoder;
+	}
+
+	/**
+	 * @param writeListener called with the name of a followed logger after its
+	 *        log file was written to.
+	 */
+	public void setWriteListener(Consumer<String> writeListener) {
+		this.writeListener = writeListener;
+	}
+
+	/**
+	 * @param front the appender that queues the events for this one
+	 */
+	public void setFront(Appender<ILoggingEvent> front) {
+		this.front = front;
+	}
+
+	public void follow(String loggerName) {
+		followed.add(loggerName);
+	}
+
+	public void unfollow(String loggerName) {
+		followed.remove(loggerName);
+	}
+
+	/**
+	 * The log file of a logger, the same one XenonService.getJobLogName()
+	 * returns.
+	 */
+	public File getFile(String loggerName) {
+		return new File(basePath, loggerName + ".log");
+	}
+
+	@Override
+	protected void append(ILoggingEvent event) {
+		String name = event.getLoggerName();
+		if (!name.startsWith(PREFIX) || name.length() == PREFIX.length()) {
+			return;
+		}
+		if (FLUSH.equals(event.getMarker())) {
+			flush(name);
+			((CountDownLatch) event.getArgumentArray()[0]).countDown();
+			return;
+		} else if (FINISH.equals(event.getMarker())) {
+			finish(name);
+			return;
+		} else if (isFinished(name)) {
+			logger.info("[" + name + "] " + event.getFormattedMessage());
+			return;
+		}
+		try {
+			OutputStream out = open.get(name);
+			if (out == null) {
+				out = open(name);
+			}
+			out.write(encoder.encode(event));
+			if (followed.contains(name)) {
+				out.flush();
+				Consumer<String> listener = writeListener;
+				if (listener != null) {
+					listener.accept(name);
+				}
+			}
+		} catch (IOException e) {
+			addError("Could not write to the log of " + name, e);
+		}
+	}
+
+	private OutputStream open(String name) throws IOException {
+		if (open.size() >= maxOpen) {
+			Iterator<Map.Entry<String, OutputStream>> eldest = open.entrySet().iterator();
+			close(eldest.next().getValue());
+			eldest.remove();
+		}
+		File file = getFile(name);
+		file.getParentFile().mkdirs();
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file, true), BUFFER_SIZE);
+		open.put(name, out);
+		return out;
+	}
+
+	/**
+	 * Write out what is buffered for a logger.
+	 */
+	public synchronized void flush(String loggerName) {
+		OutputStream out = open.get(loggerName);
+		if (out != null) {
+			try {
+				out.flush();
+			} catch (IOException e) {
+				addError("Could not flush the log of " + loggerName, e);
+			}
+		}
+	}
+
+	/**
+	 * Write out the events that were logged for a logger before this call,
+	 * also the ones that are still queued in front of this appender.
+	 *
+	 * @return false if that did not happen within the timeout
+	 */
+	public boolean flush(String loggerName, long timeout) throws InterruptedException {
+		CountDownLatch flushed = new CountDownLatch(1);
+		if (!sendThroughFront(loggerName, FLUSH, flushed)) {
+			flush(loggerName);
+			return true;
+		}
+		return flushed.await(timeout, TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized void flushAll() {
+		for (String name : new ArrayList<String>(open.keySet())) {
+			flush(name);
+		}
+	}
+
+	/**
+	 * Close the log file of a logger, it is opened again if the logger is
+	 * used after this.
+	 */
+	public synchronized void close(String loggerName) {
+		OutputStream out = open.remove(loggerName);
+		if (out != null) {
+			close(out);
+		}
+	}
+
+	/**
+	 * Close the log file of a logger for good, after the events that were
+	 * logged before this call.
+	 */
+	public void finishLater(String loggerName) {
+		if (!sendThroughFront(loggerName, FINISH, null)) {
+			finish(loggerName);
+		}
+	}
+
+	private synchronized void finish(String loggerName) {
+		close(loggerName);
+		finished.put(loggerName, Boolean.TRUE);
+	}
+
+	private synchronized boolean isFinished(String loggerName) {
+		return finished.containsKey(loggerName);
+	}
+
+	private boolean sendThroughFront(String loggerName, Marker marker, Object argument) {
+		Appender<ILoggingEvent> queue = front;
+		if (queue == null || !queue.isStarted()) {
+			return false;
+		}
+		LoggingEvent event = new LoggingEvent(JobLogAppender.class.getName(), ((LoggerContext) getContext()).getLogger(loggerName),
+				Level.INFO, marker.getName(), null, new Object[] { argument });
+		event.setMarker(marker);
+		queue.doAppend(event);
+		return true;
+	}
+
+	public synchronized int getOpenCount() {
+		return open.size();
+	}
+
+	@Override
+	public synchronized void stop() {
+		super.stop();
+		for (OutputStream out : open.values()) {
+			close(out);
+		}
+		open.clear();
+	}
+
+	private void close(OutputStream out) {
+		try {
+			out.close();
+		} catch (IOException e) {
+			addError("Could not close a job log", e);
+		}
+	}
+}
@@ -2,39 +2,73 @@ package nl.esciencecenter.computeservice.utils;
 
 import org.slf4j.LoggerFactory;
 
+import ch.qos.logback.classic.AsyncAppender;
 import ch.qos.logback.classic.LoggerContext;
 import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
 import ch.qos.logback.classic.spi.ILoggingEvent;
-import ch.qos.logback.core.FileAppender;
+import ch.qos.logback.core.Appender;
 
 public class LoggingUtils {
+	public static final String JOB_LOG_APPENDER = "JOBS";
+
 	/**
-	 * Adding a specific file logger for a job. This is Logback specific!
+	 * Adding the appender that writes the log files of all jobs to the jobs
+	 * logger. This is Logback specific!
 	 * 
-	 * Taken from:
-	 * https://stackoverflow.com/questions/7824620/logback-set-log-file-name-programmatically
+	 * The events are handed to the JobLogAppender by an AsyncAppender, so
+	 * logging for a job does not wait for its log file. The queue never
+	 * discards events, it blocks when it is full instead.
 	 * 
-	 * @param name
+	 * @param basePath the directory the log files are written to
+	 * @param maxOpen the maximum number of log files to keep open
+	 * @param queueSize the number of events that can wait to be written
 	 */
-	public static void addFileAppenderToLogger(String name, String logName) {
+	public static JobLogAppender addJobLogAppender(String basePath, int maxOpen, int queueSize) {
 		LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+		ch.qos.logback.classic.Logger logbackLogger = loggerContext.getLogger("jobs");
 
-		FileAppender<ILoggingEvent> fileAppender = new FileAppender<ILoggingEvent>();
-		fileAppender.setContext(loggerContext);
-		fileAppender.setName(name);
-		// set the file name
-		fileAppender.setFile(logName);
+		// Only one appender, also when a second application context starts
+		removeJobLogAppender();
 
 		PatternLayoutEncoder encoder = new PatternLayoutEncoder();
 		encoder.setContext(loggerContext);
 		encoder.setPattern("%d{yyyy-MMM-dd HH:mm:ss.SSS} %level - %msg%n");
 		encoder.start();
 
-		fileAppender.setEncoder(encoder);
-		fileAppender.start();
+		JobLogAppender jobLogAppender = new JobLogAppender();
+		jobLogAppender.setContext(loggerContext);
+		jobLogAppender.setName(JOB_LOG_APPENDER + "-FILES");
+		jobLogAppender.setBasePath(basePath);
+		jobLogAppender.setMaxOpen(maxOpen);
+		jobLogAppender.setEncoder(encoder);
+		jobLogAppender.start();
+
+		AsyncAppender asyncAppender = new AsyncAppender();
+		asyncAppender.setContext(loggerContext);
+		asyncAppender.setName(JOB_LOG_APPENDER);
+		asyncAppender.setQueueSize(queueSize);
+		asyncAppender.setDiscardingThreshold(0);
+		asyncAppender.addAppender(jobLogAppender);
+		asyncAppender.start();
+
+		jobLogAppender.setFront(asyncAppender);
+
+		logbackLogger.addAppender(asyncAppender);
+		return jobLogAppender;
+	}
 
-		// attach the rolling file appender to the logger of your choice
-		ch.qos.logback.classic.Logger logbackLogger = loggerContext.getLogger(name);
-		logbackLogger.addAppender(fileAppender);
+	/**
+	 * Remove the appender added by addJobLogAppender, writing out the events
+	 * that are still queued.
+	 */
+	public static void removeJobLogAppender() {
+		LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+		ch.qos.logback.classic.Logger logbackLogger = loggerContext.getLogger("jobs");
+		Appender<ILoggingEvent> appender = logbackLogger.getAppender(JOB_LOG_APPENDER);
+		if (appender != null) {
+			logbackLogger.detachAppender(appender);
+			// Stopping the AsyncAppender also stops the JobLogAppender
+			appender.stop();
+		}
 	}
 }
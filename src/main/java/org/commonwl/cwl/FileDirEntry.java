@@ -2,12 +2,11 @@ package org.commonwl.cwl;
 
 import java.util.HashMap;
 
-import org.commonwl.cwl.deserialization.FileDirectoryDeserializer;
 import org.commonwl.cwl.utils.CWLUtils;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.module.SimpleModule;
+
+import nl.esciencecenter.computeservice.utils.JacksonUtils;
 
 public class FileDirEntry {
 	@JsonProperty("class")
@@ -74,12 +73,6 @@ public class FileDirEntry {
 	}
 
 	public static FileDirEntry fromHashMap(HashMap<String, Object> entry) {
-		final ObjectMapper mapper = new ObjectMapper();
-		SimpleModule module = new SimpleModule();
-		
-		module.addDeserializer(FileDirEntry.class, new FileDirectoryDeserializer());
-		mapper.registerModule(module);
-
-		return mapper.convertValue(entry, FileDirEntry.class);
+		return JacksonUtils.getCwlMapper().convertValue(entry, FileDirEntry.class);
 	}
 }
@@ -1,5 +1,7 @@
 package org.commonwl.cwl;
 
+import java.io.Serializable;
+
 /**
  * This class represents the duality of the RunCommand of a step
  * it can either be a string representing a path or url to a workflow file
@@ -8,7 +10,9 @@ package org.commonwl.cwl;
  * @author bweel
  *
  */
-public class RunCommand {
+public class RunCommand implements Serializable {
+	private static final long serialVersionUID = 2893710236537412117L;
+
 	private String workflowPath;
 	private Process subWorkflow;
 	
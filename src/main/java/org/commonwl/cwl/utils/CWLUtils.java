@@ -6,7 +6,6 @@ import java.net.URL;
 import java.util.LinkedList;
 import java.util.List;
 
-import org.apache.commons.io.FilenameUtils;
 import org.commonwl.cwl.RunCommand;
 import org.commonwl.cwl.Step;
 import org.commonwl.cwl.Workflow;
@@ -54,7 +53,6 @@ public class CWLUtils {
 					Path subWorkflowPath = workflowBasePath.resolve(path);
 					Path subWorkflowBasePath = subWorkflowPath.getParent();
 					logger.debug("Loading sub-workflow from: " + subWorkflowPath);
-					String extension = FilenameUtils.getExtension(subWorkflowPath.getFileNameAsString());
 					
 					Path absoluteWorkflowPath = fileSystem.getWorkingDirectory().resolve(subWorkflowPath).normalize().toAbsolutePath();
 					if (!absoluteWorkflowPath.startsWith(fileSystem.getWorkingDirectory())) {
@@ -63,7 +61,7 @@ public class CWLUtils {
 						jobLogger.error(error);
 						throw new XenonflowException(error);
 					} else {
-						Workflow subworkflow = Workflow.fromInputStream(fileSystem.readFromFile(absoluteWorkflowPath), extension);
+						Workflow subworkflow = WorkflowRegistry.getWorkflow(fileSystem, absoluteWorkflowPath);
 						paths.addAll(CWLUtils.getLocalWorkflowPaths(subworkflow, subWorkflowBasePath, fileSystem, jobLogger));
 					}
 				}
@@ -80,6 +78,9 @@ public class CWLUtils {
 	/**
 	 * Loads a local file as a WorkflowDiscreption
 	 * 
+	 * The workflow is a copy of the one in the WorkflowRegistry, it can be
+	 * modified.
+	 * 
 	 * @param job
 	 * @param cwlFileSystem
 	 * @param jobLogger
@@ -108,8 +109,7 @@ public class CWLUtils {
 		output.workflowBasePath = cwlFileSystem.getWorkingDirectory().relativize(workflowPath.getParent());
 
 		jobLogger.debug("Loading workflow from: " + workflowPath);
-		String extension = FilenameUtils.getExtension(workflowPath.getFileNameAsString());
-		output.workflow = Workflow.fromInputStream(cwlFileSystem.readFromFile(workflowPath.toAbsolutePath()), extension);
+		output.workflow = WorkflowRegistry.getWorkflow(cwlFileSystem, workflowPath);
 
 		return output;
 	}
@@ -117,7 +117,7 @@ public class CWLUtils {
 	public static boolean isLocalWorkflow(Path workflow, FileSystem cwlFileSystem) throws XenonException {
 		Path workflowPath = cwlFileSystem.getWorkingDirectory().resolve(workflow);
 		
-		return cwlFileSystem.exists(workflowPath);
+		return WorkflowRegistry.contains(cwlFileSystem, workflowPath) || cwlFileSystem.exists(workflowPath);
 	}
 	
 	/**
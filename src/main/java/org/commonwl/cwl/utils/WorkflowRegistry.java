@@ -0,0 +1,128 @@
+package org.commonwl.cwl.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.SerializationUtils;
+import org.commonwl.cwl.Workflow;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.esciencecenter.xenon.XenonException;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.NoSuchPathException;
+import nl.esciencecenter.xenon.filesystems.Path;
+import nl.esciencecenter.xenon.filesystems.PathAttributes;
+
+/**
+ * Keeps parsed workflow files in memory so that every job that runs the same
+ * workflow does not read and parse it again.
+ *
+ * Entries are keyed by filesystem and absolute path and are parsed again when
+ * the size or modification time of the file changes. A file that was checked
+ * less than a second ago is not checked again, so a burst of submissions of
+ * the same workflow costs a single lookup on the filesystem.
+ *
+ * Every caller gets its own copy of the parsed workflow, so a job can change
+ * it without affecting other jobs or the cached one. Copying is a lot cheaper
+ * than reading and parsing the file again.
+ */
+public class WorkflowRegistry {
+	private static final Logger logger = LoggerFactory.getLogger(WorkflowRegistry.class);
+
+	private static volatile long recheckInterval = 1000;
+
+	private static final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	private static final ConcurrentMap<String, Object> locks = new ConcurrentHashMap<String, Object>();
+
+	private static class Entry {
+		private final long size;
+		private final long lastModified;
+		private final Workflow workflow;
+		private volatile long checked;
+
+		private Entry(PathAttributes attributes, Workflow workflow) {
+			this.size = attributes.getSize();
+			this.lastModified = attributes.getLastModifiedTime();
+			this.workflow = workflow;
+			this.checked = System.currentTimeMillis();
+		}
+
+		private boolean isFresh() {
+			return System.currentTimeMillis() - checked < recheckInterval;
+		}
+
+		private boolean matches(PathAttributes attributes) {
+			return size == attributes.getSize() && lastModified == attributes.getLastModifiedTime();
+		}
+	}
+
+	/**
+	 * Get the parsed workflow in a file, reading it only if it has changed
+	 * since it was last read.
+	 */
+	public static Workflow getWorkflow(FileSystem fileSystem, Path workflowPath) throws XenonException, IOException {
+		Path path = workflowPath.toAbsolutePath();
+		String key = key(fileSystem, path);
+
+		Entry entry = entries.get(key);
+		if (entry != null && entry.isFresh()) {
+			return SerializationUtils.clone(entry.workflow);
+		}
+
+		synchronized (locks.computeIfAbsent(key, k -> new Object())) {
+			entry = entries.get(key);
+			if (entry != null && entry.isFresh()) {
+				return SerializationUtils.clone(entry.workflow);
+			}
+
+			PathAttributes attributes;
+			try {
+				attributes = fileSystem.getAttributes(path);
+			} catch (NoSuchPathException e) {
+				entries.remove(key);
+				throw e;
+			}
+			if (entry != null && entry.matches(attributes)) {
+				entry.checked = System.currentTimeMillis();
+				return SerializationUtils.clone(entry.workflow);
+			}
+
+			logger.debug("Parsing workflow " + path);
+			String extension = FilenameUtils.getExtension(path.getFileNameAsString());
+			Workflow workflow;
+			try (InputStream in = fileSystem.readFromFile(path)) {
+				workflow = Workflow.fromInputStream(in, extension);
+			}
+			entries.put(key, new Entry(attributes, workflow));
+			return SerializationUtils.clone(workflow);
+		}
+	}
+
+	/**
+	 * @return true if the file was read recently and can be assumed to still
+	 *         exist.
+	 */
+	public static boolean contains(FileSystem fileSystem, Path workflowPath) {
+		Entry entry = entries.get(key(fileSystem, workflowPath.toAbsolutePath()));
+		return entry != null && entry.isFresh();
+	}
+
+	public static void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * How long (in ms) a file that was checked is assumed not to change.
+	 */
+	public static void setRecheckInterval(long interval) {
+		recheckInterval = interval;
+	}
+
+	private static String key(FileSystem fileSystem, Path path) {
+		return fileSystem.getAdaptorName() + "://" + fileSystem.getLocation() + "/" + path.toString();
+	}
+}
@@ -15,6 +15,7 @@
  */
 package nl.esciencecenter.computeservice.config;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
 import java.nio.file.Paths;
@@ -33,6 +34,8 @@ public class XenonflowConfigTest {
 		assertNotNull("Source filesystem should exist", config.getSourceFilesystemConfig());
 		assertNotNull("Target filesystem should exist", config.getTargetFilesystemConfig());
 		assertNotNull("CWL filesystem should exist", config.getCwlFilesystemConfig());
+		assertEquals(2, config.getStagingConfig().getMaxConcurrentStageIn("das5"));
+		assertEquals(8, config.getStagingConfig().getMaxConcurrentStageIn("local"));
 	}
 	
 	@Test
@@ -71,5 +74,6 @@ public class XenonflowConfigTest {
 		assertNotNull("Target filesystem should exist", config.getTargetFilesystemConfig());
 		assertNotNull("CWL Filesystem does not exsist", config.getCwlFilesystemConfig());
 		assert (config.get("das5").getSchedulerConfig().getAdaptor().equals("local")); 
+		assertEquals(4, config.getStagingConfig().getMaxConcurrentStageIn("das5"));
 	}
 }
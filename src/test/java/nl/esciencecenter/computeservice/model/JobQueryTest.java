@@ -0,0 +1,53 @@
+package nl.esciencecenter.computeservice.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import org.junit.Test;
+
+public class JobQueryTest {
+
+	@Test
+	public void cursorRoundTripTest() {
+		Job job = new Job();
+		job.setId("afcd1554-9604-11e6-bd3f-080027e8b32a");
+		job.setCreatedAt(new Date(1500000000000L));
+
+		JobQuery query = new JobQuery().after(JobQuery.cursorFor(job));
+
+		assertTrue(query.hasCursor());
+		assertEquals(job.getId(), query.getAfterId());
+		assertEquals(job.getCreatedAt(), query.getAfterCreatedAt());
+	}
+
+	@Test
+	public void cwlAndInternalStatesTest() {
+		JobQuery query = new JobQuery().states(Arrays.asList("Success", "running_cr"));
+
+		assertTrue(query.getStates().contains(JobState.SUCCESS));
+		assertTrue(query.getStates().contains(JobState.RUNNING_CR));
+	}
+
+	@Test
+	public void finalStatesTest() {
+		JobQuery query = new JobQuery().states(Arrays.asList("final"));
+
+		assertEquals(5, query.getStates().size());
+		for (JobState state : query.getStates()) {
+			assertTrue(state.isFinal());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidCursorTest() {
+		new JobQuery().after("not-a-cursor");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownStateTest() {
+		new JobQuery().states(Arrays.asList("Sleeping"));
+	}
+}
@@ -0,0 +1,59 @@
+package nl.esciencecenter.computeservice.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+public class JsonColumnConverterTest {
+
+	@Test
+	public void workflowBindingRoundTripTest() {
+		WorkflowBindingConverter converter = new WorkflowBindingConverter();
+		WorkflowBinding binding = new WorkflowBinding();
+		binding.put("a", "b");
+		binding.put("count", 3);
+
+		String json = converter.convertToDatabaseColumn(binding);
+		assertTrue(json.contains("\"a\":\"b\""));
+		assertEquals(binding, converter.convertToEntityAttribute(json));
+	}
+
+	@Test
+	public void readsLegacySerializedValueTest() throws IOException {
+		HashMap<String, Object> info = new HashMap<String, Object>();
+		info.put("baseurl", "http://localhost:8080/");
+		info.put("xenon.exitcode", 1);
+
+		// H2 returns Java-serialized values stored in a CLOB column as a hex string
+		StringBuilder hex = new StringBuilder();
+		for (byte b : serialize(info)) {
+			hex.append(String.format("%02x", b));
+		}
+		assertTrue(JsonColumnConverter.isLegacyValue(hex.toString()));
+
+		AdditionalInfoConverter converter = new AdditionalInfoConverter();
+		assertEquals(info, converter.convertToEntityAttribute(hex.toString()));
+	}
+
+	@Test
+	public void nullTest() {
+		AdditionalInfoConverter converter = new AdditionalInfoConverter();
+		assertNull(converter.convertToDatabaseColumn(null));
+		assertNull(converter.convertToEntityAttribute(null));
+	}
+
+	private byte[] serialize(Object o) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(o);
+		}
+		return bytes.toByteArray();
+	}
+}
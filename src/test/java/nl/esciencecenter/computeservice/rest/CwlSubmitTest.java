@@ -2,12 +2,16 @@ package nl.esciencecenter.computeservice.rest;
 
 import static org.assertj.core.api.Assertions.assertThatCode;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
 
@@ -27,6 +31,10 @@ import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import nl.esciencecenter.client.CWLState;
 import nl.esciencecenter.client.Job;
@@ -40,6 +48,7 @@ import nl.esciencecenter.xenon.filesystems.Path;
 @TestPropertySource(locations="classpath:test.properties")
 public class CwlSubmitTest {
 	Logger logger = LoggerFactory.getLogger(CwlSubmitTest.class);
+	private ObjectMapper mapper = new ObjectMapper();
 
 	@Autowired
     private MockMvc mockMvc;
@@ -100,6 +109,58 @@ public class CwlSubmitTest {
 		}).doesNotThrowAnyException();
 	}
 	
+	@Test
+	public void bulkSubmitAndDeleteTest() throws Exception {
+		logger.info("Starting bulk submit test");
+		String echo = IOUtils.toString(this.getClass().getClassLoader().getResourceAsStream("jobs/echo-test.json"), "UTF-8");
+		String contents = "[" + echo + ",{\"name\":\"echo-fail\",\"workflow\":\"doesnotexist.cwl\",\"input\":{}}," + echo + "]";
+		MockHttpServletResponse response = mockMvc.perform(post("/jobs:batch")
+				.header(headerName, apiToken)
+				.accept(MediaType.APPLICATION_JSON)
+				.contentType(MediaType.APPLICATION_JSON)
+				.content(contents)
+		).andExpect(status().isOk()).andReturn().getResponse();
+
+		JsonNode results = mapper.readTree(response.getContentAsString());
+		assertEquals(3, results.size());
+		assertEquals(201, results.get(0).get("status").asInt());
+		assertEquals(400, results.get(1).get("status").asInt());
+		assertEquals(201, results.get(2).get("status").asInt());
+
+		String first = results.get(0).get("id").asText();
+		String second = results.get(2).get("id").asText();
+		Job job = CwlTestUtils.waitForFinal("/jobs/" + first, mockMvc, headerName, apiToken);
+		assertTrue(job.getState() == CWLState.SUCCESS);
+
+		response = mockMvc.perform(post("/jobs:delete")
+				.header(headerName, apiToken)
+				.contentType(MediaType.APPLICATION_JSON)
+				.content("[\"" + first + "\",\"" + second + "\",\"this_id_does_not_exist\"]")
+		).andExpect(status().isOk()).andReturn().getResponse();
+		results = mapper.readTree(response.getContentAsString());
+		assertEquals(200, results.get(0).get("status").asInt());
+		assertEquals(200, results.get(1).get("status").asInt());
+		assertEquals(404, results.get(2).get("status").asInt());
+
+		this.mockMvc.perform(get("/jobs/" + first)
+				.header(headerName, apiToken)).andExpect(status().isNotFound());
+		// Also while its files are still being removed
+		MvcResult waiting = this.mockMvc.perform(get("/jobs/" + first)
+				.param("waitFor", "Deleting")
+				.header(headerName, apiToken)).andExpect(request().asyncStarted()).andReturn();
+		this.mockMvc.perform(asyncDispatch(waiting)).andExpect(status().isNotFound());
+		String listed = this.mockMvc.perform(get("/jobs")
+				.param("state", "Deleting")
+				.header(headerName, apiToken)).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+		assertFalse(listed.contains(first));
+		this.mockMvc.perform(get("/jobs/" + first + "/log")
+				.header(headerName, apiToken)
+				.accept(MediaType.TEXT_PLAIN)).andExpect(status().isNotFound());
+		this.mockMvc.perform(get("/jobs/" + first + "/log?follow=true")
+				.header(headerName, apiToken)
+				.accept(MediaType.TEXT_EVENT_STREAM)).andExpect(status().isNotFound());
+	}
+	
 	@Test
 	public void submitAndWaitFailTest() {
 		logger.info("Starting fail test");
@@ -117,12 +178,36 @@ public class CwlSubmitTest {
 		String contents = IOUtils.toString(this.getClass().getClassLoader().getResourceAsStream("jobs/echo-test.json"), "UTF-8");
 		Job job = CwlTestUtils.postJobAndWaitForFinal(contents, mockMvc, headerName, apiToken);
 		
-		assertThatCode(() -> {
-			this.mockMvc.perform(get(job.getLog())
-					.header(headerName, apiToken)
-					.accept(MediaType.TEXT_PLAIN)
-			).andExpect(status().is2xxSuccessful());
-		}).doesNotThrowAnyException();
+		String log = this.mockMvc.perform(get(job.getLog())
+				.header(headerName, apiToken)
+				.accept(MediaType.TEXT_PLAIN)
+		).andExpect(status().is2xxSuccessful()).andReturn().getResponse().getContentAsString();
+		assertTrue(log.length() > 10);
+
+		String tail = this.mockMvc.perform(get(job.getLog() + "?offset=10")
+				.header(headerName, apiToken)
+				.accept(MediaType.TEXT_PLAIN)
+		).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+		// The log can have grown in between
+		assertTrue(tail.startsWith(log.substring(10)));
+
+		String range = this.mockMvc.perform(get(job.getLog())
+				.header(headerName, apiToken)
+				.header("Range", "bytes=0-9")
+				.accept(MediaType.TEXT_PLAIN)
+		).andExpect(status().isPartialContent()).andReturn().getResponse().getContentAsString();
+		assertEquals(log.substring(0, 10), range);
+
+		// The job is done, so the stream ends after what is in the log
+		MvcResult follow = this.mockMvc.perform(get(job.getLog() + "?follow=true&offset=10")
+				.header(headerName, apiToken)
+				.accept(MediaType.TEXT_EVENT_STREAM)
+		).andExpect(request().asyncStarted()).andReturn();
+		follow.getAsyncResult(10000);
+		String events = follow.getResponse().getContentAsString();
+		assertTrue(events.contains("event:log"));
+		assertTrue(events.contains("data:" + log.substring(10).split("\n")[0]));
+		assertTrue(events.contains("id:" + log.getBytes(StandardCharsets.UTF_8).length));
 	}
 	
 	@Test
@@ -0,0 +1,105 @@
+package nl.esciencecenter.computeservice.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+
+import nl.esciencecenter.computeservice.service.XenonService;
+
+@RunWith(SpringRunner.class)
+@AutoConfigureMockMvc
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, classes = {nl.esciencecenter.computeservice.rest.Application.class})
+@TestPropertySource(locations="classpath:test.properties")
+public class OutputApiTest {
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Autowired
+	private XenonService xenonService;
+
+	@Value("${xenonflow.http.auth-token-header-name}")
+	private String headerName;
+
+	@Value("${xenonflow.http.auth-token}")
+	private String apiToken;
+
+	private File directory;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = new File(xenonService.getConfig().getTargetFilesystemConfig().getLocation(), "output-api-test");
+		directory.mkdirs();
+		Files.write(new File(directory, "data.txt").toPath(), "0123456789".getBytes(StandardCharsets.UTF_8));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		FileUtils.deleteDirectory(directory);
+	}
+
+	@Test
+	public void rangeAndConditionalRequestsTest() throws Exception {
+		String etag = mockMvc.perform(get("/output/output-api-test/data.txt")
+				.header(headerName, apiToken))
+			.andExpect(status().isOk())
+			.andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"))
+			.andExpect(content().string("0123456789"))
+			.andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+		mockMvc.perform(get("/output/output-api-test/data.txt")
+				.header(headerName, apiToken)
+				.header(HttpHeaders.RANGE, "bytes=2-5"))
+			.andExpect(status().isPartialContent())
+			.andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 2-5/10"))
+			.andExpect(content().string("2345"));
+
+		mockMvc.perform(get("/output/output-api-test/data.txt")
+				.header(headerName, apiToken)
+				.header(HttpHeaders.RANGE, "bytes=7-"))
+			.andExpect(status().isPartialContent())
+			.andExpect(content().string("789"));
+
+		mockMvc.perform(get("/output/output-api-test/data.txt")
+				.header(headerName, apiToken)
+				.header(HttpHeaders.RANGE, "bytes=20-"))
+			.andExpect(status().isRequestedRangeNotSatisfiable());
+
+		// The range is ignored when the file changed since the client got its etag
+		mockMvc.perform(get("/output/output-api-test/data.txt")
+				.header(headerName, apiToken)
+				.header(HttpHeaders.RANGE, "bytes=2-5")
+				.header(HttpHeaders.IF_RANGE, "\"other\""))
+			.andExpect(status().isOk());
+
+		int notModified = mockMvc.perform(get("/output/output-api-test/data.txt")
+				.header(headerName, apiToken)
+				.header(HttpHeaders.IF_NONE_MATCH, etag))
+			.andReturn().getResponse().getStatus();
+		assertEquals(304, notModified);
+
+		mockMvc.perform(get("/output/output-api-test/missing.txt")
+				.header(headerName, apiToken))
+			.andExpect(status().isNotFound());
+	}
+}
@@ -81,7 +81,7 @@ public class XenonMonitorExceptionTest {
 		job.setName("does-not-exist");
 		job.setWorkflow("something.cwl");
 		job.setLog("/jobs/" + uuid + "/log");
-		job.getAdditionalInfo().put("createdAt", new Date());
+		job.setCreatedAt(new Date());
 		job.setXenonId("NOTEXISTING-1");
 		job.setURI("/jobs/"+uuid);
 		
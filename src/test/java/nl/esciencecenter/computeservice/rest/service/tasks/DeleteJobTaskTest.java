@@ -0,0 +1,135 @@
+package nl.esciencecenter.computeservice.rest.service.tasks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import nl.esciencecenter.computeservice.model.Job;
+import nl.esciencecenter.computeservice.model.JobRepository;
+import nl.esciencecenter.computeservice.model.JobState;
+import nl.esciencecenter.computeservice.service.JobBatch;
+import nl.esciencecenter.computeservice.service.XenonService;
+import nl.esciencecenter.computeservice.service.tasks.DeleteJobTask;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.Path;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = {nl.esciencecenter.computeservice.rest.Application.class})
+@TestPropertySource(locations="classpath:test.properties")
+public class DeleteJobTaskTest {
+	@Autowired
+	private DeleteJobTask deleteJobTask;
+
+	@Autowired
+	private JobRepository repository;
+
+	@Autowired
+	private XenonService xenonService;
+
+	private FileSystem remoteFileSystem;
+	private int batchSize;
+
+	@Before
+	public void setUp() throws Exception {
+		remoteFileSystem = xenonService.getRemoteFileSystem("local");
+		batchSize = (Integer) ReflectionTestUtils.getField(deleteJobTask, "batchSize");
+	}
+
+	@After
+	public void tearDown() {
+		ReflectionTestUtils.setField(deleteJobTask, "batchSize", batchSize);
+	}
+
+	@Test
+	public void deletingJobsAreRemovedInBatchesTest() throws Exception {
+		ReflectionTestUtils.setField(deleteJobTask, "batchSize", 2);
+		List<Job> jobs = new ArrayList<Job>();
+		for (int i = 0; i < 3; i++) {
+			jobs.add(newJob(JobState.DELETING, null));
+		}
+
+		deleteJobTask.deleteJobs("local");
+
+		for (Job job : jobs) {
+			assertFalse(remoteFileSystem.exists(sandbox(job)));
+			assertFalse(repository.existsById(job.getId()));
+		}
+	}
+
+	@Test
+	public void deletingJobsAreResumedTest() throws Exception {
+		// Left DELETING by an earlier run, the monitor picks it up without being asked
+		Job job = newJob(JobState.DELETING, null);
+		for (int i = 0; i < 300 && repository.existsById(job.getId()); i++) {
+			Thread.sleep(100);
+		}
+		assertFalse(repository.existsById(job.getId()));
+		assertFalse(remoteFileSystem.exists(sandbox(job)));
+	}
+
+	@Test
+	public void runningJobIsNotDeletingUntilStoppedTest() throws Exception {
+		String batchId = "batch-" + UUID.randomUUID().toString();
+		Job job = newJob(JobState.RUNNING_DELR, batchId);
+		JobBatch batch = new JobBatch(remoteFileSystem, batchId);
+		remoteFileSystem.createDirectories(batch.getDirectory());
+		write(batch.getDirectory().resolve(job.getId() + ".started"), "");
+
+		deleteJobTask.deleteJob(job.getId());
+		assertEquals(JobState.RUNNING_DELR, repository.findById(job.getId()).get().getInternalState());
+		assertTrue(remoteFileSystem.exists(batch.getDirectory().resolve(job.getId() + ".cancel")));
+		assertTrue(remoteFileSystem.exists(sandbox(job)));
+
+		// The batch killed it
+		write(batch.getDirectory().resolve(job.getId() + ".exitcode"), "143\n");
+		deleteJobTask.deleteJob(job.getId());
+		assertTrue(repository.findById(job.getId()).map(j -> j.getInternalState() == JobState.DELETING).orElse(true));
+		batch.delete();
+	}
+
+	private Job newJob(JobState state, String batchId) throws Exception {
+		Job job = new Job();
+		job.setId(UUID.randomUUID().toString());
+		job.setName("deleteJobTaskTest");
+		job.setWorkflow("echo.cwl");
+		job.setURI("");
+		job.setLog("");
+		job.setComputeResource("local");
+		job.setInternalState(state);
+		if (batchId != null) {
+			job.setBatchId(batchId);
+			job.setXenonId("local-0");
+		}
+
+		Path sandbox = sandbox(job);
+		remoteFileSystem.createDirectories(sandbox);
+		write(sandbox.resolve("stdout.txt"), "output");
+		return repository.saveAndFlush(job);
+	}
+
+	private Path sandbox(Job job) throws Exception {
+		return remoteFileSystem.getWorkingDirectory().resolve(job.getSandboxDirectory()).toAbsolutePath();
+	}
+
+	private void write(Path path, String contents) throws Exception {
+		try (OutputStream out = remoteFileSystem.writeToFile(path)) {
+			out.write(contents.getBytes(StandardCharsets.UTF_8));
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package nl.esciencecenter.computeservice.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+public class EventSenderTest {
+	private EventSender sender;
+	private CountDownLatch release;
+	private List<EventSender.Client> closed;
+
+	@Before
+	public void setUp() {
+		sender = new EventSender();
+		ReflectionTestUtils.setField(sender, "threads", 2);
+		ReflectionTestUtils.setField(sender, "queueSize", 2);
+		ReflectionTestUtils.setField(sender, "sendTimeout", 10000L);
+		sender.initialize();
+		release = new CountDownLatch(1);
+		closed = new CopyOnWriteArrayList<EventSender.Client>();
+	}
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		sender.shutdown();
+	}
+
+	@Test
+	public void slowClientIsDroppedTest() throws Exception {
+		EventSender.Client slow = sender.open(new SseEmitter(), closed::add);
+		EventSender.Client fast = sender.open(new SseEmitter(), closed::add);
+
+		slow.submit(emitter -> block());
+		for (int i = 0; i < 4; i++) {
+			slow.submit(emitter -> {});
+		}
+		assertTrue(slow.isClosed());
+		assertEquals(1, closed.size());
+
+		// The other client is not held up
+		CountDownLatch received = new CountDownLatch(1);
+		assertTrue(fast.submit(emitter -> received.countDown()));
+		assertTrue(received.await(5, TimeUnit.SECONDS));
+		assertFalse(fast.isClosed());
+	}
+
+	@Test
+	public void stuckClientIsDroppedTest() throws Exception {
+		EventSender.Client stuck = sender.open(new SseEmitter(), closed::add);
+		CountDownLatch started = new CountDownLatch(1);
+		stuck.submit(emitter -> {
+			started.countDown();
+			block();
+		});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		ReflectionTestUtils.setField(sender, "sendTimeout", -1L);
+		sender.dropStuckClients();
+		assertTrue(stuck.isClosed());
+		assertFalse(stuck.submit(emitter -> {}));
+	}
+
+	@Test
+	public void stuckClientsFreeTheirThreadsTest() throws Exception {
+		ReflectionTestUtils.setField(sender, "sendTimeout", -1L);
+		// More stuck clients than there are threads
+		CountDownLatch started = new CountDownLatch(3);
+		List<EventSender.Client> stuck = new CopyOnWriteArrayList<EventSender.Client>();
+		for (int i = 0; i < 3; i++) {
+			EventSender.Client client = sender.open(new SseEmitter(), closed::add);
+			client.submit(emitter -> {
+				started.countDown();
+				block();
+			});
+			stuck.add(client);
+		}
+
+		// The last one only gets a thread when one of the others is dropped
+		for (int i = 0; i < 50 && started.getCount() > 0; i++) {
+			sender.dropStuckClients();
+			Thread.sleep(100);
+		}
+		assertEquals(0, started.getCount());
+		sender.dropStuckClients();
+		for (EventSender.Client client : stuck) {
+			assertTrue(client.isClosed());
+		}
+
+		EventSender.Client fast = sender.open(new SseEmitter(), closed::add);
+		CountDownLatch received = new CountDownLatch(1);
+		assertTrue(fast.submit(emitter -> received.countDown()));
+		assertTrue(received.await(5, TimeUnit.SECONDS));
+	}
+
+	private void block() throws InterruptedIOException {
+		try {
+			release.await();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		}
+	}
+}
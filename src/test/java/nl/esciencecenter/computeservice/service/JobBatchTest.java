@@ -0,0 +1,99 @@
+package nl.esciencecenter.computeservice.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import nl.esciencecenter.computeservice.model.Job;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+
+public class JobBatchTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private FileSystem fileSystem;
+
+	@Before
+	public void setUp() throws Exception {
+		fileSystem = FileSystem.create("file", folder.getRoot().getAbsolutePath());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		fileSystem.close();
+	}
+
+	@Test
+	public void progressIsReadFromMarkersTest() throws Exception {
+		JobBatch batch = new JobBatch(fileSystem, "batch-1");
+		File directory = new File(batch.getDirectory().toString());
+		directory.mkdirs();
+		Files.write(new File(directory, "a.started").toPath(), new byte[0]);
+		Files.write(new File(directory, "a.exitcode").toPath(), "3\n".getBytes(StandardCharsets.UTF_8));
+		Files.write(new File(directory, "b.started").toPath(), new byte[0]);
+
+		JobBatch.Progress progress = batch.readProgress(Arrays.asList("a", "b", "c"));
+		assertEquals(Integer.valueOf(3), progress.getExitcode("a"));
+		assertTrue(progress.hasStarted("b"));
+		assertNull(progress.getExitcode("b"));
+		assertFalse(progress.hasStarted("c"));
+
+		batch.skip("c");
+		assertTrue(new File(directory, "c.cancel").exists());
+
+		batch.delete();
+		assertFalse(directory.exists());
+	}
+
+	@Test
+	public void skippedJobsAreNotRunOrKilledTest() throws Exception {
+		JobBatch batch = new JobBatch(fileSystem, "batch-2");
+		batch.writeScript(Arrays.asList(job("job-a", "sleep 60"), job("job-b", "exit 0"), job("job-c", "exit 0")));
+		File directory = new File(batch.getDirectory().toString());
+		batch.skip("job-b");
+
+		Process process = new ProcessBuilder("bash", JobBatch.SCRIPT).directory(directory).start();
+		try {
+			File started = new File(directory, "job-a.pid");
+			for (int i = 0; i < 100 && !started.exists(); i++) {
+				Thread.sleep(100);
+			}
+			assertTrue(started.exists());
+			batch.skip("job-a");
+			assertTrue(process.waitFor(30, TimeUnit.SECONDS));
+		} finally {
+			process.destroy();
+		}
+
+		JobBatch.Progress progress = batch.readProgress(Arrays.asList("job-a", "job-b", "job-c"));
+		assertNotEquals(Integer.valueOf(0), progress.getExitcode("job-a"));
+		assertFalse(progress.hasStarted("job-b"));
+		assertEquals(Integer.valueOf(0), progress.getExitcode("job-c"));
+	}
+
+	private Job job(String id, String command) throws Exception {
+		File sandbox = folder.newFolder(id);
+		File cwlcommand = new File(sandbox, "cwlcommand");
+		Files.write(cwlcommand.toPath(), ("#!/usr/bin/env bash\n" + command + "\n").getBytes(StandardCharsets.UTF_8));
+		cwlcommand.setExecutable(true);
+
+		Job job = new Job();
+		job.setId(id);
+		job.setWorkflow("workflow.cwl");
+		return job;
+	}
+}
@@ -0,0 +1,116 @@
+package nl.esciencecenter.computeservice.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import nl.esciencecenter.computeservice.config.XenonflowConfig;
+import nl.esciencecenter.computeservice.model.JobRepository;
+import nl.esciencecenter.computeservice.model.JobState;
+import nl.esciencecenter.computeservice.model.JobStateCount;
+
+public class JobStateCountersTest {
+	private JobRepository repository;
+	private JobStateCounters counters;
+
+	@Before
+	public void setUp() {
+		XenonflowConfig config = mock(XenonflowConfig.class);
+		when(config.getDefaultComputeResourceName()).thenReturn("local");
+		XenonService xenonService = mock(XenonService.class);
+		when(xenonService.getConfig()).thenReturn(config);
+		repository = mock(JobRepository.class);
+
+		counters = new JobStateCounters();
+		ReflectionTestUtils.setField(counters, "repository", repository);
+		ReflectionTestUtils.setField(counters, "xenonService", xenonService);
+	}
+
+	@Test
+	public void transitionsAreCountedTest() {
+		when(repository.countByInternalStateAndComputeResource()).thenReturn(counts(count(JobState.WAITING, 2)));
+		counters.reconcile();
+
+		counters.onJobStateChanged(new JobStateChangedEvent("a", "local", JobState.WAITING, JobState.RUNNING));
+		counters.onJobStateChanged(new JobStateChangedEvent("b", null, null, JobState.SUBMITTED));
+		assertEquals(1, counters.getCount(JobState.WAITING));
+		assertEquals(1, counters.getCount(JobState.RUNNING));
+		assertEquals(3, counters.getActiveCount("local"));
+
+		counters.onJobStateChanged(new JobStateChangedEvent("a", "local", JobState.RUNNING, JobState.SUCCESS));
+		counters.onJobStateChanged(new JobStateChangedEvent("a", "local", JobState.SUCCESS, null));
+		assertEquals(0, counters.getCount(JobState.RUNNING));
+		assertEquals(0, counters.getCount(JobState.SUCCESS));
+		assertEquals(2, counters.getActiveCount("local"));
+	}
+
+	@Test
+	public void eventsBeforeReconcileAreNotCountedTwiceTest() {
+		when(repository.countByInternalStateAndComputeResource()).thenReturn(counts(count(JobState.WAITING, 1)));
+		counters.reconcile();
+
+		// Committed before the query, but the listener only runs after it
+		JobStateChangedEvent late = new JobStateChangedEvent("a", "local", JobState.WAITING, JobState.RUNNING);
+		when(repository.countByInternalStateAndComputeResource()).thenReturn(counts(count(JobState.RUNNING, 1)));
+		counters.reconcile();
+		counters.onJobStateChanged(late);
+
+		assertEquals(0, counters.getCount(JobState.WAITING));
+		assertEquals(1, counters.getCount(JobState.RUNNING));
+	}
+
+	@Test
+	public void countsStayDuringReconcileTest() {
+		when(repository.countByInternalStateAndComputeResource()).thenReturn(counts(count(JobState.WAITING, 2)));
+		counters.reconcile();
+
+		List<Long> seen = new ArrayList<Long>();
+		when(repository.countByInternalStateAndComputeResource()).thenAnswer(invocation -> {
+			seen.add(counters.getCount(JobState.WAITING));
+			// Comes in while the query runs, the query did not count it
+			counters.onJobStateChanged(new JobStateChangedEvent("a", "local", JobState.WAITING, JobState.RUNNING));
+			seen.add(counters.getCount(JobState.WAITING));
+			return counts(count(JobState.WAITING, 2));
+		});
+		counters.reconcile();
+
+		assertEquals(2L, (long) seen.get(0));
+		assertEquals(1L, (long) seen.get(1));
+		assertEquals(1, counters.getCount(JobState.WAITING));
+		assertEquals(1, counters.getCount(JobState.RUNNING));
+	}
+
+	private List<JobStateCount> counts(JobStateCount... counts) {
+		List<JobStateCount> list = new ArrayList<JobStateCount>();
+		for (JobStateCount count : counts) {
+			list.add(count);
+		}
+		return list;
+	}
+
+	private JobStateCount count(JobState state, long count) {
+		return new JobStateCount() {
+			@Override
+			public JobState getInternalState() {
+				return state;
+			}
+
+			@Override
+			public String getComputeResource() {
+				return "local";
+			}
+
+			@Override
+			public Long getCount() {
+				return count;
+			}
+		};
+	}
+}
@@ -0,0 +1,92 @@
+package nl.esciencecenter.computeservice.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Date;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import nl.esciencecenter.computeservice.config.ComputeResource;
+import nl.esciencecenter.computeservice.config.XenonflowConfig;
+import nl.esciencecenter.computeservice.model.JobState;
+
+public class PollScheduleTest {
+	private static final long HOUR = 3600000L;
+
+	private PollSchedule schedule;
+
+	@Before
+	public void setUp() {
+		ComputeResource resource = new ComputeResource();
+		resource.setMaxTime(60);
+		XenonflowConfig config = mock(XenonflowConfig.class);
+		when(config.computeResource("cluster")).thenReturn(resource);
+		XenonService xenonService = mock(XenonService.class);
+		when(xenonService.getConfig()).thenReturn(config);
+
+		schedule = new PollSchedule();
+		ReflectionTestUtils.setField(schedule, "xenonService", xenonService);
+		ReflectionTestUtils.setField(schedule, "minInterval", 1000L);
+		ReflectionTestUtils.setField(schedule, "maxInterval", HOUR);
+	}
+
+	@Test
+	public void intervalBacksOffUntilChangeTest() {
+		ReflectionTestUtils.setField(schedule, "maxInterval", 8000L);
+		long now = 0;
+		assertTrue(schedule.isDue("job", JobState.WAITING, null, now));
+
+		for (long expected : new long[] { 2000, 4000, 8000, 8000 }) {
+			schedule.polled("job", "cluster", false, now);
+			assertEquals(expected, nextPoll(now));
+			assertFalse(schedule.isDue("job", JobState.WAITING, null, now + 1000));
+			now += expected;
+			assertTrue(schedule.isDue("job", JobState.WAITING, null, now));
+		}
+
+		schedule.polled("job", "cluster", true, now);
+		assertEquals(1000, nextPoll(now));
+	}
+
+	@Test
+	public void newStateStartsOverTest() {
+		schedule.isDue("job", JobState.WAITING, null, 0);
+		schedule.polled("job", "cluster", false, 0);
+		schedule.polled("job", "cluster", false, 2000);
+		assertFalse(schedule.isDue("job", JobState.WAITING, null, 3000));
+		assertTrue(schedule.isDue("job", JobState.RUNNING, new Date(3000), 3000));
+	}
+
+	@Test
+	public void intervalTightensNearMaxTimeTest() {
+		long now = System.currentTimeMillis();
+		// Started long before the schedule first saw it, as after a restart
+		Date startedAt = new Date(now - 59 * 60000L);
+		schedule.isDue("old", JobState.RUNNING, startedAt, now);
+		schedule.isDue("new", JobState.RUNNING, new Date(now), now);
+
+		for (int i = 0; i < 6; i++) {
+			schedule.polled("old", "cluster", false, now);
+			schedule.polled("new", "cluster", false, now);
+		}
+		// A quarter of the minute that is left
+		assertEquals(15000, nextPoll("old", now));
+		assertEquals(64000, nextPoll("new", now));
+	}
+
+	private long nextPoll(long now) {
+		return nextPoll("job", now);
+	}
+
+	private long nextPoll(String key, long now) {
+		Object entry = ((Map<?, ?>) ReflectionTestUtils.getField(schedule, "entries")).get(key);
+		return (Long) ReflectionTestUtils.getField(entry, "nextPoll") - now;
+	}
+}
@@ -0,0 +1,81 @@
+package nl.esciencecenter.computeservice.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import nl.esciencecenter.computeservice.config.AdaptorConfig;
+import nl.esciencecenter.computeservice.config.ComputeResource;
+
+public class RemoteConnectionPoolTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private RemoteConnectionPool pool;
+
+	@Before
+	public void setUp() throws Exception {
+		AdaptorConfig scheduler = new AdaptorConfig(null);
+		scheduler.setAdaptor("local");
+		scheduler.setLocation(folder.getRoot().getAbsolutePath());
+
+		ComputeResource resource = new ComputeResource();
+		resource.setSchedulerConfig(scheduler);
+		resource.setConnections(4);
+
+		pool = new RemoteConnectionPool("local", resource);
+	}
+
+	@After
+	public void tearDown() {
+		pool.close();
+	}
+
+	@Test
+	public void embeddedSchedulerUsesSingleConnectionTest() throws Exception {
+		assertEquals(1, pool.getMaxSize());
+
+		RemoteConnection first = pool.borrow();
+		RemoteConnection second = pool.borrow();
+		assertSame(first, second);
+		assertSame(first, pool.shared());
+
+		pool.release(first);
+		pool.release(second);
+		assertEquals(1, pool.size());
+	}
+
+	@Test
+	public void invalidatedConnectionIsReplacedTest() throws Exception {
+		RemoteConnection first = pool.borrow();
+		pool.invalidate(first);
+		pool.release(first);
+
+		RemoteConnection second = pool.borrow();
+		assertNotSame(first, second);
+		pool.release(second);
+		assertEquals(1, pool.size());
+	}
+
+	@Test
+	public void sharedConnectionIsKeptUntilDroppedTest() throws Exception {
+		RemoteConnection shared = pool.shared();
+		assertSame(shared, pool.shared());
+
+		// Still in use by the callers of shared(), so not closed yet
+		pool.invalidate(shared);
+		assertTrue(shared.isOpen());
+
+		RemoteConnection replacement = pool.shared();
+		assertNotSame(shared, replacement);
+		assertFalse(shared.isOpen());
+	}
+}
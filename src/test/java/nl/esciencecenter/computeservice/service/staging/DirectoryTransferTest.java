@@ -0,0 +1,81 @@
+package nl.esciencecenter.computeservice.service.staging;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.Path;
+
+public class DirectoryTransferTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private FileSystem fileSystem;
+	private ExecutorService entryPool;
+	private File source;
+	private File target;
+
+	@Before
+	public void setUp() throws Exception {
+		fileSystem = FileSystem.create("file");
+		entryPool = Executors.newFixedThreadPool(2);
+		source = folder.newFolder("source");
+		target = new File(folder.getRoot(), "target");
+		new File(source, "sub").mkdirs();
+		write(new File(source, "a.txt"), "first file");
+		write(new File(source, "sub/b.txt"), "second file");
+		write(new File(source, "sub/c.txt"), "third file");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		entryPool.shutdownNow();
+		fileSystem.close();
+	}
+
+	@Test
+	public void copiesOnlyChangedFilesTest() throws Exception {
+		AtomicLong progress = new AtomicLong();
+		DirectoryTransfer first = transfer(progress);
+		long bytes = first.call();
+		assertEquals(31, bytes);
+		assertEquals(31, progress.get());
+		assertEquals(3, first.getFilesCopied());
+		assertArrayEquals(Files.readAllBytes(new File(source, "sub/b.txt").toPath()), Files.readAllBytes(new File(target, "sub/b.txt").toPath()));
+
+		// Same size, but changed after it was copied
+		File changed = new File(source, "sub/c.txt");
+		write(changed, "THIRD FILE");
+		changed.setLastModified(System.currentTimeMillis() + 60000);
+		new File(target, "a.txt").delete();
+
+		DirectoryTransfer second = transfer(progress);
+		assertEquals(31, (long) second.call());
+		assertEquals(2, second.getFilesCopied());
+		assertEquals(1, second.getFilesSkipped());
+		assertEquals("THIRD FILE", new String(Files.readAllBytes(new File(target, "sub/c.txt").toPath()), StandardCharsets.UTF_8));
+		assertEquals("first file", new String(Files.readAllBytes(new File(target, "a.txt").toPath()), StandardCharsets.UTF_8));
+	}
+
+	private DirectoryTransfer transfer(AtomicLong progress) {
+		return new DirectoryTransfer(fileSystem, new Path(source.getAbsolutePath()), fileSystem, new Path(target.getAbsolutePath()),
+				entryPool, 0, progress::set);
+	}
+
+	private static void write(File file, String contents) throws Exception {
+		Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+	}
+}
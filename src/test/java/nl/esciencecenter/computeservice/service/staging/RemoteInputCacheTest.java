@@ -0,0 +1,130 @@
+package nl.esciencecenter.computeservice.service.staging;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import nl.esciencecenter.computeservice.config.StagingConfig;
+import nl.esciencecenter.computeservice.model.CachedInput;
+import nl.esciencecenter.computeservice.model.CachedInputRepository;
+import nl.esciencecenter.computeservice.model.JobState;
+import nl.esciencecenter.computeservice.service.JobStateChangedEvent;
+import nl.esciencecenter.computeservice.service.XenonService;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.Path;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = {nl.esciencecenter.computeservice.rest.Application.class})
+@TestPropertySource(locations="classpath:test.properties")
+public class RemoteInputCacheTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Autowired
+	private RemoteInputCache inputCache;
+
+	@Autowired
+	private CachedInputRepository cache;
+
+	@Autowired
+	private XenonService xenonService;
+
+	private StagingConfig config;
+	private long cacheSize;
+	private long cacheMinFileSize;
+	private FileSystem sourceFileSystem;
+	private FileSystem remoteFileSystem;
+
+	@Before
+	public void setUp() throws Exception {
+		config = xenonService.getConfig().getStagingConfig();
+		cacheSize = config.getCacheSize();
+		cacheMinFileSize = config.getCacheMinFileSize();
+		config.setCacheSize(Long.MAX_VALUE);
+		config.setCacheMinFileSize(0);
+		sourceFileSystem = FileSystem.create("file");
+		remoteFileSystem = xenonService.getRemoteFileSystem("local");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		config.setCacheSize(cacheSize);
+		config.setCacheMinFileSize(cacheMinFileSize);
+		sourceFileSystem.close();
+	}
+
+	@Test
+	public void evictsUnreferencedInputTest() throws Exception {
+		CachedInput entry = cacheFile("job-a", newSource("evicted.txt"));
+		Path cached = new Path(entry.getPath());
+
+		config.setCacheSize(1);
+		inputCache.evict();
+		// Still used by the job
+		assertTrue(remoteFileSystem.exists(cached));
+
+		done("job-a");
+		inputCache.evict();
+		assertFalse(remoteFileSystem.exists(cached));
+		assertFalse(cache.existsById(entry.getId()));
+	}
+
+	@Test
+	public void acquireDuringEvictionTest() throws Exception {
+		for (int i = 0; i < 20; i++) {
+			Path source = newSource("raced-" + i + ".txt");
+			cacheFile("job-x" + i, source);
+			done("job-x" + i);
+
+			config.setCacheSize(1);
+			Thread evictor = new Thread(inputCache::evict);
+			evictor.start();
+			CachedInput entry = inputCache.acquire("job-y" + i, "local", sourceFileSystem, source, remoteFileSystem);
+			evictor.join();
+
+			if (entry != null && entry.isReady()) {
+				// The job links to it, so it can not have been evicted
+				assertTrue(remoteFileSystem.exists(new Path(entry.getPath())));
+			} else if (entry != null) {
+				// Evicted first, the job would copy it into the cache again
+				inputCache.completed(entry, new Exception("Not copied"));
+			}
+			done("job-y" + i);
+			config.setCacheSize(Long.MAX_VALUE);
+		}
+	}
+
+	private Path newSource(String name) throws Exception {
+		File file = folder.newFile(name);
+		Files.write(file.toPath(), new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 });
+		return new Path(file.getAbsolutePath());
+	}
+
+	private CachedInput cacheFile(String jobId, Path source) throws Exception {
+		CachedInput entry = inputCache.acquire(jobId, "local", sourceFileSystem, source, remoteFileSystem);
+		assertNotNull(entry);
+		assertFalse(entry.isReady());
+		Files.copy(Paths.get(source.toString()), Paths.get(entry.getPath()));
+		inputCache.completed(entry, null);
+		return entry;
+	}
+
+	private void done(String jobId) {
+		inputCache.onJobStateChanged(new JobStateChangedEvent(jobId, "local", JobState.RUNNING, JobState.SUCCESS));
+	}
+}
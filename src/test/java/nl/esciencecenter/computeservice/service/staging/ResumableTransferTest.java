@@ -0,0 +1,70 @@
+package nl.esciencecenter.computeservice.service.staging;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.Path;
+
+public class ResumableTransferTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private FileSystem fileSystem;
+	private byte[] contents;
+	private File source;
+	private File target;
+
+	@Before
+	public void setUp() throws Exception {
+		fileSystem = FileSystem.create("file");
+		contents = new byte[3000];
+		new Random(42).nextBytes(contents);
+		source = folder.newFile("source.bin");
+		Files.write(source.toPath(), contents);
+		target = new File(folder.getRoot(), "target.bin");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		fileSystem.close();
+	}
+
+	@Test
+	public void resumesPartialCopyTest() throws Exception {
+		Files.write(target.toPath(), Arrays.copyOf(contents, 1000));
+
+		AtomicLong progress = new AtomicLong();
+		long copied = transfer(progress).call();
+
+		assertEquals(contents.length, copied);
+		assertEquals(contents.length, progress.get());
+		assertArrayEquals(contents, Files.readAllBytes(target.toPath()));
+	}
+
+	@Test
+	public void replacesLargerTargetTest() throws Exception {
+		Files.write(target.toPath(), new byte[4000]);
+
+		transfer(new AtomicLong()).call();
+
+		assertArrayEquals(contents, Files.readAllBytes(target.toPath()));
+	}
+
+	private ResumableTransfer transfer(AtomicLong progress) {
+		return new ResumableTransfer(fileSystem, new Path(source.getAbsolutePath()), fileSystem,
+				new Path(target.getAbsolutePath()), contents.length, progress::set);
+	}
+}
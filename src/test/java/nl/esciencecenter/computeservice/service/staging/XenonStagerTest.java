@@ -0,0 +1,100 @@
+package nl.esciencecenter.computeservice.service.staging;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Optional;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import nl.esciencecenter.computeservice.config.StagingConfig;
+import nl.esciencecenter.computeservice.config.XenonflowConfig;
+import nl.esciencecenter.computeservice.model.Job;
+import nl.esciencecenter.computeservice.model.JobRepository;
+import nl.esciencecenter.computeservice.model.JobState;
+import nl.esciencecenter.computeservice.service.JobService;
+import nl.esciencecenter.computeservice.service.RemoteConnection;
+import nl.esciencecenter.computeservice.service.XenonService;
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.Path;
+
+public class XenonStagerTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private FileSystem fileSystem;
+	private JobService jobService;
+	private JobRepository repository;
+	private XenonService service;
+	private RemoteConnection connection;
+	private XenonStager stager;
+
+	@Before
+	public void setUp() throws Exception {
+		fileSystem = FileSystem.create("file", folder.getRoot().getAbsolutePath());
+		jobService = mock(JobService.class);
+		repository = mock(JobRepository.class);
+		service = mock(XenonService.class);
+		connection = mock(RemoteConnection.class);
+
+		StagingConfig stagingConfig = new StagingConfig();
+		stagingConfig.setCopyPollInterval(10);
+		XenonflowConfig config = mock(XenonflowConfig.class);
+		when(config.getStagingConfig()).thenReturn(stagingConfig);
+		when(service.getConfig()).thenReturn(config);
+		when(service.borrowConnection("default")).thenReturn(connection);
+
+		stager = new XenonStager(jobService, repository, service) {
+			@Override
+			protected FileSystem getTargetFileSystem(RemoteConnection remote) {
+				return fileSystem;
+			}
+
+			@Override
+			protected FileSystem getSourceFileSystem(RemoteConnection remote) {
+				return fileSystem;
+			}
+
+			@Override
+			protected FileSystem getCwlFileSystem(RemoteConnection remote) {
+				return fileSystem;
+			}
+		};
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		stager.shutdown();
+		fileSystem.close();
+	}
+
+	@Test
+	public void stageInFinishesWhenCopiesAreDoneTest() throws Exception {
+		byte[] contents = "some input".getBytes(StandardCharsets.UTF_8);
+		Files.write(folder.newFile("input.txt").toPath(), contents);
+
+		Job job = new Job();
+		job.setId("job-1");
+		when(repository.findById("job-1")).thenReturn(Optional.of(job));
+		when(jobService.setJobState("job-1", JobState.STAGING_IN, JobState.STAGING_READY)).thenReturn(job);
+
+		StagingManifest manifest = new StagingManifest("job-1", new Path("job-1"));
+		manifest.setComputeResource("default");
+		manifest.add(new FileStagingObject(new Path("input.txt"), new Path("input.txt"), null));
+		stager.stageIn(manifest);
+
+		verify(jobService, timeout(5000)).setJobState("job-1", JobState.STAGING_IN, JobState.STAGING_READY);
+		verify(service, timeout(5000)).releaseConnection(connection);
+		assertArrayEquals(contents, Files.readAllBytes(new File(folder.getRoot(), "job-1/input.txt").toPath()));
+	}
+}
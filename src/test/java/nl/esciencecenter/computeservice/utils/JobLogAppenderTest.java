@@ -0,0 +1,125 @@
+package nl.esciencecenter.computeservice.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.Appender;
+
+public class JobLogAppenderTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private LoggerContext context;
+	private JobLogAppender appender;
+	private Appender<ILoggingEvent> front;
+
+	@Before
+	public void setUp() {
+		context = new LoggerContext();
+
+		PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+		encoder.setContext(context);
+		encoder.setPattern("%msg%n");
+		encoder.start();
+
+		appender = new JobLogAppender();
+		appender.setContext(context);
+		appender.setBasePath(folder.getRoot().getAbsolutePath());
+		appender.setMaxOpen(2);
+		appender.setEncoder(encoder);
+		appender.start();
+		front = appender;
+	}
+
+	@After
+	public void tearDown() {
+		front.stop();
+		appender.stop();
+	}
+
+	@Test
+	public void leastRecentlyUsedLogIsReopenedTest() throws Exception {
+		log("jobs.a", "a1");
+		log("jobs.b", "b1");
+		log("jobs.c", "c1");
+		assertEquals(2, appender.getOpenCount());
+
+		// jobs.a was closed to open jobs.c, and is appended to again
+		log("jobs.a", "a2");
+		appender.close("jobs.c");
+		appender.flushAll();
+
+		assertEquals(2, appender.getOpenCount());
+		assertEquals("a1\na2\n", read("jobs.a"));
+		assertEquals("b1\n", read("jobs.b"));
+		assertEquals("c1\n", read("jobs.c"));
+	}
+
+	@Test
+	public void otherLoggersAreIgnoredTest() {
+		log("jobs", "nothing");
+		log("nl.esciencecenter", "nothing");
+		assertEquals(0, appender.getOpenCount());
+		assertEquals(0, folder.getRoot().list().length);
+	}
+
+	@Test
+	public void flushWaitsForQueuedEventsTest() throws Exception {
+		queue();
+		for (int i = 0; i < 1000; i++) {
+			log("jobs.a", "line " + i);
+		}
+		assertTrue(appender.flush("jobs.a", 10000));
+		assertEquals(1000, Files.readAllLines(new File(folder.getRoot(), "jobs.a.log").toPath()).size());
+	}
+
+	@Test
+	public void finishedLogIsNotReopenedTest() throws Exception {
+		queue();
+		log("jobs.a", "a1");
+		appender.finishLater("jobs.a");
+		log("jobs.a", "late");
+		assertTrue(appender.flush("jobs.a", 10000));
+
+		assertEquals(0, appender.getOpenCount());
+		assertEquals("a1\n", read("jobs.a"));
+	}
+
+	private void queue() {
+		AsyncAppender async = new AsyncAppender();
+		async.setContext(context);
+		async.setDiscardingThreshold(0);
+		async.addAppender(appender);
+		async.start();
+		appender.setFront(async);
+		front = async;
+	}
+
+	private void log(String name, String message) {
+		Logger logger = context.getLogger(name);
+		front.doAppend(new LoggingEvent(Logger.class.getName(), logger, Level.INFO, message, null, null));
+	}
+
+	private String read(String name) throws Exception {
+		List<String> lines = Files.readAllLines(new File(folder.getRoot(), name + ".log").toPath(), StandardCharsets.UTF_8);
+		return String.join("\n", lines) + "\n";
+	}
+}
@@ -0,0 +1,67 @@
+package org.commonwl.cwl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.commonwl.cwl.utils.WorkflowRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import nl.esciencecenter.xenon.filesystems.FileSystem;
+import nl.esciencecenter.xenon.filesystems.Path;
+
+public class WorkflowRegistryTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private FileSystem fileSystem;
+
+	@Before
+	public void setUp() throws Exception {
+		fileSystem = FileSystem.create("file");
+		WorkflowRegistry.clear();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		WorkflowRegistry.setRecheckInterval(1000);
+		fileSystem.close();
+	}
+
+	@Test
+	public void changedWorkflowIsParsedAgainTest() throws Exception {
+		File file = new File(folder.getRoot(), "workflow.cwl");
+		Files.copy(new File("src/test/resources/cwl/echo.cwl").toPath(), file.toPath());
+		Path path = new Path(file.getAbsolutePath());
+
+		assertEquals("inp", WorkflowRegistry.getWorkflow(fileSystem, path).getInputs()[0].getId());
+
+		// Check the file on every call, and make sure the change is visible even on a coarse clock
+		WorkflowRegistry.setRecheckInterval(0);
+		long lastModified = file.lastModified();
+		Files.copy(new File("src/test/resources/cwl/count-lines.cwl").toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		file.setLastModified(lastModified + 10000);
+
+		assertEquals("file1", WorkflowRegistry.getWorkflow(fileSystem, path).getInputs()[0].getId());
+	}
+
+	@Test
+	public void callersGetTheirOwnCopyTest() throws Exception {
+		Path path = new Path(new File("src/test/resources/cwl/echo.cwl").getAbsolutePath());
+
+		Workflow first = WorkflowRegistry.getWorkflow(fileSystem, path);
+		first.getInputs()[0].put("default", "changed");
+
+		Workflow second = WorkflowRegistry.getWorkflow(fileSystem, path);
+		assertNotSame(first, second);
+		assertNull(second.getInputs()[0].get("default"));
+	}
+}
@@ -39,8 +39,10 @@ def wait_until_finished(created, headers, quiet):
     joburl = created_json['uri']
 
     while True:
-        time.sleep(1)
-        response = requests.get(joburl, headers=headers)
+        # Wait on the server for the job to finish, instead of polling
+        started = time.time()
+        response = requests.get(joburl, headers=headers,
+                                params={'waitFor': 'final', 'timeout': 30})
         if response.status_code == 200:
             response_json = response.json()
             status = response_json['state']
@@ -58,6 +60,9 @@ def wait_until_finished(created, headers, quiet):
             elif status not in WAITING_STATES:
                 print("Unsupported state received from xenonflow: ", status)
                 return -1
+            elif time.time() - started < 1:
+                # Older servers ignore waitFor and return immediately
+                time.sleep(1)
         else:
             if not quiet:
                 print("Received a non 200 reply from xenonflow: ",